@@ -0,0 +1,56 @@
+package com.csforge.sstable;
+
+import com.google.common.io.ByteStreams;
+import org.apache.cassandra.io.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * Merges all sstables of the set into one. Each invocation writes to an empty directory that is deleted afterwards.
+ */
+@State(Scope.Thread)
+public class CompactBenchmark {
+
+    private PrintStream stdout;
+
+    private File output;
+
+    private Compact compact;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        // Compact.run reports what it merges on stdout
+        stdout = System.out;
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare(SSTableState state) throws Exception {
+        output = Files.createTempDirectory(state.root.toPath(), "compact").toFile();
+        compact = new Compact(state.directory.getAbsolutePath());
+        compact.directory = output;
+    }
+
+    @Benchmark
+    public void compact() {
+        compact.run();
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanup() {
+        FileUtils.deleteRecursive(output);
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        System.setOut(stdout);
+    }
+}
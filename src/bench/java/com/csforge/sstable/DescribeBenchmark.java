@@ -0,0 +1,25 @@
+package com.csforge.sstable;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Describes every sstable of the set, discarding the output.
+ */
+@State(Scope.Thread)
+public class DescribeBenchmark {
+
+    private final PrintStream out = new PrintStream(ByteStreams.nullOutputStream());
+
+    @Benchmark
+    public void describe(SSTableState state) throws Exception {
+        for (File file : state.files) {
+            CassandraUtils.printStats(file.getAbsolutePath(), out);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.csforge.sstable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.Writer;
+
+/**
+ * Exports the table in each output format. This is the formatting path of both DUMP in cqlsh (with -o) and the dump
+ * command, the output is discarded so only reading and formatting is measured.
+ */
+@State(Scope.Thread)
+public class DumpBenchmark {
+
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        public void write(String str) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    };
+
+    @Param({"json", "csv"})
+    public String format;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Benchmark
+    public long dump(SSTableState state) throws Exception {
+        return new Dump(state.files, state.metadata, OutputWriter.Format.parse(format), threads).run(NULL_WRITER);
+    }
+}
@@ -0,0 +1,54 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+
+/**
+ * Range scans of the whole table, unpaged and in pages of 100 rows, and single partition lookups.
+ */
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private Query range;
+
+    private Query point;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void prepare(SSTableState state) throws Exception {
+        range = new Query("SELECT * FROM sstables", state.files, state.metadata);
+        point = new Query("SELECT * FROM sstables WHERE key = ?", state.files, state.metadata);
+    }
+
+    @Benchmark
+    public void rangeUnpaged(Blackhole bh) throws Exception {
+        bh.consume(range.getResults().getResultSet().rows);
+    }
+
+    @Benchmark
+    public void rangePaged(Blackhole bh) throws Exception {
+        ResultSetData page = range.getResults(PAGE_SIZE);
+        bh.consume(page.getResultSet().rows);
+        while (page.getPagingData().hasMorePages()) {
+            page = range.getResults(PAGE_SIZE, page.getPagingData());
+            bh.consume(page.getResultSet().rows);
+        }
+    }
+
+    @Benchmark
+    public void point(SSTableState state, Blackhole bh) throws Exception {
+        next = (next + 1) % state.partitions;
+        Query bound = point.bind(Collections.singletonList(ByteBufferUtil.bytes(SSTableState.key(next))));
+        bh.consume(bound.getResults().getResultSet().rows);
+    }
+}
@@ -0,0 +1,73 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.io.util.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * A set of sstables written by {@link Generate} shared by the benchmarks. Every partition has rows in every sstable,
+ * so reads merge all of them. The size and shape are JMH parameters and can be changed from the command line, e.g.
+ * <code>-p partitions=10000 -p rows=10 -p sstables=8 -p valueSize=1024</code>.
+ */
+@State(Scope.Benchmark)
+public class SSTableState {
+
+    public static final String SCHEMA = "CREATE TABLE bench.wide (key text, ck int, val text, PRIMARY KEY (key, ck))";
+
+    @Param("1000")
+    public int partitions;
+
+    @Param("100")
+    public int rows;
+
+    @Param("4")
+    public int sstables;
+
+    @Param("64")
+    public int valueSize;
+
+    public File root;
+
+    public File directory;
+
+    public List<File> files;
+
+    public CFMetaData metadata;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        root = Files.createTempDirectory("sstabletools-bench").toFile();
+        directory = new File(root, "bench/wide");
+        metadata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(SCHEMA.getBytes(StandardCharsets.UTF_8)));
+        Generate generate = new Generate(metadata, directory);
+        generate.sstables = sstables;
+        generate.partitions = partitions;
+        generate.rows = rows;
+        generate.cellSize = valueSize;
+        files = generate.run();
+    }
+
+    /**
+     * Value of the partition key of the partition with the given index, as written by {@link Generate}.
+     */
+    public static String key(int partition) {
+        return String.format("%010d", partition);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        SSTableReaderPool.instance.clear();
+        FileUtils.deleteRecursive(root);
+    }
+}
@@ -7,7 +7,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.MinMaxPriorityQueue;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
 import jline.console.ConsoleReader;
@@ -27,11 +26,7 @@ import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.LocalPartitioner;
 import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.exceptions.SyntaxException;
-import org.apache.cassandra.io.compress.CompressionMetadata;
-import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
-import org.apache.cassandra.io.sstable.ISSTableScanner;
-import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.metadata.*;
 import org.apache.cassandra.schema.*;
 import org.apache.cassandra.utils.FBUtilities;
@@ -70,8 +65,6 @@ public class CassandraUtils {
     private static final AtomicInteger cfCounter = new AtomicInteger();
     public static Map<String, UserType> knownTypes = Maps.newHashMap();
     public static String cqlOverride = null;
-    private static String FULL_BAR = Strings.repeat("█", 30);
-    private static String EMPTY_BAR = Strings.repeat("░", 30);
 
     static {
         DatabaseDescriptor.clientInitialization(false);
@@ -104,6 +97,29 @@ public class CassandraUtils {
         return metadata;
     }
 
+    /**
+     * Identifies the schema {@link #tableFromBestSource(File)} would resolve for the sstable without loading it.
+     */
+    public static String schemaSource(File sstablePath) {
+        if (!Strings.isNullOrEmpty(cqlOverride)) {
+            return "cql:" + cqlOverride;
+        }
+        String cqlPath = System.getProperty("sstabletools.schema");
+        if (!Strings.isNullOrEmpty(cqlPath)) {
+            File schema = new File(cqlPath);
+            return "file:" + schema.getAbsolutePath() + ":" + schema.lastModified();
+        }
+        java.net.URL resource = Query.class.getClassLoader().getResource("schema.cql");
+        if (resource != null) {
+            return "resource:" + resource;
+        }
+        File schema = new File("schema.cql");
+        if (schema.exists()) {
+            return "file:" + schema.getAbsolutePath() + ":" + schema.lastModified();
+        }
+        return "sstable:" + sstablePath.getAbsolutePath() + ":" + sstablePath.lastModified();
+    }
+
     private static Types getTypes() {
         if (knownTypes.isEmpty()) {
             return Types.none();
@@ -224,6 +240,24 @@ public class CassandraUtils {
         return m.invoke(obj);
     }
 
+    private static IPartitioner partitioner(ValidationMetadata validation, SerializationHeader.Component header) {
+        return validation.partitioner.endsWith("LocalPartitioner") ?
+                new LocalPartitioner(header.getKeyType()) :
+                FBUtilities.newPartitioner(validation.partitioner);
+    }
+
+    /**
+     * The partitioner an sstable was written with, as {@link #tableFromSSTable(File)} resolves it.
+     */
+    public static IPartitioner partitionerFromSSTable(File path) throws IOException {
+        Descriptor desc = Descriptor.fromFilename(path.getAbsolutePath());
+        Map<MetadataType, MetadataComponent> sstableMetadata = desc.getMetadataSerializer().deserialize(desc,
+                EnumSet.of(MetadataType.VALIDATION, MetadataType.HEADER));
+        ValidationMetadata validationMetadata = (ValidationMetadata) sstableMetadata.get(MetadataType.VALIDATION);
+        Preconditions.checkNotNull(validationMetadata, "Validation Metadata could not be resolved, accompanying Statistics.db file must be missing.");
+        return partitioner(validationMetadata, (SerializationHeader.Component) sstableMetadata.get(MetadataType.HEADER));
+    }
+
     @SuppressWarnings("unchecked")
     public static CFMetaData tableFromSSTable(File path) throws IOException, NoSuchFieldException, IllegalAccessException {
         Preconditions.checkNotNull(path);
@@ -236,11 +270,7 @@ public class CassandraUtils {
         SerializationHeader.Component header = (SerializationHeader.Component) sstableMetadata.get(MetadataType.HEADER);
         Preconditions.checkNotNull(header, "Metadata could not be resolved, accompanying Statistics.db file must be missing.");
 
-        IPartitioner partitioner = validationMetadata.partitioner.endsWith("LocalPartitioner") ?
-                new LocalPartitioner(header.getKeyType()) :
-                FBUtilities.newPartitioner(validationMetadata.partitioner);
-
-        DatabaseDescriptor.setPartitionerUnsafe(partitioner);
+        DatabaseDescriptor.setPartitionerUnsafe(partitioner(validationMetadata, header));
         AbstractType<?> keyType = header.getKeyType();
         List<AbstractType<?>> clusteringTypes = header.getClusteringTypes();
         Map<ByteBuffer, AbstractType<?>> staticColumns = header.getStaticColumns();
@@ -301,22 +331,6 @@ public class CassandraUtils {
         return wrapQuiet(String.format("%.1f %sB", bytes / Math.pow(unit, exp), pre), color);
     }
 
-    private static class ValuedByteBuffer {
-        public long value;
-        public ByteBuffer buffer;
-
-        public ValuedByteBuffer(ByteBuffer buffer, long value) {
-            this.value = value;
-            this.buffer = buffer;
-        }
-
-        public long getValue() {
-            return value;
-        }
-    }
-
-    private static Comparator<ValuedByteBuffer> VCOMP = Comparator.comparingLong(ValuedByteBuffer::getValue).reversed();
-
     private static Options options = new Options();
 
     private static String GCGS_KEY = "gc_grace_seconds";
@@ -364,202 +378,12 @@ public class CassandraUtils {
         final int gcGraceSeconds = gcGraceStr != null ? Integer.parseInt(gcGraceStr) : 0;
 
         boolean color = console == null || console.getTerminal().isAnsiSupported();
-        String c = color ? TableTransformer.ANSI_BLUE : "";
-        String s = color ? TableTransformer.ANSI_CYAN : "";
-        String r = color ? TableTransformer.ANSI_RESET : "";
         if (new File(fname).exists()) {
-            Descriptor descriptor = Descriptor.fromFilename(fname);
-
-            Map<MetadataType, MetadataComponent> metadata = descriptor.getMetadataSerializer().deserialize(descriptor, EnumSet.allOf(MetadataType.class));
-            ValidationMetadata validation = (ValidationMetadata) metadata.get(MetadataType.VALIDATION);
-            StatsMetadata stats = (StatsMetadata) metadata.get(MetadataType.STATS);
-            CompactionMetadata compaction = (CompactionMetadata) metadata.get(MetadataType.COMPACTION);
-            CompressionMetadata compression = null;
-            File compressionFile = new File(descriptor.filenameFor(Component.COMPRESSION_INFO));
-            if (compressionFile.exists())
-                compression = CompressionMetadata.create(fname);
-            SerializationHeader.Component header = (SerializationHeader.Component) metadata.get(MetadataType.HEADER);
-
-            CFMetaData cfm = tableFromBestSource(new File(fname));
-            SSTableReader reader = SSTableReader.openNoValidation(descriptor, cfm);
-            ISSTableScanner scanner = reader.getScanner();
-            long bytes = scanner.getLengthInBytes();
-            MinMaxPriorityQueue<ValuedByteBuffer> widestPartitions = MinMaxPriorityQueue
-                    .orderedBy(VCOMP)
-                    .maximumSize(5)
-                    .create();
-            MinMaxPriorityQueue<ValuedByteBuffer> largestPartitions = MinMaxPriorityQueue
-                    .orderedBy(VCOMP)
-                    .maximumSize(5)
-                    .create();
-            MinMaxPriorityQueue<ValuedByteBuffer> mostTombstones = MinMaxPriorityQueue
-                    .orderedBy(VCOMP)
-                    .maximumSize(5)
-                    .create();
-            long partitionCount = 0;
-            long rowCount = 0;
-            long tombstoneCount = 0;
-            long cellCount = 0;
-            double totalCells = stats.totalColumnsSet;
-            int lastPercent = 0;
-            while (scanner.hasNext()) {
-                UnfilteredRowIterator partition = scanner.next();
-
-                long psize = 0;
-                long pcount = 0;
-                int ptombcount = 0;
-                partitionCount++;
-                if (!partition.staticRow().isEmpty()) {
-                    rowCount++;
-                    pcount++;
-                    psize += partition.staticRow().dataSize();
-                }
-                if (!partition.partitionLevelDeletion().isLive()) {
-                    tombstoneCount++;
-                    ptombcount++;
-                }
-                while (partition.hasNext()) {
-                    Unfiltered unfiltered = partition.next();
-                    switch (unfiltered.kind()) {
-                        case ROW:
-                            rowCount++;
-                            Row row = (Row) unfiltered;
-                            if (!row.deletion().isLive()) {
-                                tombstoneCount++;
-                                ptombcount++;
-                            }
-                            psize += row.dataSize();
-                            pcount++;
-                            for (Cell cell : row.cells()) {
-                                cellCount++;
-                                double percentComplete = Math.min(1.0, cellCount / totalCells);
-                                if (lastPercent != (int) (percentComplete * 100)) {
-                                    lastPercent = (int) (percentComplete * 100);
-                                    int cols = (int) (percentComplete * 30);
-                                    System.out.printf("\r%sAnalyzing SSTable...  %s%s%s %s(%%%s)", c, s, FULL_BAR.substring(30 - cols), EMPTY_BAR.substring(cols), r, (int) (percentComplete * 100));
-                                    System.out.flush();
-                                }
-                                if (cell.isTombstone()) {
-                                    tombstoneCount++;
-                                    ptombcount++;
-                                }
-                            }
-                            break;
-                        case RANGE_TOMBSTONE_MARKER:
-                            tombstoneCount++;
-                            ptombcount++;
-                            break;
-                    }
-                }
-                widestPartitions.add(new ValuedByteBuffer(partition.partitionKey().getKey(), pcount));
-                largestPartitions.add(new ValuedByteBuffer(partition.partitionKey().getKey(), psize));
-                mostTombstones.add(new ValuedByteBuffer(partition.partitionKey().getKey(), ptombcount));
-            }
-            out.printf("\r%80s\r", " ");
-            out.printf("%sPartitions%s:%s %s%n", c, s, r, partitionCount);
-            out.printf("%sRows%s:%s %s%n", c, s, r, rowCount);
-            out.printf("%sTombstones%s:%s %s%n", c, s, r, tombstoneCount);
-            out.printf("%sCells%s:%s %s%n", c, s, r, cellCount);
-            out.printf("%sWidest Partitions%s:%s%n", c, s, r);
-            asStream(widestPartitions.iterator()).sorted(VCOMP).forEach(p -> {
-                out.printf("%s   [%s%s%s]%s %s%n", s, r, cfm.getKeyValidator().getString(p.buffer), s, r, p.value);
-            });
-            out.printf("%sLargest Partitions%s:%s%n", c, s, r);
-            asStream(largestPartitions.iterator()).sorted(VCOMP).forEach(p -> {
-                out.printf("%s   [%s%s%s]%s %s %s%n", s, r, cfm.getKeyValidator().getString(p.buffer), s, r, p.value, toByteString(p.value, true, color));
-            });
-            out.printf("%sTombstone Leaders%s:%s%n", c, s, r);
-            asStream(mostTombstones.iterator()).sorted(VCOMP).forEach(p -> {
-                if (p.value > 0) {
-                    out.printf("%s   [%s%s%s]%s %s%n", s, r, cfm.getKeyValidator().getString(p.buffer), s, r, p.value);
-                }
-            });
-
-            List<AbstractType<?>> clusteringTypes = (List<AbstractType<?>>) readPrivate(header, "clusteringTypes");
-            if (validation != null) {
-                out.printf("%sPartitioner%s:%s %s%n", c, s, r, validation.partitioner);
-                out.printf("%sBloom Filter FP chance%s:%s %f%n", c, s, r, validation.bloomFilterFPChance);
-            }
-            if (stats != null) {
-                out.printf("%sSize%s:%s %s %s %n", c, s, r, bytes, toByteString(bytes, true, color));
-                out.printf("%sCompressor%s:%s %s%n", c, s, r, compression != null ? compression.compressor().getClass().getName() : "-");
-                if (compression != null)
-                    out.printf("%s  Compression ratio%s:%s %s%n", c, s, r, stats.compressionRatio);
-
-                out.printf("%sMinimum timestamp%s:%s %s %s%n", c, s, r, stats.minTimestamp, toDateString(stats.minTimestamp, TimeUnit.MICROSECONDS, color));
-                out.printf("%sMaximum timestamp%s:%s %s %s%n", c, s, r, stats.maxTimestamp, toDateString(stats.maxTimestamp, TimeUnit.MICROSECONDS, color));
-
-                out.printf("%sSSTable min local deletion time%s:%s %s %s%n", c, s, r, stats.minLocalDeletionTime, toDateString(stats.minLocalDeletionTime, TimeUnit.SECONDS, color));
-                out.printf("%sSSTable max local deletion time%s:%s %s %s%n", c, s, r, stats.maxLocalDeletionTime, toDateString(stats.maxLocalDeletionTime, TimeUnit.SECONDS, color));
-
-                out.printf("%sTTL min%s:%s %s %s%n", c, s, r, stats.minTTL, toDurationString(stats.minTTL, TimeUnit.SECONDS, color));
-                out.printf("%sTTL max%s:%s %s %s%n", c, s, r, stats.maxTTL, toDurationString(stats.maxTTL, TimeUnit.SECONDS, color));
-                if (header != null && clusteringTypes.size() == stats.minClusteringValues.size()) {
-                    List<ByteBuffer> minClusteringValues = stats.minClusteringValues;
-                    List<ByteBuffer> maxClusteringValues = stats.maxClusteringValues;
-                    String[] minValues = new String[clusteringTypes.size()];
-                    String[] maxValues = new String[clusteringTypes.size()];
-                    for (int i = 0; i < clusteringTypes.size(); i++) {
-                        minValues[i] = clusteringTypes.get(i).getString(minClusteringValues.get(i));
-                        maxValues[i] = clusteringTypes.get(i).getString(maxClusteringValues.get(i));
-                    }
-                    out.printf("%sminClustringValues%s:%s %s%n", c, s, r, Arrays.toString(minValues));
-                    out.printf("%smaxClustringValues%s:%s %s%n", c, s, r, Arrays.toString(maxValues));
-                }
-                out.printf("%sEstimated droppable tombstones%s:%s %s%n", c, s, r, stats.getEstimatedDroppableTombstoneRatio((int) (System.currentTimeMillis() / 1000) - gcGraceSeconds));
-                out.printf("%sSSTable Level%s:%s %d%n", c, s, r, stats.sstableLevel);
-                out.printf("%sRepaired at%s:%s %d %s%n", c, s, r, stats.repairedAt, toDateString(stats.repairedAt, TimeUnit.MILLISECONDS, color));
-                out.printf("%sReplay positions covered%s:%s %s%n", c, s, r, stats.commitLogIntervals);
-                out.printf("%stotalColumnsSet%s:%s %s%n", c, s, r, stats.totalColumnsSet);
-                out.printf("%stotalRows%s:%s %s%n", c, s, r, stats.totalRows);
-                out.printf("%sEstimated tombstone drop times%s:%s%n", c, s, r);
-
-                TermHistogram estDropped = new TermHistogram(stats.estimatedTombstoneDropTime.getAsMap(),
-                        "Drop Time",
-                        offset -> {
-                            long dropTime = offset + gcGraceSeconds;
-                            return String.format("%d %s", dropTime, toDateString(dropTime, TimeUnit.SECONDS, color));
-                        },
-                        Object::toString);
-                estDropped.printHistogram(out, color, true);
-                out.printf("%sPartition Size%s:%s%n", c, s, r);
-                TermHistogram rowSize = new TermHistogram(stats.estimatedPartitionSize,
-                        "Size (bytes)",
-                        offset -> String.format("%d %s", offset, toByteString(offset, true, color)),
-                        Object::toString);
-                rowSize.printHistogram(out, color, true);
-                out.printf("%sColumn Count%s:%s%n", c, s, r);
-                TermHistogram cellCountHisto = new TermHistogram(stats.estimatedColumnCount,
-                        "Columns",
-                        Object::toString,
-                        Object::toString);
-                cellCountHisto.printHistogram(out, color, true);
-            }
-            if (compaction != null) {
-                out.printf("%sEstimated cardinality%s:%s %s%n", c, s, r, compaction.cardinalityEstimator.cardinality());
-            }
-            if (header != null) {
-                EncodingStats encodingStats = header.getEncodingStats();
-                AbstractType<?> keyType = header.getKeyType();
-                Map<ByteBuffer, AbstractType<?>> staticColumns = header.getStaticColumns();
-                Map<ByteBuffer, AbstractType<?>> regularColumns = header.getRegularColumns();
-                Map<String, String> statics = staticColumns.entrySet().stream()
-                        .collect(Collectors.toMap(
-                                e -> UTF8Type.instance.getString(e.getKey()),
-                                e -> e.getValue().toString()));
-                Map<String, String> regulars = regularColumns.entrySet().stream()
-                        .collect(Collectors.toMap(
-                                e -> UTF8Type.instance.getString(e.getKey()),
-                                e -> e.getValue().toString()));
-
-                out.printf("%sEncodingStats minTTL%s:%s %s %s%n", c, s, r, encodingStats.minTTL, toDurationString(encodingStats.minTTL, TimeUnit.SECONDS, color));
-                out.printf("%sEncodingStats minLocalDeletionTime%s:%s %s %s%n", c, s, r, encodingStats.minLocalDeletionTime, toDateString(encodingStats.minLocalDeletionTime, TimeUnit.MILLISECONDS, color));
-                out.printf("%sEncodingStats minTimestamp%s:%s %s %s%n", c, s, r, encodingStats.minTimestamp, toDateString(encodingStats.minTimestamp, TimeUnit.MICROSECONDS, color));
-                out.printf("%sKeyType%s:%s %s%n", c, s, r, keyType.toString());
-                out.printf("%sClusteringTypes%s:%s %s%n", c, s, r, clusteringTypes.toString());
-                out.printf("%sStaticColumns%s:%s {%s}%n", c, s, r, FBUtilities.toString(statics));
-                out.printf("%sRegularColumns%s:%s {%s}%n", c, s, r, FBUtilities.toString(regulars));
-            }
+            SSTableStats stats = SSTableStats.read(new File(fname));
+            SSTableStats.Progress progress = new SSTableStats.Progress(stats.totalColumnsSet, "Analyzing SSTable");
+            stats.scan(progress);
+            progress.clear(out);
+            stats.print(out, color, gcGraceSeconds);
         }
     }
 
@@ -584,6 +408,8 @@ public class CassandraUtils {
                             return FileVisitResult.CONTINUE;
                         }
                     });
+                } else if (path.matches(".*[*?\\[{].*")) {
+                    sstables.addAll(sstablesFromGlob(sstable.getAbsolutePath()));
                 } else {
                     System.err.printf("Cannot find File %s%n", sstable.getAbsolutePath());
                 }
@@ -593,4 +419,34 @@ public class CassandraUtils {
         }
         return sstables;
     }
+
+    /**
+     * Finds the sstables matching a glob, either their Data.db or the directory holding it, ie
+     * <code>data/ks/*&#47;*-Data.db</code> or <code>data/ks/events-*</code>.
+     */
+    private static Collection<File> sstablesFromGlob(String glob) throws IOException {
+        Set<File> sstables = Sets.newHashSet();
+        int wildcard = glob.replaceAll("[*?\\[{]", "*").indexOf('*');
+        Path base = Paths.get(glob.substring(0, glob.lastIndexOf(File.separatorChar, wildcard) + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        PathMatcher data = FileSystems.getDefault().getPathMatcher("glob:**/*-Data.db");
+        if (Files.isDirectory(base)) {
+            Files.walkFileTree(base, Sets.newHashSet(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (data.matches(path) && (matcher.matches(path) || matcher.matches(path.getParent()))) {
+                        sstables.add(path.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        if (sstables.isEmpty()) {
+            System.err.printf("No sstables match %s%n", glob);
+        }
+        return sstables;
+    }
 }
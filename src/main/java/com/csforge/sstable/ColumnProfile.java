@@ -0,0 +1,132 @@
+package com.csforge.sstable;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+import com.clearspring.analytics.stream.cardinality.ICardinality;
+import com.google.common.collect.MinMaxPriorityQueue;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.utils.MurmurHash;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Profile of the values of a static or regular column: how often it is set, set to null (a cell tombstone) or absent
+ * from a row, an estimate of its distinct values, the distribution of its value sizes and its largest cells. Memory is
+ * bounded whatever the number of rows, a HyperLogLog++ sketch of 2^{@value #PRECISION} registers, a
+ * {@link PercentileHistogram} and the top cells, and profiles of a column in several sstables merge.
+ * <p/>
+ * Values of collections and other multi-cell columns are the sum of their cells, the distinct estimate counts their
+ * elements or entries.
+ */
+public class ColumnProfile {
+
+    static final int PRECISION = 13;
+
+    private static final int SPARSE_PRECISION = 25;
+
+    public static class LargeCell {
+        public final String partition;
+        public final String clustering;
+        public final long size;
+
+        LargeCell(String partition, String clustering, long size) {
+            this.partition = partition;
+            this.clustering = clustering;
+            this.size = size;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private static final Comparator<LargeCell> SIZE_ORDER = Comparator.comparingLong(LargeCell::getSize).reversed();
+
+    public final ColumnDefinition column;
+
+    public final int top;
+
+    public long present = 0;
+
+    public long nulls = 0;
+
+    public final PercentileHistogram sizes = new PercentileHistogram();
+
+    private ICardinality distinct = new HyperLogLogPlus(PRECISION, SPARSE_PRECISION);
+
+    private final MinMaxPriorityQueue<LargeCell> largest;
+
+    public ColumnProfile(ColumnDefinition column, int top) {
+        this.column = column;
+        this.top = Math.max(1, top);
+        this.largest = MinMaxPriorityQueue.orderedBy(SIZE_ORDER).maximumSize(this.top).create();
+    }
+
+    private static long hash(ByteBuffer value) {
+        return MurmurHash.hash2_64(value, value.position(), value.remaining(), 0);
+    }
+
+    /**
+     * Adds the data of the column in a row.
+     */
+    void add(CFMetaData cfm, DecoratedKey key, Row row, ColumnData data) {
+        long size = 0;
+        boolean live = false;
+        if (data.column().isComplex()) {
+            for (Cell cell : (ComplexColumnData) data) {
+                if (!cell.isTombstone()) {
+                    live = true;
+                    size += cell.value().remaining() + cell.path().dataSize();
+                    // set elements are in the path, map entries in both
+                    distinct.offerHashed(31 * hash(cell.path().get(0)) + hash(cell.value()));
+                }
+            }
+        } else {
+            Cell cell = (Cell) data;
+            if (!cell.isTombstone()) {
+                live = true;
+                size = cell.value().remaining();
+                distinct.offerHashed(hash(cell.value()));
+            }
+        }
+        if (!live) {
+            nulls++;
+            return;
+        }
+        present++;
+        sizes.add(size);
+        if (largest.size() < top || size > largest.peekLast().size) {
+            largest.add(new LargeCell(cfm.getKeyValidator().getString(key.getKey()),
+                    row.isStatic() ? "static" : row.clustering().toString(cfm), size));
+        }
+    }
+
+    public long distinct() {
+        return distinct.cardinality();
+    }
+
+    public List<LargeCell> largest() {
+        return largest.stream().sorted(SIZE_ORDER).collect(Collectors.toList());
+    }
+
+    public void merge(ColumnProfile other) {
+        present += other.present;
+        nulls += other.nulls;
+        sizes.merge(other.sizes);
+        try {
+            distinct = distinct.merge(other.distinct);
+        } catch (CardinalityMergeException e) {
+            throw new IllegalStateException(e); // same precision everywhere
+        }
+        largest.addAll(other.largest);
+    }
+}
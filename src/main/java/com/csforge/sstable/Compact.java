@@ -31,6 +31,11 @@ public class Compact {
     protected Collection<SSTableReader> sstables = Sets.newHashSet();
     protected CFMetaData metadata;
 
+    /**
+     * Directory the merged sstable is written to.
+     */
+    File directory = new File(".");
+
     public Compact(String... args) {
         for(String path : args) {
             try {
@@ -38,8 +43,11 @@ public class Compact {
                     if (metadata == null) {
                         metadata = CassandraUtils.tableFromSSTable(f);
                     }
-                    Descriptor d = Descriptor.fromFilename(f.getAbsolutePath());
-                    sstables.add(SSTableReader.openNoValidation(d, metadata));
+                    SSTableReader reader = SSTableReaderPool.instance.acquire(f, metadata);
+                    if (!sstables.add(reader)) {
+                        // the same sstable given twice, only one of its references is released after the merge
+                        SSTableReaderPool.instance.release(reader);
+                    }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -50,7 +58,7 @@ public class Compact {
     public void run() {
         try {
             Descriptor desc = new Descriptor(SSTableFormat.Type.BIG.info.getLatestVersion(),
-                    new File("."),
+                    directory,
                     "keyspace",
                     "table",
                     0,
@@ -79,6 +87,9 @@ public class Compact {
             out.finish(false);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            SSTableReaderPool.instance.releaseAll(sstables);
+            sstables.clear();
         }
     }
 
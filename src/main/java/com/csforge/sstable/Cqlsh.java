@@ -15,22 +15,29 @@ import jline.console.completer.*;
 import jline.console.history.FileHistory;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.ColumnSpecification;
 import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.ResultSet;
 import org.apache.cassandra.cql3.statements.CreateTableStatement;
 import org.apache.cassandra.cql3.statements.CreateTypeStatement;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
 import org.apache.cassandra.cql3.statements.SelectStatement;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
 import org.apache.cassandra.db.rows.Unfiltered;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.exceptions.SyntaxException;
 import org.apache.commons.cli.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -55,6 +62,10 @@ public class Cqlsh {
 
     private static final String FILE_OPTION = "f";
 
+    private static final String OUTPUT_OPTION = "o";
+
+    private static final String WRITE_OPTION = "w";
+
     private static final String MISSING_SSTABLES = errorMsg("No sstables set. Set the sstables using the 'USE pathToSSTable' command.");
 
     private static final String QUERY_PAGING_ALREADY_ENABLED = errorMsg("Query paging is already enabled. Use PAGING OFF to disable.");
@@ -71,6 +82,30 @@ public class Cqlsh {
 
     private static final String PAGING_IS_DISABLED = "Query paging is currently disabled. Use PAGING ON to enable.";
 
+    private static final String QUERY_TRACING_ALREADY_ENABLED = errorMsg("Query tracing is already enabled. Use TRACING OFF to disable.");
+
+    private static final String QUERY_TRACING_ALREADY_DISABLED = errorMsg("Query tracing is not enabled.");
+
+    private static final String IMPROPER_TRACING_COMMAND = errorMsg("Improper TRACING command.");
+
+    private static final String QUERY_TRACING_ENABLED = "Now Query tracing is enabled.";
+
+    private static final String QUERY_TRACING_DISABLED = "Disabled Query tracing.";
+
+    private static final String TRACING_IS_ENABLED = "Query tracing is currently enabled. Use TRACING OFF to disable.";
+
+    private static final String TRACING_IS_DISABLED = "Query tracing is currently disabled. Use TRACING ON to enable.";
+
+    private static final String IMPROPER_EXPLAIN_COMMAND = errorMsg("Improper EXPLAIN command, expected EXPLAIN SELECT ...");
+
+    private static final String IMPROPER_GET_COMMAND = errorMsg("Improper GET command, expected GET <file of partition keys>.");
+
+    private static final String PARALLELISM_IS = "Scan parallelism: %d%n";
+
+    private static final String IMPROPER_PARALLELISM_COMMAND = errorMsg("Improper PARALLELISM command, expected a positive number of threads.");
+
+    private static final String SSTABLES_SKIPPED = infoMsg("Skipped %d of %d sstables.") + "%n";
+
     private static final String CANNOT_FIND_FILE = errorMsg("Cannot find '%s'.%n");
 
     private static final String IMPORTED_SCHEMA = "Successfully imported schema from '%s'.%n";
@@ -113,8 +148,16 @@ public class Cqlsh {
 
     private static final String PROP_PREFERENCES_ENABLED = "preferencesEnabled";
 
+    private static final String PROP_PARALLELISM = "parallelism";
+
     private static final String MORE = "\n---MORE--- [enter to continue, ctrl-c to break]";
 
+    private static final Pattern DUMP_WINDOW_PATTERN = Pattern.compile("(?i)\\s*\\b(SINCE|UNTIL)\\s+('[^']*'|-?\\d+)");
+
+    private static final Pattern BIND_PATTERN = Pattern.compile("(?i)\\s+BIND\\s*\\((.*)\\)\\s*$");
+
+    private static final Pattern BIND_VALUE_PATTERN = Pattern.compile("\\s*(?:'((?:[^']|'')*)'|([^,]*[^,\\s]))\\s*(?:,|$)");
+
     static {
         if (!CONFIG_DIR.exists()) {
             boolean created = CONFIG_DIR.mkdirs();
@@ -137,8 +180,12 @@ public class Cqlsh {
         Option schemaOption = new Option(SCHEMA_OPTION, true, "Schema file to use.");
         schemaOption.setRequired(false);
         Option fileOption = new Option(FILE_OPTION, true, "Execute commands from FILE, then exit.");
+        Option outputOption = new Option(OUTPUT_OPTION, true, "Write SELECT and DUMP results as json (lines), csv or tsv.");
+        Option writeOption = new Option(WRITE_OPTION, true, "Write SELECT and DUMP results to FILE instead of stdout (json unless -o is given).");
         options.addOption(schemaOption);
         options.addOption(fileOption);
+        options.addOption(outputOption);
+        options.addOption(writeOption);
     }
 
     public Set<File> sstables = Sets.newHashSet();
@@ -152,8 +199,11 @@ public class Cqlsh {
     boolean inner = false;
     boolean paging = true;
     int pageSize = 100;
+    boolean tracing = false;
     boolean preferences = true;
     Config config;
+    OutputWriter.Format outputFormat = null;
+    Writer output = null;
 
     public Cqlsh() {
         try {
@@ -161,6 +211,9 @@ public class Cqlsh {
             config = ConfigFactory.parseFile(PREFERENCES_FILE).withFallback(applicationConfig);
             paging = config.getBoolean(PROP_PAGING_ENABLED);
             pageSize = config.getInt(PROP_PAGING_SIZE);
+            if (System.getProperty("sstabletools.parallelism") == null) {
+                Query.parallelism = Math.max(1, config.getInt(PROP_PARALLELISM));
+            }
             sstables = config.getStringList(PROP_SSTABLES).stream().map(File::new).filter(f -> {
                 if (!f.exists()) {
                     System.err.printf(CANNOT_FIND_FILE, f.getAbsolutePath());
@@ -208,6 +261,11 @@ public class Cqlsh {
                     caselessCompleter("where")
             );
             completers.add(argCompleter);
+            argCompleter = new ArgumentCompleter(
+                    caselessCompleter("get"),
+                    new FileNameCompleter()
+            );
+            completers.add(argCompleter);
             argCompleter = new ArgumentCompleter(
                     caselessCompleter("create"),
                     caselessCompleter("table")
@@ -218,6 +276,21 @@ public class Cqlsh {
                     caselessCompleter("on", "off")
             );
             completers.add(argCompleter);
+            argCompleter = new ArgumentCompleter(
+                    caselessCompleter("tracing"),
+                    caselessCompleter("on", "off")
+            );
+            completers.add(argCompleter);
+            argCompleter = new ArgumentCompleter(
+                    caselessCompleter("explain"),
+                    caselessCompleter("select")
+            );
+            completers.add(argCompleter);
+            argCompleter = new ArgumentCompleter(
+                    caselessCompleter("parallelism"),
+                    caselessCompleter(Integer.toString(Runtime.getRuntime().availableProcessors()))
+            );
+            completers.add(argCompleter);
             argCompleter = new ArgumentCompleter(
                     caselessCompleter("persist"),
                     caselessCompleter("on", "off")
@@ -342,20 +415,18 @@ public class Cqlsh {
             System.out.println(MISSING_SSTABLES);
             return;
         }
-        Query query;
-        if (command.length() > 5) {
-            query = getQuery("select * from sstables " + command.substring(5));
-        } else {
-            query = getQuery("select * from sstables");
+        long start = System.nanoTime();
+        Query query = getQuery("select * from sstables " + dumpWhereClause(command));
+        QueryExecution execution = newExecution(start);
+        if (outputFormat != null) {
+            dumpTo(query, execution, OutputWriter.forColumns(outputFormat, output, Dump.COLUMNS));
+            return;
         }
 
         console.setHistoryEnabled(false);
         AtomicInteger totalRows = new AtomicInteger(0);
-        try (UnfilteredPartitionIterator scanner = query.getScanner()) {
-            int limit = Integer.MAX_VALUE;
-            if (query.statement.limit != null && !query.selection.isAggregate()) {
-                limit = Integer.parseInt(query.statement.limit.getText());
-            }
+        try (UnfilteredPartitionIterator scanner = query.getScanner(execution)) {
+            int limit = query.getLimit();
             AtomicInteger rowsPaged = new AtomicInteger(0);
             Function<Void, Void> deferToInput = o -> {
                 if (paging && rowsPaged.get() >= pageSize) {
@@ -377,27 +448,23 @@ public class Cqlsh {
 
             while (scanner.hasNext() && totalRows.get() < limit) {
                 UnfilteredRowIterator partition = scanner.next();
+                String key = "[" + metadata.getKeyValidator().getString(partition.partitionKey().getKey()) + "] ";
                 deferToInput.apply(null);
                 if (!partition.partitionLevelDeletion().isLive() && totalRows.get() < limit) {
-                    System.out.println("[" + metadata.getKeyValidator().getString(partition.partitionKey().getKey()) + "] " +
-                            partition.partitionLevelDeletion());
+                    System.out.println(key + partition.partitionLevelDeletion());
                     rowsPaged.incrementAndGet();
                     totalRows.incrementAndGet();
                 }
                 deferToInput.apply(null);
                 if (!partition.staticRow().isEmpty() && totalRows.get() < limit) {
-                    System.out.println(
-                            "[" + metadata.getKeyValidator().getString(partition.partitionKey().getKey()) + "] " +
-                                    partition.staticRow().toString(metadata, true));
+                    System.out.println(key + partition.staticRow().toString(metadata, true));
                     rowsPaged.incrementAndGet();
                     totalRows.incrementAndGet();
                 }
                 deferToInput.apply(null);
                 while (partition.hasNext() && totalRows.get() < limit) {
                     Unfiltered row = partition.next();
-                    System.out.println(
-                            "[" + metadata.getKeyValidator().getString(partition.partitionKey().getKey()) + "] " +
-                                    row.toString(metadata, true));
+                    System.out.println(key + row.toString(metadata, true));
                     rowsPaged.incrementAndGet();
                     totalRows.incrementAndGet();
                     deferToInput.apply(null);
@@ -406,49 +473,271 @@ public class Cqlsh {
         } finally {
             if (totalRows.get() < Integer.MAX_VALUE) {
                 System.out.printf("%n(%s rows)%n", totalRows.get());
+                printSkipped(execution);
+                printTrace(execution, totalRows.get(), System.out);
             }
             console.setHistoryEnabled(true);
             console.setPrompt(prompt);
         }
     }
 
+    /**
+     * Writes the unfiltered partitions of a DUMP as rows of partition key and partition deletion, static row, row or
+     * range tombstone marker.
+     */
+    private void dumpTo(Query query, QueryExecution execution, OutputWriter writer) throws Exception {
+        int totalRows = 0;
+        try (UnfilteredPartitionIterator scanner = query.getScanner(execution)) {
+            int limit = query.getLimit();
+            while (scanner.hasNext() && totalRows < limit) {
+                try (UnfilteredRowIterator partition = scanner.next()) {
+                    totalRows += Dump.writePartition(writer, metadata, partition, limit - totalRows);
+                }
+            }
+        } finally {
+            output.flush();
+        }
+        System.err.printf("(%s rows)%n", totalRows);
+        printTrace(execution, totalRows, System.err);
+    }
+
+    /**
+     * Looks up the partition keys listed in a file, printing their unfiltered rows in token order as DUMP does.
+     */
+    public void doGet(String command) throws Exception {
+        if (sstables.isEmpty()) {
+            System.out.println(MISSING_SSTABLES);
+            return;
+        }
+        String path = command.substring(3).trim().replaceAll("\"", "");
+        if (path.isEmpty()) {
+            System.err.println(IMPROPER_GET_COMMAND);
+            return;
+        }
+        File keyFile = new File(path);
+        if (!keyFile.exists()) {
+            System.err.printf(CANNOT_FIND_FILE, keyFile.getAbsolutePath());
+            return;
+        }
+        CFMetaData cfm = CassandraUtils.tableFromBestSource(sstables.iterator().next());
+        List<DecoratedKey> keys;
+        try (BufferedReader in = Files.newBufferedReader(keyFile.toPath(), StandardCharsets.UTF_8)) {
+            keys = Get.readKeys(in, cfm);
+        } catch (IllegalArgumentException e) {
+            System.err.println(errorMsg(e.getMessage()));
+            return;
+        }
+        Get get = new Get(sstables, cfm, Query.parallelism);
+        AtomicLong rows = new AtomicLong();
+        if (outputFormat != null) {
+            OutputWriter writer = OutputWriter.forColumns(outputFormat, output, Dump.COLUMNS);
+            writer.writeHeader();
+            try {
+                get.run(keys, (key, partition) -> {
+                    if (partition != null) {
+                        rows.addAndGet(Dump.writePartition(writer, cfm, partition, Integer.MAX_VALUE));
+                    }
+                });
+            } finally {
+                output.flush();
+            }
+            System.err.printf("(%s)%n", get.summary(rows.get()));
+            return;
+        }
+        get.run(keys, (key, partition) -> {
+            if (partition == null) {
+                return;
+            }
+            String prefix = "[" + cfm.getKeyValidator().getString(key.getKey()) + "] ";
+            if (!partition.partitionLevelDeletion().isLive()) {
+                System.out.println(prefix + partition.partitionLevelDeletion());
+                rows.incrementAndGet();
+            }
+            if (!partition.staticRow().isEmpty()) {
+                System.out.println(prefix + partition.staticRow().toString(cfm, true));
+                rows.incrementAndGet();
+            }
+            while (partition.hasNext()) {
+                System.out.println(prefix + partition.next().toString(cfm, true));
+                rows.incrementAndGet();
+            }
+        });
+        System.out.printf("%n(%s)%n", get.summary(rows.get()));
+    }
+
+    /**
+     * Turns the arguments of a DUMP command into the rest of a select statement, with SINCE/UNTIL timestamps becoming
+     * writetime relations.
+     */
+    static String dumpWhereClause(String command) {
+        String rest = command.length() > 4 ? command.substring(4) : "";
+        List<String> window = Lists.newArrayList();
+        Matcher m = DUMP_WINDOW_PATTERN.matcher(rest);
+        while (m.find()) {
+            window.add(String.format("writetime(*) %s %s", m.group(1).equalsIgnoreCase("since") ? ">=" : "<=", m.group(2)));
+        }
+        rest = DUMP_WINDOW_PATTERN.matcher(rest).replaceAll("").trim();
+        if (window.isEmpty()) {
+            return rest;
+        }
+        Matcher where = Pattern.compile("(?i)^WHERE\\s+").matcher(rest);
+        if (where.find()) {
+            return "WHERE " + String.join(" AND ", window) + " AND " + rest.substring(where.end());
+        }
+        return "WHERE " + String.join(" AND ", window) + " " + rest;
+    }
+
     public void doQuery(String command) throws Exception {
+        long start = System.nanoTime();
         Query q = getQuery(command);
+        QueryExecution execution = newExecution(start);
+        if (q != null && outputFormat != null) {
+            OutputWriter writer = OutputWriter.forResult(outputFormat, output, q.getResultMetadata());
+            AtomicInteger rows = new AtomicInteger(0);
+            q.forEachRow(row -> {
+                writer.writeRow(row);
+                rows.incrementAndGet();
+            }, execution);
+            output.flush();
+            System.err.printf("(%s rows)%n", rows.get());
+            printTrace(execution, rows.get(), System.err);
+            return;
+        }
         System.out.println();
         if (q == null) {
             System.out.println(MISSING_SSTABLES);
         } else if (paging) {
-            ResultSetData resultData = getQuery(command).getResults(pageSize);
-            TableTransformer.dumpResults(metadata, resultData.getResultSet(), System.out);
             boolean terminated = false;
-            if (resultData.getPagingData().hasMorePages()) {
-                console.setHistoryEnabled(false);
-                while (resultData.getPagingData().hasMorePages()) {
-                    try {
-                        String input = console.readLine(MORE, ' ');
-                        if (input == null) {
-                            done = true;
+            int rows = 0;
+            try (QueryCursor cursor = q.cursor(execution)) {
+                TableTransformer.dumpResults(metadata, cursor.nextPage(pageSize).getResultSet(), System.out);
+                if (cursor.hasMorePages()) {
+                    console.setHistoryEnabled(false);
+                    while (cursor.hasMorePages()) {
+                        try {
+                            String input = console.readLine(MORE, ' ');
+                            if (input == null) {
+                                done = true;
+                                terminated = true;
+                                break;
+                            }
+                        } catch (UserInterruptException uie) {
+                            // User interrupted, stop paging.
                             terminated = true;
                             break;
                         }
-                    } catch (UserInterruptException uie) {
-                        // User interrupted, stop paging.
-                        terminated = true;
-                        break;
+                        TableTransformer.dumpResults(metadata, cursor.nextPage(pageSize).getResultSet(), System.out);
                     }
-                    resultData = getQuery(command).getResults(pageSize, resultData.getPagingData());
-                    TableTransformer.dumpResults(metadata, resultData.getResultSet(), System.out);
                 }
+                if (!terminated) {
+                    rows = cursor.getRowCount();
+                    System.out.printf("%n(%s rows)%n", rows);
+                    printSkipped(execution);
+                }
+            } finally {
+                console.setHistoryEnabled(true);
+                console.setPrompt(prompt);
             }
             if (!terminated) {
-                System.out.printf("%n(%s rows)%n", resultData.getPagingData().getRowCount());
+                printTrace(execution, rows, System.out);
             }
-            console.setHistoryEnabled(true);
-            console.setPrompt(prompt);
         } else {
-            ResultSetData resultData = getQuery(command).getResults();
-            TableTransformer.dumpResults(metadata, resultData.getResultSet(), System.out);
-            System.out.printf("%n(%s rows)%n", resultData.getPagingData().getRowCount());
+            int rows;
+            try (QueryCursor cursor = q.cursor(execution)) {
+                rows = printTable(metadata, cursor, Query.STREAM_BATCH, System.out);
+                System.out.printf("%n(%s rows)%n", rows);
+            }
+            printSkipped(execution);
+            printTrace(execution, rows, System.out);
+        }
+    }
+
+    /**
+     * Renders every remaining row of the cursor as a single table, reading a batch at a time so the result is never
+     * held in memory as a whole. Column widths are set by the first batch. Returns the number of rows read.
+     */
+    static int printTable(CFMetaData metadata, QueryCursor cursor, int batch, PrintStream out) throws Exception {
+        Writer writer = TableTransformer.writer(out);
+        TableTransformer.Table table = null;
+        while (cursor.hasMorePages()) {
+            ResultSet result = cursor.nextPage(batch).getResultSet();
+            if (table == null) {
+                table = new TableTransformer.Table(metadata, result.metadata, writer);
+            }
+            table.write(result.rows);
+        }
+        if (table != null) {
+            table.finish();
+        }
+        return cursor.getRowCount();
+    }
+
+    private static void printSkipped(QueryExecution execution) {
+        if (execution.getSSTablesSkipped() > 0) {
+            System.out.printf(SSTABLES_SKIPPED, execution.getSSTablesSkipped(), execution.getSSTablesTotal());
+        }
+    }
+
+    private static void printTrace(QueryExecution execution, long rows, PrintStream out) {
+        if (execution.getTrace() != null) {
+            out.println();
+            execution.getTrace().print(out, rows);
+        }
+    }
+
+    /**
+     * A new execution of a query parsed since start, traced when tracing is on. Cached plans are shared, so the trace
+     * belongs to the execution rather than to the query.
+     */
+    QueryExecution newExecution(long start) {
+        QueryTrace trace = tracing ? new QueryTrace() : null;
+        if (trace != null) {
+            trace.phase("parse", start);
+        }
+        return new QueryExecution(Query.parallelism, trace);
+    }
+
+    public void doExplain(String command) throws Exception {
+        String select = command.substring(7).trim();
+        if (!select.toLowerCase().startsWith("select")) {
+            System.err.println(IMPROPER_EXPLAIN_COMMAND);
+            return;
+        }
+        Query q = getQuery(select);
+        if (q == null) {
+            System.out.println(MISSING_SSTABLES);
+            return;
+        }
+        System.out.println();
+        for (String line : q.explain()) {
+            System.out.println(line);
+        }
+    }
+
+    public void doTracingConfig(String command) {
+        String mode = command.substring(7).trim().toLowerCase();
+        switch (mode) {
+            case "":
+                System.out.println(tracing ? TRACING_IS_ENABLED : TRACING_IS_DISABLED);
+                break;
+            case "on":
+                if (tracing) {
+                    System.err.println(QUERY_TRACING_ALREADY_ENABLED);
+                } else {
+                    tracing = true;
+                    System.out.println(QUERY_TRACING_ENABLED);
+                }
+                break;
+            case "off":
+                if (!tracing) {
+                    System.err.println(QUERY_TRACING_ALREADY_DISABLED);
+                } else {
+                    tracing = false;
+                    System.out.println(QUERY_TRACING_DISABLED);
+                }
+                break;
+            default:
+                System.err.println(IMPROPER_TRACING_COMMAND);
         }
     }
 
@@ -534,6 +823,24 @@ public class Cqlsh {
         }
     }
 
+    public void doParallelismConfig(String command) {
+        String threads = command.substring(11).trim();
+        if (!threads.isEmpty()) {
+            try {
+                int parallelism = Integer.parseInt(threads);
+                if (parallelism < 1) {
+                    System.err.println(IMPROPER_PARALLELISM_COMMAND);
+                    return;
+                }
+                Query.parallelism = parallelism;
+            } catch (NumberFormatException e) {
+                System.err.println(IMPROPER_PARALLELISM_COMMAND);
+                return;
+            }
+        }
+        System.out.printf(PARALLELISM_IS, Query.parallelism);
+    }
+
     public void doPersistConfig(String command) {
         String mode = command.substring(7).trim().toLowerCase();
 
@@ -565,21 +872,67 @@ public class Cqlsh {
     }
 
     public Query getQuery(String command) throws Exception {
-        SelectStatement.RawStatement statement = (SelectStatement.RawStatement) QueryProcessor.parseStatement(command);
+        List<String> values = null;
+        Matcher bind = BIND_PATTERN.matcher(command);
+        if (bind.find()) {
+            values = parseBindValues(bind.group(1));
+            command = command.substring(0, bind.start());
+        }
+        final String cql = command;
+        // the plan is keyed on the sstables the FROM clause resolves to and the schema those are read with
+        SelectStatement.RawStatement statement = QueryCache.instance.statement(cql);
+        final Collection<File> from;
         if (statement.columnFamily().matches("sstables?")) {
             if (sstables.isEmpty()) {
                 return null;
             }
-            metadata = CassandraUtils.tableFromBestSource(sstables.iterator().next());
-            return new Query(command, sstables, metadata);
+            from = sstables;
         } else {
             File path = new File(statement.columnFamily());
             if (!path.exists()) {
                 throw new FileNotFoundException(path.getAbsolutePath());
             }
-            metadata = CassandraUtils.tableFromBestSource(path);
-            return new Query(command, Collections.singleton(path), metadata);
+            from = Collections.singleton(path);
+        }
+        File source = from.iterator().next();
+        Query query = QueryCache.instance.get(cql, CassandraUtils.schemaSource(source), from,
+                () -> new Query(cql, statement, from, CassandraUtils.tableFromBestSource(source)));
+        if (query == null) {
+            return null;
+        }
+        metadata = query.cfm;
+        if (values != null) {
+            List<ColumnSpecification> specs = query.boundNames.getSpecifications();
+            if (values.size() != specs.size()) {
+                throw new InvalidRequestException(String.format("There were %d markers(?) in CQL but %d bound values",
+                        specs.size(), values.size()));
+            }
+            List<ByteBuffer> bound = Lists.newArrayListWithCapacity(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                bound.add(value == null ? null : specs.get(i).type.fromString(value));
+            }
+            query = query.bind(bound);
+        }
+        return query;
+    }
+
+    /**
+     * Splits the values of a BIND (...) clause on commas outside of single quoted literals. Quotes are stripped and
+     * unquoted null becomes a null value.
+     */
+    static List<String> parseBindValues(String values) {
+        List<String> result = Lists.newArrayList();
+        Matcher m = BIND_VALUE_PATTERN.matcher(values);
+        while (m.find()) {
+            if (m.group(1) != null) {
+                result.add(m.group(1).replace("''", "'"));
+            } else if (m.group(2) != null) {
+                String value = m.group(2).trim();
+                result.add(value.equalsIgnoreCase("null") ? null : value);
+            }
         }
+        return result;
     }
 
     public void evalLine(String line) throws Exception {
@@ -604,12 +957,7 @@ public class Cqlsh {
                 continue;
             } else if (command.toLowerCase().trim().startsWith("describe sstable")) {
                 System.out.println();
-                for (File f : sstables) {
-                    System.out.println("\u001B[1;34m" + f.getAbsolutePath());
-                    System.out.println(ANSI_CYAN + Strings.repeat("=", f.getAbsolutePath().length()) + ANSI_RESET);
-                    CassandraUtils.printStats(f.getAbsolutePath(), System.out, console);
-                    System.out.println();
-                }
+                new Describe(sstables, Query.parallelism, 0).print(System.out, console == null || console.getTerminal().isAnsiSupported());
                 continue;
             } else if (command.toLowerCase().startsWith("use ")) {
                 doUse(command);
@@ -617,6 +965,9 @@ public class Cqlsh {
             } else if (command.toLowerCase().startsWith("dump")) {
                 doDump(command);
                 continue;
+            } else if (command.toLowerCase().equals("get") || command.toLowerCase().startsWith("get ")) {
+                doGet(command);
+                continue;
             } else if (command.toLowerCase().equals("help") || command.trim().equals("?")) {
                 try {
                     System.out.println(Resources.toString(Resources.getResource("cqlsh-help"), Charsets.UTF_8));
@@ -625,6 +976,15 @@ public class Cqlsh {
                     System.exit(-5);
                 }
                 continue;
+            } else if (command.toLowerCase().startsWith("explain")) {
+                doExplain(command);
+                continue;
+            } else if (command.toLowerCase().startsWith("tracing")) {
+                doTracingConfig(command);
+                continue;
+            } else if (command.toLowerCase().startsWith("parallelism")) {
+                doParallelismConfig(command);
+                continue;
             } else if (command.toLowerCase().startsWith("persist")) {
                 doPersistConfig(command);
                 continue;
@@ -664,6 +1024,7 @@ public class Cqlsh {
                     .withValue(PROP_SSTABLES, ConfigValueFactory.fromIterable(sstables.stream().map(File::getAbsolutePath).collect(Collectors.toSet())))
                     .withValue(PROP_PAGING_ENABLED, ConfigValueFactory.fromAnyRef(paging))
                     .withValue(PROP_PAGING_SIZE, ConfigValueFactory.fromAnyRef(pageSize))
+                    .withValue(PROP_PARALLELISM, ConfigValueFactory.fromAnyRef(Query.parallelism))
                     .withValue(PROP_PREFERENCES_ENABLED, ConfigValueFactory.fromAnyRef(preferences))
                     .withValue(PROP_SCHEMA, ConfigValueFactory.fromAnyRef(CassandraUtils.cqlOverride != null ? CassandraUtils.cqlOverride : ""));
         } else {
@@ -740,6 +1101,16 @@ public class Cqlsh {
             }
         });
 
+        if (cmd.hasOption(OUTPUT_OPTION) || cmd.hasOption(WRITE_OPTION)) {
+            try {
+                sh.outputFormat = OutputWriter.Format.parse(cmd.getOptionValue(OUTPUT_OPTION, "json"));
+                sh.output = OutputWriter.open(cmd.getOptionValue(WRITE_OPTION));
+            } catch (IllegalArgumentException | IOException e) {
+                System.err.println(errorMsg("Cannot write output: " + e.getMessage()));
+                System.exit(-5);
+            }
+        }
+
         String cqlFilePath = cmd.getOptionValue(FILE_OPTION);
         if (cqlFilePath != null) {
             try (Scanner s = new Scanner(new FileInputStream(cqlFilePath))) {
@@ -0,0 +1,226 @@
+package com.csforge.sstable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.Lists;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.csforge.sstable.TableTransformer.*;
+import static com.csforge.sstable.TerminalUtils.printSection;
+
+/**
+ * Describes a set of sstables, each on a thread of a bounded pool, followed by a summary of the whole set when there is
+ * more than one.
+ */
+public class Describe {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String THREADS_OPTION = "t";
+
+    private static final String JSON_OPTION = "json";
+
+    private static final String GCGS_OPTION = "gc_grace_seconds";
+
+    private static final String METADATA_OPTION = "metadata-only";
+
+    private static final String SAMPLE_OPTION = "sample";
+
+    private static final String TOP_OPTION = "top";
+
+    private static final String PROFILE_OPTION = "profile";
+
+    static {
+        options.addOption(new Option(SCHEMA_OPTION, true, "Schema file to use."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of sstables analyzed concurrently, default is the number of processors."));
+        options.addOption(new Option(null, JSON_OPTION, false, "Output json instead of text."));
+        options.addOption(new Option(null, GCGS_OPTION, true, "The " + GCGS_OPTION + " to use when calculating droppable tombstones"));
+        options.addOption(new Option(null, METADATA_OPTION, false, "Only read the metadata components, skipping Data.db."));
+        options.addOption(new Option(null, SAMPLE_OPTION, true, "Only read this fraction (0-1] of the partitions and estimate the counts."));
+        options.addOption(new Option(null, TOP_OPTION, true, "Number of partitions in each top list, default " + SSTableStats.TOP + "."));
+        options.addOption(new Option(null, PROFILE_OPTION, false, "Also profile the values of every static and regular column."));
+        options.addOption(new Option("h", "help", false, "Displays this help message."));
+    }
+
+    private final List<File> sstables;
+
+    private final int threads;
+
+    private final int gcGraceSeconds;
+
+    boolean metadataOnly = false;
+
+    double sample = 1.0;
+
+    int top = SSTableStats.TOP;
+
+    boolean profile = false;
+
+    public Describe(Collection<File> sstables, int threads, int gcGraceSeconds) {
+        this.sstables = Lists.newArrayList(sstables);
+        this.sstables.sort(Comparator.comparing(File::getAbsolutePath));
+        this.threads = threads;
+        this.gcGraceSeconds = gcGraceSeconds;
+    }
+
+    /**
+     * Reads and scans every sstable, in the order of their paths. Data.db is not read with metadataOnly and only
+     * partly read with a sample below 1.
+     *
+     * @param progress whether to show the progress of the scans on stdout
+     */
+    public List<SSTableStats> analyze(boolean progress) throws Exception {
+        List<SSTableStats> all = Lists.newArrayList();
+        long cells = 0;
+        for (File sstable : sstables) {
+            SSTableStats stats = SSTableStats.read(sstable, top);
+            if (profile) {
+                stats.profile();
+            }
+            cells += stats.totalColumnsSet;
+            all.add(stats);
+        }
+        if (metadataOnly) {
+            return all;
+        }
+        SSTableStats.Progress tracker = progress ?
+                new SSTableStats.Progress((long) (cells * sample), String.format("Analyzing %d SSTable%s", all.size(), all.size() > 1 ? "s" : "")) :
+                null;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, all.size())), new NamedThreadFactory("Describe"));
+        try {
+            List<Future<SSTableStats>> scans = Lists.newArrayList();
+            for (SSTableStats stats : all) {
+                scans.add(pool.submit(() -> stats.scan(tracker, sample)));
+            }
+            for (Future<SSTableStats> scan : scans) {
+                scan.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
+        }
+        if (tracker != null) {
+            tracker.clear(System.out);
+        }
+        return all;
+    }
+
+    /**
+     * Prints a section for each sstable and one for the summary.
+     */
+    public void print(PrintStream out, boolean color) throws Exception {
+        List<SSTableStats> all = analyze(true);
+        for (SSTableStats stats : all) {
+            printSection(out, stats.path, color);
+            stats.print(out, color, gcGraceSeconds);
+            out.println();
+        }
+        if (all.size() > 1) {
+            printSection(out, String.format("Summary of %d SSTables", all.size()), color);
+            SSTableStats.summarize(all).print(out, color, gcGraceSeconds);
+            out.println();
+        }
+    }
+
+
+    /**
+     * Writes an object holding the list of sstables and the summary.
+     */
+    public void writeJson(Writer out) throws Exception {
+        List<SSTableStats> all = analyze(false);
+        JsonGenerator json = new JsonFactory().createGenerator(out).useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeArrayFieldStart("sstables");
+        for (SSTableStats stats : all) {
+            stats.writeJson(json, gcGraceSeconds);
+        }
+        json.writeEndArray();
+        if (!all.isEmpty()) {
+            json.writeFieldName("summary");
+            SSTableStats.summarize(all).writeJson(json, gcGraceSeconds);
+        }
+        json.writeEndObject();
+        json.flush();
+        out.write(System.lineSeparator());
+        out.flush();
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+            if (cmd.getArgs().length == 0 && !cmd.hasOption("h")) {
+                throw new ParseException("No sstables given");
+            }
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+        }
+        if (cmd == null || cmd.hasOption("h") || cmd.getArgs().length == 0) {
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "describe sstable|directory|glob [...]",
+                        String.format("%nSSTable describe for Apache Cassandra 3.x%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        String schemaPath = cmd.getOptionValue(SCHEMA_OPTION);
+        if (schemaPath != null) {
+            System.setProperty("sstabletools.schema", schemaPath);
+        }
+
+        try {
+            List<File> sstables = Lists.newArrayList();
+            for (String path : cmd.getArgs()) {
+                sstables.addAll(CassandraUtils.sstablesFromPath(path));
+            }
+            if (sstables.isEmpty()) {
+                System.err.println("No sstables found in " + String.join(", ", cmd.getArgs()));
+                System.exit(-3);
+            }
+            int threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION,
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            int gcGraceSeconds = Integer.parseInt(cmd.getOptionValue(GCGS_OPTION, "0"));
+            Describe describe = new Describe(sstables, threads, gcGraceSeconds);
+            describe.metadataOnly = cmd.hasOption(METADATA_OPTION);
+            describe.profile = cmd.hasOption(PROFILE_OPTION);
+            describe.top = Integer.parseInt(cmd.getOptionValue(TOP_OPTION, Integer.toString(SSTableStats.TOP)));
+            describe.sample = Double.parseDouble(cmd.getOptionValue(SAMPLE_OPTION, "1"));
+            if (describe.sample <= 0 || describe.sample > 1) {
+                System.err.println("Sample must be a fraction in (0, 1]");
+                System.exit(-1);
+            }
+            if (cmd.hasOption(JSON_OPTION)) {
+                describe.writeJson(new PrintWriter(System.out));
+            } else {
+                describe.print(System.out, true);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.csforge.sstable;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Splitter;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.csforge.sstable.TableTransformer.*;
+import static com.csforge.sstable.TerminalUtils.bytesColumn;
+import static com.csforge.sstable.TerminalUtils.share;
+
+/**
+ * Distribution of the partitions and bytes of a set of sstables over token ranges, either equal splits of the ring or
+ * the vnode ranges of a ring file, to find the ranges and nodes holding more than their share of the data.
+ * <p/>
+ * By default every Index.db is walked, counting each partition in the range of its token with its uncompressed size.
+ * With the summary only the Summary.db keys are used, each standing for an equal share of the sstable's estimated
+ * partitions and for the bytes up to the next key, found with one Index.db lookup. A partition held by several
+ * sstables is counted once per sstable.
+ */
+public class Distribution {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    public static final List<String> COLUMNS = Arrays.asList("start", "end", "endpoint", "partitions", "bytes");
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String RANGES_OPTION = "n";
+
+    private static final String RING_OPTION = "r";
+
+    private static final String SUMMARY_OPTION = "summary";
+
+    private static final String THREADS_OPTION = "t";
+
+    private static final String OUTPUT_OPTION = "o";
+
+    static {
+        options.addOption(new Option(SCHEMA_OPTION, true, "Schema file to use."));
+        options.addOption(new Option(RANGES_OPTION, true, "Number of equal token ranges, default 16."));
+        options.addOption(new Option(RING_OPTION, true, "Ring file, the output of nodetool ring or lines of [endpoint] token, to use its ranges instead."));
+        options.addOption(new Option(null, SUMMARY_OPTION, false, "Estimate from Summary.db instead of reading all of Index.db."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of sstables read concurrently, default is the number of processors."));
+        options.addOption(new Option(OUTPUT_OPTION, true, "Output json (lines), csv or tsv instead of a table."));
+    }
+
+    /**
+     * The range (left, right] of the ring, the last range of a ring wraps around.
+     */
+    public static class TokenRange {
+        public final Token left;
+        public final Token right;
+        public final String endpoint;
+        public long partitions = 0;
+        public long bytes = 0;
+
+        TokenRange(Token left, Token right, String endpoint) {
+            this.left = left;
+            this.right = right;
+            this.endpoint = endpoint;
+        }
+    }
+
+    private final List<File> sstables;
+
+    private final CFMetaData metadata;
+
+    private final IPartitioner partitioner;
+
+    public final List<TokenRange> ranges;
+
+    // sorted right ends of the ranges, the first range wraps when a ring does not start at the minimum token
+    private final Token[] rights;
+
+    private final int threads;
+
+    boolean summaryOnly = false;
+
+    public Distribution(Collection<File> sstables, CFMetaData metadata, IPartitioner partitioner, List<TokenRange> ranges, int threads) {
+        this.sstables = Lists.newArrayList(sstables);
+        this.metadata = metadata;
+        this.partitioner = partitioner;
+        this.ranges = ranges;
+        this.rights = ranges.stream().map(r -> r.right).toArray(Token[]::new);
+        this.threads = threads;
+    }
+
+    /**
+     * Splits the whole ring into equal ranges.
+     */
+    public static List<TokenRange> split(IPartitioner partitioner, int count) {
+        Splitter splitter = partitioner.splitter().orElseThrow(() -> new IllegalArgumentException(
+                partitioner.getClass().getSimpleName() + " cannot be split into equal ranges, use a ring file"));
+        Token min = partitioner.getMinimumToken();
+        List<Token> boundaries = splitter.splitOwnedRanges(Math.max(1, count),
+                Collections.singletonList(new Range<>(min, min)), false);
+        List<TokenRange> ranges = Lists.newArrayListWithCapacity(boundaries.size());
+        Token left = min;
+        for (Token right : boundaries) {
+            ranges.add(new TokenRange(left, right, null));
+            left = right;
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads the vnode ranges of a ring file, either the output of nodetool ring or lines of a token preceded by the
+     * endpoint owning it. Lines whose last field is not a token, like the headers of nodetool ring, are skipped.
+     */
+    public static List<TokenRange> fromRing(IPartitioner partitioner, File ring) throws IOException {
+        TreeMap<Token, String> owners = new TreeMap<>();
+        for (String line : Files.readAllLines(ring.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields[0].isEmpty() || fields[0].startsWith("#"))
+                continue;
+            Token token;
+            try {
+                token = partitioner.getTokenFactory().fromString(fields[fields.length - 1]);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (fields.length > 1 || !owners.containsKey(token)) {
+                owners.put(token, fields.length > 1 ? fields[0] : null);
+            }
+        }
+        if (owners.isEmpty()) {
+            throw new IOException("No tokens found in " + ring);
+        }
+        List<TokenRange> ranges = Lists.newArrayListWithCapacity(owners.size());
+        Token left = owners.lastKey();
+        for (Map.Entry<Token, String> owner : owners.entrySet()) {
+            ranges.add(new TokenRange(left, owner.getKey(), owner.getValue()));
+            left = owner.getKey();
+        }
+        return ranges;
+    }
+
+    int rangeOf(Token token) {
+        int index = Arrays.binarySearch(rights, token);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == rights.length ? 0 : index;
+    }
+
+    /**
+     * Counts of the partitions and bytes of an sstable in each range, exact from its Index.db.
+     */
+    private long[][] read(File sstable) throws IOException {
+        long[][] counts = new long[2][ranges.size()];
+        LargePartitions.walkIndex(sstable, (key, size, blocks, deleted) -> {
+            int range = rangeOf(partitioner.getToken(key));
+            counts[0][range]++;
+            counts[1][range] += size;
+        });
+        return counts;
+    }
+
+    /**
+     * Counts of the partitions and bytes of an sstable in each range, estimated from its Summary.db.
+     */
+    private long[][] estimate(File sstable) throws IOException {
+        long[][] counts = new long[2][ranges.size()];
+        SSTableReader reader = SSTableReaderPool.instance.acquire(sstable, metadata);
+        try {
+            int entries = reader.getIndexSummarySize();
+            long end = reader.uncompressedLength();
+            long keys = reader.estimatedKeys();
+            long position = -1;
+            int range = 0;
+            for (int i = 0; i <= entries; i++) {
+                long next = end;
+                int nextRange = range;
+                if (i < entries) {
+                    DecoratedKey key = reader.decorateKey(ByteBuffer.wrap(reader.getIndexSummaryKey(i)));
+                    RowIndexEntry<?> entry = reader.getPosition(key, SSTableReader.Operator.EQ, false);
+                    next = entry == null ? position : entry.position;
+                    nextRange = rangeOf(key.getToken());
+                }
+                if (i > 0) {
+                    // spread the estimated keys evenly so they add up to the estimate
+                    counts[0][range] += keys * i / entries - keys * (i - 1) / entries;
+                    counts[1][range] += Math.max(0, next - position);
+                }
+                position = next;
+                range = nextRange;
+            }
+        } finally {
+            SSTableReaderPool.instance.release(reader);
+        }
+        return counts;
+    }
+
+    /**
+     * Reads every sstable on a pool of threads and adds up their counts in {@link #ranges}.
+     */
+    public void run() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sstables.size())),
+                new NamedThreadFactory("Distribution"));
+        try {
+            List<Future<long[][]>> results = Lists.newArrayList();
+            for (File sstable : sstables) {
+                results.add(pool.submit(() -> summaryOnly ? estimate(sstable) : read(sstable)));
+            }
+            for (Future<long[][]> future : results) {
+                long[][] counts = future.get();
+                for (int i = 0; i < ranges.size(); i++) {
+                    ranges.get(i).partitions += counts[0][i];
+                    ranges.get(i).bytes += counts[1][i];
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public void print(PrintStream out, boolean color) {
+        String c = color ? ANSI_BLUE : "";
+        String s = color ? ANSI_CYAN : "";
+        String r = color ? ANSI_RESET : "";
+        long partitions = ranges.stream().mapToLong(t -> t.partitions).sum();
+        long bytes = ranges.stream().mapToLong(t -> t.bytes).sum();
+        double mean = (double) bytes / ranges.size();
+        boolean endpoints = ranges.stream().anyMatch(t -> t.endpoint != null);
+
+        List<String> names = Lists.newArrayListWithCapacity(ranges.size());
+        for (TokenRange range : ranges) {
+            names.add("(" + partitioner.getTokenFactory().toString(range.left) + ", " +
+                    partitioner.getTokenFactory().toString(range.right) + "]");
+        }
+        int width = Math.max(5, names.stream().mapToInt(String::length).max().orElse(0));
+        int endpointWidth = Math.max(8, ranges.stream().mapToInt(t -> Strings.nullToEmpty(t.endpoint).length()).max().orElse(0));
+        String endpointHeader = endpoints ? String.format("%-" + endpointWidth + "s %s|%s ", "Endpoint", s, c) : "";
+        out.printf("   %s%-" + width + "s %s|%s %s%12s %s|%s %6s %s|%s %-24s %s|%s %6s %s|%s Skew%s%n", c, "Range", s, c,
+                endpointHeader, "Partitions", s, c, "%", s, c, "Bytes", s, c, "%", s, c, r);
+        out.printf("%s%s%s%n", s, Strings.repeat("-", 3 + width + 3 + (endpoints ? endpointWidth + 3 : 0) + 12 + 3 + 6 + 3 + 24 + 3 + 6 + 3 + 4), r);
+        for (int i = 0; i < ranges.size(); i++) {
+            TokenRange range = ranges.get(i);
+            double skew = mean == 0 ? 0 : range.bytes / mean;
+            String endpoint = endpoints ? String.format("%-" + endpointWidth + "s %s|%s ", Strings.nullToEmpty(range.endpoint), s, r) : "";
+            out.printf("   %-" + width + "s %s|%s %s%12d %s|%s %6s %s|%s %s %s|%s %6s %s|%s %s%.2f%s%n", names.get(i), s, r, endpoint,
+                    range.partitions, s, r, share(range.partitions, partitions), s, r, bytesColumn(range.bytes, color), s, r,
+                    share(range.bytes, bytes), s, r, color && skew >= 2 ? ANSI_RED : "", skew, r);
+        }
+
+        if (endpoints) {
+            Map<String, long[]> nodes = Maps.newTreeMap();
+            for (TokenRange range : ranges) {
+                long[] node = nodes.computeIfAbsent(Strings.nullToEmpty(range.endpoint), e -> new long[3]);
+                node[0]++;
+                node[1] += range.partitions;
+                node[2] += range.bytes;
+            }
+            out.println();
+            out.printf("   %s%-" + endpointWidth + "s %s|%s %6s %s|%s %12s %s|%s %6s %s|%s %-24s %s|%s %6s%s%n", c, "Endpoint", s, c,
+                    "Ranges", s, c, "Partitions", s, c, "%", s, c, "Bytes", s, c, "%", r);
+            out.printf("%s%s%s%n", s, Strings.repeat("-", 3 + endpointWidth + 3 + 6 + 3 + 12 + 3 + 6 + 3 + 24 + 3 + 6), r);
+            for (Map.Entry<String, long[]> node : nodes.entrySet()) {
+                long[] n = node.getValue();
+                out.printf("   %-" + endpointWidth + "s %s|%s %6d %s|%s %12d %s|%s %6s %s|%s %s %s|%s %6s%n", node.getKey(), s, r,
+                        n[0], s, r, n[1], s, r, share(n[1], partitions), s, r, bytesColumn(n[2], color), s, r, share(n[2], bytes));
+            }
+        }
+
+        TokenRange hottest = ranges.stream().max((a, b) -> Long.compare(a.bytes, b.bytes)).get();
+        double variance = ranges.stream().mapToDouble(t -> (t.bytes - mean) * (t.bytes - mean)).sum() / ranges.size();
+        out.printf("%n%d partitions, %d bytes %s in %d sstables over %d ranges%s%n", partitions, bytes,
+                CassandraUtils.toByteString(bytes, true, color), sstables.size(), ranges.size(),
+                summaryOnly ? ", estimated from Summary.db" : "");
+        out.printf("Hottest range %s holds %s of the bytes, %.2f times the mean; bytes per range vary by %.1f%%%n",
+                names.get(ranges.indexOf(hottest)), share(hottest.bytes, bytes).trim(), mean == 0 ? 0 : hottest.bytes / mean,
+                mean == 0 ? 0 : 100 * Math.sqrt(variance) / mean);
+    }
+
+    public void write(OutputWriter.Format format, Writer out) throws IOException {
+        OutputWriter writer = OutputWriter.forColumns(format, out, COLUMNS);
+        writer.writeHeader();
+        for (TokenRange range : ranges) {
+            writer.writeStrings(partitioner.getTokenFactory().toString(range.left),
+                    partitioner.getTokenFactory().toString(range.right), Strings.nullToEmpty(range.endpoint),
+                    Long.toString(range.partitions), Long.toString(range.bytes));
+        }
+        out.flush();
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+            if (cmd.getArgs().length == 0) {
+                throw new ParseException("No sstables given");
+            }
+            if (cmd.hasOption(RANGES_OPTION) && cmd.hasOption(RING_OPTION)) {
+                throw new ParseException("Only one of -" + RANGES_OPTION + " and -" + RING_OPTION + " can be given");
+            }
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "distribution sstable|directory|glob [...]",
+                        String.format("%nShows how partitions and bytes spread over token ranges%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        String schemaPath = cmd.getOptionValue(SCHEMA_OPTION);
+        if (schemaPath != null) {
+            System.setProperty("sstabletools.schema", schemaPath);
+        }
+
+        try {
+            List<File> sstables = Lists.newArrayList();
+            for (String path : cmd.getArgs()) {
+                sstables.addAll(CassandraUtils.sstablesFromPath(path));
+            }
+            if (sstables.isEmpty()) {
+                System.err.println("No sstables found in " + String.join(", ", cmd.getArgs()));
+                System.exit(-3);
+            }
+            IPartitioner partitioner = CassandraUtils.partitionerFromSSTable(sstables.get(0));
+            for (File sstable : sstables) {
+                if (!CassandraUtils.partitionerFromSSTable(sstable).getClass().equals(partitioner.getClass())) {
+                    System.err.println(sstable + " was not written with " + partitioner.getClass().getName());
+                    System.exit(-3);
+                }
+            }
+            DatabaseDescriptor.setPartitionerUnsafe(partitioner);
+            CFMetaData metadata = CassandraUtils.tableFromBestSource(sstables.get(0));
+            List<TokenRange> ranges = cmd.hasOption(RING_OPTION) ?
+                    fromRing(partitioner, new File(cmd.getOptionValue(RING_OPTION))) :
+                    split(partitioner, Integer.parseInt(cmd.getOptionValue(RANGES_OPTION, "16")));
+            int threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION,
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            Distribution distribution = new Distribution(sstables, metadata, partitioner, ranges, threads);
+            distribution.summaryOnly = cmd.hasOption(SUMMARY_OPTION);
+            distribution.run();
+            if (cmd.hasOption(OUTPUT_OPTION)) {
+                distribution.write(OutputWriter.Format.parse(cmd.getOptionValue(OUTPUT_OPTION)), OutputWriter.open(null));
+            } else {
+                distribution.print(System.out, true);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
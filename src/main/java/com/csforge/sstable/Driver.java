@@ -1,7 +1,5 @@
 package com.csforge.sstable;
 
-import com.google.common.base.Strings;
-import java.io.File;
 import java.util.Arrays;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.hints.HintsTool;
@@ -23,29 +21,41 @@ public class Driver {
                 break;
 
             case "describe":
-                String path = new File(args[1]).getAbsolutePath();
-                try {
-                    System.out.println("\u001B[1;34m" + path);
-                    System.out.println(TableTransformer.ANSI_CYAN + Strings.repeat("=", path.length()));
-                    System.out.print(TableTransformer.ANSI_RESET);
-                    if (args.length > 2) {
-                        CassandraUtils.printStats(path, System.out, Arrays.copyOfRange(args, 2, args.length));
-                    } else {
-                        CassandraUtils.printStats(path, System.out);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                Describe.main(Arrays.copyOfRange(args, 1, args.length));
                 break;
 
             case "hints":
                 HintsTool.main(Arrays.copyOfRange(args, 1, args.length));
                 break;
 
+            case "dump":
+                Dump.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+
             case "compact":
                 Compact.main(Arrays.copyOfRange(args, 1, args.length));
                 break;
 
+            case "large-partitions":
+                LargePartitions.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+
+            case "distribution":
+                Distribution.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+
+            case "tombstones":
+                Tombstones.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+
+            case "get":
+                Get.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+
+            case "generate":
+                Generate.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+
             default:
                 System.err.println("Unknown command: " + args[0]);
                 printCommands();
@@ -55,6 +65,6 @@ public class Driver {
     }
 
     private static void printCommands() {
-        System.err.println("Available commands: cqlsh, describe, hints, compact");
+        System.err.println("Available commands: cqlsh, describe, dump, hints, compact, generate, large-partitions, distribution, tombstones, get");
     }
 }
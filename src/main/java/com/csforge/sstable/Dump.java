@@ -0,0 +1,253 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.csforge.sstable.TableTransformer.ANSI_RED;
+import static com.csforge.sstable.TableTransformer.ANSI_RESET;
+
+/**
+ * Exports every partition of a set of sstables in the format of cqlsh's <code>DUMP</code> with <code>-o</code>.
+ * <p/>
+ * With more than one thread the export is a pipeline: the token ranges are read by a {@link ParallelScanner}, batches
+ * of partitions are formatted on a pool of workers, and a single writer writes the formatted batches in the order they
+ * were read. Batches are formatted exactly as the sequential export does, so the output is byte-identical to it.
+ */
+public class Dump {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    public static final List<String> COLUMNS = ImmutableList.of("key", "row");
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String OUTPUT_OPTION = "o";
+
+    private static final String WRITE_OPTION = "w";
+
+    private static final String THREADS_OPTION = "t";
+
+    static {
+        options.addOption(new Option(SCHEMA_OPTION, true, "Schema file to use."));
+        options.addOption(new Option(OUTPUT_OPTION, true, "Output format, json (lines, default), csv or tsv."));
+        options.addOption(new Option(WRITE_OPTION, true, "Write to FILE instead of stdout."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of threads reading and formatting, default 1."));
+    }
+
+    private final List<File> sstables;
+
+    private final CFMetaData metadata;
+
+    private final OutputWriter.Format format;
+
+    private final int threads;
+
+    public Dump(List<File> sstables, CFMetaData metadata, OutputWriter.Format format, int threads) {
+        this.sstables = sstables;
+        this.metadata = metadata;
+        this.format = format;
+        this.threads = threads;
+    }
+
+    /**
+     * Writes the partition deletion, static row and rows or range tombstone markers of a partition, up to limit lines.
+     *
+     * @return the number of lines written
+     */
+    static int writePartition(OutputWriter writer, CFMetaData metadata, UnfilteredRowIterator partition, int limit) throws IOException {
+        int rows = 0;
+        String key = metadata.getKeyValidator().getString(partition.partitionKey().getKey());
+        if (!partition.partitionLevelDeletion().isLive() && rows < limit) {
+            writer.writeStrings(key, partition.partitionLevelDeletion().toString());
+            rows++;
+        }
+        if (!partition.staticRow().isEmpty() && rows < limit) {
+            writer.writeStrings(key, partition.staticRow().toString(metadata, true));
+            rows++;
+        }
+        while (partition.hasNext() && rows < limit) {
+            writer.writeStrings(key, partition.next().toString(metadata, true));
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Exports the sstables to out.
+     *
+     * @return the number of lines written
+     */
+    public long run(Writer out) throws Exception {
+        Query query = new Query("SELECT * FROM sstables", sstables, metadata);
+        OutputWriter header = OutputWriter.forColumns(format, out, COLUMNS);
+        header.writeHeader();
+        long rows = threads > 1 ? runParallel(query, out) : runSequential(query, header);
+        out.flush();
+        return rows;
+    }
+
+    private long runSequential(Query query, OutputWriter writer) throws Exception {
+        long rows = 0;
+        try (UnfilteredPartitionIterator scanner = query.getScanner()) {
+            while (scanner.hasNext()) {
+                try (UnfilteredRowIterator partition = scanner.next()) {
+                    rows += writePartition(writer, metadata, partition, Integer.MAX_VALUE);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static class Batch {
+        final String text;
+        final int rows;
+
+        Batch(String text, int rows) {
+            this.text = text;
+            this.rows = rows;
+        }
+    }
+
+    private Batch format(List<UnfilteredRowIterator> partitions) throws IOException {
+        StringWriter text = new StringWriter();
+        OutputWriter writer = OutputWriter.forColumns(format, text, COLUMNS).withoutHeader();
+        int rows = 0;
+        for (UnfilteredRowIterator partition : partitions) {
+            rows += writePartition(writer, metadata, partition, Integer.MAX_VALUE);
+        }
+        return new Batch(text.toString(), rows);
+    }
+
+    private long runParallel(Query query, Writer out) throws Exception {
+        ExecutorService formatters = Executors.newFixedThreadPool(threads, new NamedThreadFactory("DumpFormatter"));
+        ExecutorService writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("DumpWriter"));
+        // formatted batches in read order, bounded so the scan waits on a slow writer instead of buffering the table
+        BlockingQueue<Future<Batch>> pending = new ArrayBlockingQueue<>(threads * 4);
+        Future<Batch> end = formatters.submit(() -> (Batch) null);
+        Future<Long> written = writer.submit(() -> {
+            long rows = 0;
+            for (Future<Batch> next = pending.take(); next != end; next = pending.take()) {
+                Batch batch = next.get();
+                out.write(batch.text);
+                rows += batch.rows;
+            }
+            return rows;
+        });
+        QueryExecution execution = new QueryExecution(threads);
+        try (UnfilteredPartitionIterator scanner = query.getScanner(execution)) {
+            // partitions of a split scan are already in memory, ranges too small to split are read lazily
+            boolean inMemory = execution.getRanges() > 1;
+            List<UnfilteredRowIterator> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            while (scanner.hasNext() && !written.isDone()) {
+                // held in memory so it can be formatted on another thread
+                if (inMemory) {
+                    batch.add(scanner.next());
+                } else {
+                    try (UnfilteredRowIterator partition = scanner.next()) {
+                        batch.add(ImmutableBTreePartition.create(partition).unfilteredIterator());
+                    }
+                }
+                if (batch.size() == BATCH_SIZE || !scanner.hasNext()) {
+                    List<UnfilteredRowIterator> partitions = batch;
+                    enqueue(pending, formatters.submit(() -> format(partitions)), written);
+                    batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                }
+            }
+            enqueue(pending, end, written);
+            return Uninterruptibles.getUninterruptibly(written);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            formatters.shutdownNow();
+            writer.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for room in the queue, unless the writer has failed and will never make any. If interrupted the writer is
+     * cancelled, as it would otherwise wait forever for the end of the batches.
+     */
+    private static void enqueue(BlockingQueue<Future<Batch>> pending, Future<Batch> batch, Future<Long> written) throws InterruptedException {
+        try {
+            while (!written.isDone() && !pending.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            }
+        } catch (InterruptedException e) {
+            written.cancel(true);
+            throw e;
+        }
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+            if (cmd.getArgs().length == 0) {
+                throw new ParseException("No sstables given");
+            }
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "dump sstable [sstable ...]",
+                        String.format("%nExports sstables as json lines, csv or tsv%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        String schemaPath = cmd.getOptionValue(SCHEMA_OPTION);
+        if (schemaPath != null) {
+            System.setProperty("sstabletools.schema", schemaPath);
+        }
+
+        try {
+            List<File> sstables = Lists.newArrayList();
+            for (String path : cmd.getArgs()) {
+                sstables.addAll(CassandraUtils.sstablesFromPath(path));
+            }
+            if (sstables.isEmpty()) {
+                System.err.println("No sstables found in " + String.join(", ", cmd.getArgs()));
+                System.exit(-3);
+            }
+            CFMetaData metadata = CassandraUtils.tableFromBestSource(sstables.get(0));
+            OutputWriter.Format format = OutputWriter.Format.parse(cmd.getOptionValue(OUTPUT_OPTION, "json"));
+            int threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION, "1"));
+            try (Writer out = OutputWriter.open(cmd.getOptionValue(WRITE_OPTION))) {
+                long rows = new Dump(sstables, metadata, format, threads).run(out);
+                System.err.printf("(%s rows)%n", rows);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.csforge.sstable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts result rows within a memory budget. Rows are buffered until the budget is exceeded, then sorted and spilled to
+ * a temporary file as a run; the sorted output is a k-way merge of the runs. Only a bounded number of runs are
+ * open at a time, with more runs than that consecutive runs are first merged into longer ones. The sort is stable, rows
+ * that compare equal keep the order they were added in.
+ */
+public class ExternalSorter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ExternalSorter.class);
+
+    private static final String BUFFER_PROPERTY = "sstabletools.sort.buffer";
+
+    /**
+     * Memory budget in bytes for buffered rows, 64MB unless set with -Dsstabletools.sort.buffer.
+     */
+    public static final long DEFAULT_BUFFER = Long.getLong(BUFFER_PROPERTY, 64L * 1024 * 1024);
+
+    /**
+     * Number of runs merged at once, so a large sort does not run out of file descriptors.
+     */
+    public static final int DEFAULT_FAN_IN = 64;
+
+    private static final int ROW_OVERHEAD = 48;
+
+    private static final int VALUE_OVERHEAD = 48;
+
+    private final Comparator<List<ByteBuffer>> comparator;
+
+    private final long budget;
+
+    private final int fanIn;
+
+    private List<File> runs = Lists.newArrayList();
+
+    private final List<DataInputStream> readers = Lists.newArrayList();
+
+    private List<List<ByteBuffer>> buffer = Lists.newArrayList();
+
+    private long buffered = 0;
+
+    public ExternalSorter(Comparator<List<ByteBuffer>> comparator) {
+        this(comparator, DEFAULT_BUFFER);
+    }
+
+    public ExternalSorter(Comparator<List<ByteBuffer>> comparator, long budget) {
+        this(comparator, budget, DEFAULT_FAN_IN);
+    }
+
+    public ExternalSorter(Comparator<List<ByteBuffer>> comparator, long budget, int fanIn) {
+        Preconditions.checkArgument(fanIn > 1, "Sort fan in must be at least 2");
+        this.comparator = comparator;
+        this.budget = budget;
+        this.fanIn = fanIn;
+    }
+
+    public void add(List<ByteBuffer> row) throws IOException {
+        buffer.add(row);
+        buffered += ROW_OVERHEAD;
+        for (ByteBuffer value : row) {
+            buffered += VALUE_OVERHEAD + (value == null ? 0 : value.remaining());
+        }
+        if (buffered > budget) {
+            spill();
+        }
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(buffer, comparator);
+        logger.debug("Spilling {} rows ({} bytes)", buffer.size(), buffered);
+        runs.add(write(buffer.iterator()));
+        buffer = Lists.newArrayList();
+        buffered = 0;
+    }
+
+    private static File write(Iterator<List<ByteBuffer>> rows) throws IOException {
+        File run = File.createTempFile("sstabletools-sort", ".run");
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 65536))) {
+            while (rows.hasNext()) {
+                List<ByteBuffer> row = rows.next();
+                out.writeInt(row.size());
+                for (ByteBuffer value : row) {
+                    if (value == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(value.remaining());
+                        if (value.hasArray()) {
+                            out.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+                        } else {
+                            out.write(ByteBufferUtil.getArray(value));
+                        }
+                    }
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Returns the rows added so far in sorted order. No rows may be added afterwards.
+     */
+    public Iterator<List<ByteBuffer>> sorted() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(buffer, comparator);
+            return buffer.iterator();
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        while (runs.size() > fanIn) {
+            runs = mergePass(runs);
+        }
+        return merge(runs);
+    }
+
+    /**
+     * Merges every fanIn consecutive runs into one, keeping the runs in the order their rows were added.
+     */
+    private List<File> mergePass(List<File> runs) throws IOException {
+        List<File> merged = Lists.newArrayListWithCapacity((runs.size() + fanIn - 1) / fanIn);
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            List<File> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            try {
+                merged.add(write(merge(group)));
+            } finally {
+                closeReaders();
+            }
+            for (File run : group) {
+                delete(run);
+            }
+        }
+        logger.debug("Merged {} sort runs into {}", runs.size(), merged.size());
+        return merged;
+    }
+
+    private Iterator<List<ByteBuffer>> merge(List<File> files) throws IOException {
+        // order by row, then by run so equal rows come out in the order they were added
+        PriorityQueue<Run> heap = new PriorityQueue<>(files.size(),
+                (a, b) -> {
+                    int cmp = comparator.compare(a.head, b.head);
+                    return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+                });
+        for (int i = 0; i < files.size(); i++) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(files.get(i)), 65536));
+            readers.add(in);
+            Run run = new Run(i, in);
+            if (run.advance()) {
+                heap.add(run);
+            }
+        }
+        return new AbstractIterator<List<ByteBuffer>>() {
+            protected List<ByteBuffer> computeNext() {
+                Run run = heap.poll();
+                if (run == null) {
+                    return endOfData();
+                }
+                List<ByteBuffer> row = run.head;
+                try {
+                    if (run.advance()) {
+                        heap.add(run);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return row;
+            }
+        };
+    }
+
+    private static class Run {
+        final int index;
+        final DataInputStream in;
+        List<ByteBuffer> head;
+
+        Run(int index, DataInputStream in) {
+            this.index = index;
+            this.in = in;
+        }
+
+        boolean advance() throws IOException {
+            int size;
+            try {
+                size = in.readInt();
+            } catch (EOFException e) {
+                head = null;
+                return false;
+            }
+            List<ByteBuffer> row = Lists.newArrayListWithCapacity(size);
+            for (int i = 0; i < size; i++) {
+                int length = in.readInt();
+                if (length < 0) {
+                    row.add(null);
+                } else {
+                    byte[] value = new byte[length];
+                    in.readFully(value);
+                    row.add(ByteBuffer.wrap(value));
+                }
+            }
+            head = row;
+            return true;
+        }
+    }
+
+    private void closeReaders() {
+        for (DataInputStream in : readers) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close sort run", e);
+            }
+        }
+        readers.clear();
+    }
+
+    private static void delete(File run) {
+        if (!run.delete()) {
+            logger.debug("Failed to delete sort run {}", run);
+        }
+    }
+
+    public void close() {
+        closeReaders();
+        for (File run : runs) {
+            delete(run);
+        }
+        buffer = null;
+    }
+}
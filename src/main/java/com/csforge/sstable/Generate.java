@@ -0,0 +1,514 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.SimpleBuilders;
+import org.apache.cassandra.db.marshal.*;
+import org.apache.cassandra.db.rows.AbstractUnfilteredRowIterator;
+import org.apache.cassandra.db.rows.EncodingStats;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Rows;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableTxnWriter;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.sstable.format.big.BigFormat;
+import org.apache.cassandra.service.ActiveRepairService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.UUIDGen;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.csforge.sstable.TableTransformer.ANSI_RED;
+import static com.csforge.sstable.TableTransformer.ANSI_RESET;
+
+/**
+ * Writes sstables of random data for a table, for testing and benchmarking the tools at scale.
+ * <p/>
+ * Every sstable holds a share of the rows of every partition, the way memtable flushes of a live table overlap, and
+ * each one is written by its own writer so they are written in parallel. Partition keys are generated up front and
+ * held in memory sorted by token. Rows are generated as the writer consumes them, only the clusterings of the partition
+ * being written are held to write its rows in clustering order. With a key skew rows are spread over the
+ * partitions following a zipf distribution of that exponent, so a few partitions become very wide.
+ */
+public class Generate {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String DIRECTORY_OPTION = "d";
+
+    private static final String SSTABLES_OPTION = "n";
+
+    private static final String PARTITIONS_OPTION = "p";
+
+    private static final String ROWS_OPTION = "r";
+
+    private static final String CELL_SIZE_OPTION = "c";
+
+    private static final String THREADS_OPTION = "t";
+
+    private static final String TTL_RATIO_OPTION = "ttl_ratio";
+
+    private static final String TTL_OPTION = "ttl";
+
+    private static final String TOMBSTONE_RATIO_OPTION = "tombstone_ratio";
+
+    private static final String SKEW_OPTION = "skew";
+
+    private static final String SEED_OPTION = "seed";
+
+    private static final int COLLECTION_SIZE = 3;
+
+    static {
+        Option schemaOption = new Option(SCHEMA_OPTION, true, "File with the CREATE TABLE statement of the table to generate (required).");
+        schemaOption.setRequired(true);
+        options.addOption(schemaOption);
+        options.addOption(new Option(DIRECTORY_OPTION, true, "Directory to write to, default the current directory."));
+        options.addOption(new Option(SSTABLES_OPTION, true, "Number of sstables, default 1."));
+        options.addOption(new Option(PARTITIONS_OPTION, true, "Number of partitions, default 1000."));
+        options.addOption(new Option(ROWS_OPTION, true, "Average number of rows per partition, default 10."));
+        options.addOption(new Option(CELL_SIZE_OPTION, true, "Size in bytes of text and blob values, default 64."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of sstables written at once, default the number of processors."));
+        options.addOption(new Option(null, TTL_RATIO_OPTION, true, "Fraction of rows written with a TTL, default 0."));
+        options.addOption(new Option(null, TTL_OPTION, true, "TTL in seconds of those rows, default 86400."));
+        options.addOption(new Option(null, TOMBSTONE_RATIO_OPTION, true, "Fraction of rows written as row deletions, default 0."));
+        options.addOption(new Option(null, SKEW_OPTION, true, "Zipf exponent of the number of rows per partition, default 0 (every partition has the same number of rows)."));
+        options.addOption(new Option(null, SEED_OPTION, true, "Seed of the random data, default 0."));
+    }
+
+    private final CFMetaData metadata;
+
+    private final File directory;
+
+    int sstables = 1;
+
+    int partitions = 1000;
+
+    int rows = 10;
+
+    int cellSize = 64;
+
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    double ttlRatio = 0;
+
+    int ttl = 86400;
+
+    double tombstoneRatio = 0;
+
+    double skew = 0;
+
+    long seed = 0;
+
+    public Generate(CFMetaData metadata, File directory) {
+        this.metadata = metadata;
+        this.directory = directory;
+    }
+
+    private static class Key implements Comparable<Key> {
+        final DecoratedKey key;
+        final Object[] values;
+        final int rows;
+
+        Key(DecoratedKey key, Object[] values, int rows) {
+            this.key = key;
+            this.values = values;
+            this.rows = rows;
+        }
+
+        public int compareTo(Key o) {
+            return key.compareTo(o.key);
+        }
+    }
+
+    /**
+     * An sstable written by {@link #generate()}.
+     */
+    public static class Written {
+        public final File file;
+        public final long partitions;
+        public final long rows;
+
+        Written(File file, long partitions, long rows) {
+            this.file = file;
+            this.partitions = partitions;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Writes the sstables.
+     *
+     * @return the written Data.db files
+     */
+    public List<File> run() throws Exception {
+        return generate().stream().map(w -> w.file).collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the sstables.
+     *
+     * @return the written Data.db files with the number of partitions and rows of each
+     */
+    public List<Written> generate() throws Exception {
+        if (metadata.isCounter()) {
+            throw new IllegalArgumentException("Counter tables cannot be generated");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory " + directory);
+        }
+        List<Key> keys = keys();
+        int generation = nextGeneration();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sstables)),
+                new NamedThreadFactory("Generate"));
+        try {
+            List<Future<Written>> futures = Lists.newArrayListWithCapacity(sstables);
+            for (int i = 0; i < sstables; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> write(keys, index, generation + index)));
+            }
+            List<Written> written = Lists.newArrayListWithCapacity(sstables);
+            for (Future<Written> sstable : futures) {
+                written.add(sstable.get());
+            }
+            return written;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The distinct partition keys in token order with the number of rows of each.
+     */
+    private List<Key> keys() {
+        List<ColumnDefinition> columns = metadata.partitionKeyColumns();
+        double[] weights = new double[partitions];
+        double total = 0;
+        for (int p = 0; p < partitions; p++) {
+            weights[p] = 1 / Math.pow(p + 1, skew);
+            total += weights[p];
+        }
+        List<Key> keys = Lists.newArrayListWithCapacity(partitions);
+        for (int p = 0; p < partitions; p++) {
+            Random random = new Random(seed * 31 + p);
+            Object[] values = new Object[columns.size()];
+            ByteBuffer[] serialized = new ByteBuffer[columns.size()];
+            for (int c = 0; c < values.length; c++) {
+                serialized[c] = (ByteBuffer) value(columns.get(c).type, random, p);
+                values[c] = serialized[c];
+            }
+            ByteBuffer key = serialized.length == 1 ? serialized[0] : CompositeType.build(serialized);
+            int count = (int) Math.max(1, Math.round((double) rows * partitions * weights[p] / total));
+            keys.add(new Key(metadata.decorateKey(key), values, count));
+        }
+        keys.sort(null);
+        List<Key> distinct = Lists.newArrayListWithCapacity(keys.size());
+        for (Key key : keys) {
+            if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).key.equals(key.key)) {
+                distinct.add(key);
+            }
+        }
+        return distinct;
+    }
+
+    private int nextGeneration() {
+        int generation = 0;
+        for (File file : CassandraUtils.sstablesFromPath(directory.getAbsolutePath())) {
+            generation = Math.max(generation, Descriptor.fromFilename(file.getAbsolutePath()).generation);
+        }
+        return generation + 1;
+    }
+
+    /**
+     * Writes the rows of every partition whose index modulo the number of sstables is index.
+     */
+    private Written write(List<Key> keys, int index, int generation) throws Exception {
+        Descriptor desc = new Descriptor(SSTableFormat.Type.BIG.info.getLatestVersion(),
+                directory,
+                metadata.ksName,
+                metadata.cfName,
+                generation,
+                SSTableFormat.Type.BIG,
+                Component.digestFor(BigFormat.latestVersion.uncompressedChecksumType()));
+        Random random = new Random(seed * 31 + partitions + index);
+        long partitionCount = 0;
+        long rowCount = 0;
+        try (SSTableTxnWriter out = SSTableTxnWriter.create(metadata,
+                desc,
+                keys.size(),
+                ActiveRepairService.UNREPAIRED_SSTABLE,
+                0,
+                SerializationHeader.makeWithoutStats(metadata),
+                Collections.emptySet())) {
+            for (Key key : keys) {
+                if (key.rows <= index) {
+                    continue;
+                }
+                Row staticRow = Rows.EMPTY_STATIC_ROW;
+                if (!metadata.partitionColumns().statics.isEmpty()) {
+                    Row.SimpleBuilder row = new SimpleBuilders.RowBuilder(metadata, Clustering.STATIC_CLUSTERING);
+                    for (ColumnDefinition column : metadata.partitionColumns().statics) {
+                        row.add(column.name.toString(), value(column.type, random, -1));
+                    }
+                    staticRow = row.build();
+                }
+                PartitionRows partition = new PartitionRows(key, clusterings(key, index), staticRow, random);
+                out.append(partition);
+                partitionCount++;
+                rowCount += partition.count;
+            }
+            out.finish(false);
+        }
+        return new Written(new File(desc.filenameFor(Component.DATA)), partitionCount, rowCount);
+    }
+
+    /**
+     * The distinct clusterings of the rows of the partition that go to the sstable, in clustering order.
+     */
+    private List<Clustering> clusterings(Key key, int index) {
+        List<ColumnDefinition> columns = metadata.clusteringColumns();
+        if (columns.isEmpty()) {
+            return Collections.singletonList(Clustering.EMPTY);
+        }
+        List<Clustering> clusterings = Lists.newArrayListWithCapacity((key.rows - index + sstables - 1) / sstables);
+        for (int r = index; r < key.rows; r += sstables) {
+            Random clustering = new Random(seed * 31 + key.key.hashCode() * 31L + r);
+            ByteBuffer[] values = new ByteBuffer[columns.size()];
+            for (int c = 0; c < values.length; c++) {
+                values[c] = (ByteBuffer) value(columns.get(c).type, clustering, r);
+            }
+            clusterings.add(Clustering.make(values));
+        }
+        clusterings.sort(metadata.comparator);
+        List<Clustering> distinct = Lists.newArrayListWithCapacity(clusterings.size());
+        for (Clustering clustering : clusterings) {
+            if (distinct.isEmpty() || metadata.comparator.compare(distinct.get(distinct.size() - 1), clustering) != 0) {
+                distinct.add(clustering);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * The rows of a partition in an sstable, each generated when the writer asks for it so a wide partition is never
+     * held in memory.
+     */
+    private class PartitionRows extends AbstractUnfilteredRowIterator {
+        private final Iterator<Clustering> clusterings;
+
+        private final Random random;
+
+        long count = 0;
+
+        PartitionRows(Key key, List<Clustering> clusterings, Row staticRow, Random random) {
+            super(Generate.this.metadata, key.key, DeletionTime.LIVE, Generate.this.metadata.partitionColumns(), staticRow, false, EncodingStats.NO_STATS);
+            this.clusterings = clusterings.iterator();
+            this.random = random;
+        }
+
+        protected Unfiltered computeNext() {
+            if (!clusterings.hasNext()) {
+                return endOfData();
+            }
+            Row.SimpleBuilder row = new SimpleBuilders.RowBuilder(metadata, clusterings.next());
+            if (random.nextDouble() < tombstoneRatio) {
+                row.delete();
+            } else {
+                if (random.nextDouble() < ttlRatio) {
+                    row.ttl(ttl);
+                }
+                for (ColumnDefinition column : metadata.partitionColumns().regulars) {
+                    row.add(column.name.toString(), value(column.type, random, -1));
+                }
+            }
+            count++;
+            return row.build();
+        }
+    }
+
+    /**
+     * A random value of the type, serialized, or as a java collection for non-frozen collections. Integer and text
+     * values of keys are derived from the ordinal instead so they are distinct.
+     */
+    private Object value(AbstractType<?> type, Random random, long ordinal) {
+        if (type instanceof ReversedType) {
+            type = ((ReversedType<?>) type).baseType;
+        }
+        if (type.isCollection()) {
+            CollectionType<?> collection = (CollectionType<?>) type;
+            Object value;
+            if (collection.kind == CollectionType.Kind.MAP) {
+                MapType<?, ?> map = (MapType<?, ?>) collection;
+                Map<Object, Object> elements = Maps.newLinkedHashMap();
+                for (int i = 0; i < COLLECTION_SIZE; i++) {
+                    elements.put(element(map.getKeysType(), random), element(map.getValuesType(), random));
+                }
+                value = elements;
+            } else {
+                AbstractType<?> elementType = collection.kind == CollectionType.Kind.LIST
+                        ? ((ListType<?>) collection).getElementsType()
+                        : ((SetType<?>) collection).getElementsType();
+                List<Object> elements = Lists.newArrayListWithCapacity(COLLECTION_SIZE);
+                for (int i = 0; i < COLLECTION_SIZE; i++) {
+                    elements.add(element(elementType, random));
+                }
+                value = collection.kind == CollectionType.Kind.SET ? Sets.newLinkedHashSet(elements) : elements;
+            }
+            return type.isMultiCell() ? value : decompose(type, value);
+        }
+        if (type instanceof UTF8Type || type instanceof AsciiType) {
+            if (ordinal >= 0) {
+                return ByteBufferUtil.bytes(String.format("%010d", ordinal));
+            }
+            char[] chars = new char[cellSize];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ('a' + random.nextInt(26));
+            }
+            return ByteBufferUtil.bytes(new String(chars));
+        }
+        if (type instanceof BytesType) {
+            byte[] bytes = new byte[cellSize];
+            random.nextBytes(bytes);
+            return ByteBuffer.wrap(bytes);
+        }
+        if (type instanceof Int32Type) {
+            return ByteBufferUtil.bytes(ordinal >= 0 ? (int) ordinal : random.nextInt());
+        }
+        if (type instanceof LongType) {
+            return ByteBufferUtil.bytes(ordinal >= 0 ? ordinal : random.nextLong());
+        }
+        if (type instanceof IntegerType) {
+            return decompose(type, BigInteger.valueOf(ordinal >= 0 ? ordinal : random.nextLong()));
+        }
+        if (type instanceof ShortType) {
+            return decompose(type, (short) random.nextInt());
+        }
+        if (type instanceof ByteType) {
+            return decompose(type, (byte) random.nextInt());
+        }
+        if (type instanceof FloatType) {
+            return ByteBufferUtil.bytes(random.nextFloat());
+        }
+        if (type instanceof DoubleType) {
+            return ByteBufferUtil.bytes(random.nextDouble());
+        }
+        if (type instanceof DecimalType) {
+            return decompose(type, BigDecimal.valueOf(random.nextLong(), 4));
+        }
+        if (type instanceof BooleanType) {
+            return decompose(type, random.nextBoolean());
+        }
+        if (type instanceof TimestampType) {
+            return decompose(type, new Date(System.currentTimeMillis() - random.nextInt(Integer.MAX_VALUE)));
+        }
+        if (type instanceof SimpleDateType) {
+            return ByteBufferUtil.bytes(Integer.MIN_VALUE + 17000 + random.nextInt(3650));
+        }
+        if (type instanceof TimeType) {
+            return ByteBufferUtil.bytes((long) (random.nextDouble() * 86400_000_000_000L));
+        }
+        if (type instanceof TimeUUIDType) {
+            return decompose(type, UUIDGen.getTimeUUID(System.currentTimeMillis() - random.nextInt(Integer.MAX_VALUE), 0, random.nextLong()));
+        }
+        if (type instanceof UUIDType) {
+            return decompose(type, new UUID(random.nextLong(), random.nextLong()));
+        }
+        if (type instanceof InetAddressType) {
+            byte[] address = new byte[4];
+            random.nextBytes(address);
+            try {
+                return decompose(type, InetAddress.getByAddress(address));
+            } catch (java.net.UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+        }
+        throw new IllegalArgumentException("Cannot generate values of type " + type.asCQL3Type());
+    }
+
+    private Object element(AbstractType<?> type, Random random) {
+        return type.compose((ByteBuffer) value(type, random, -1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ByteBuffer decompose(AbstractType<?> type, Object value) {
+        return ((AbstractType<Object>) type).decompose(value);
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "generate",
+                        String.format("%nWrites sstables of random data for a table%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        try {
+            CFMetaData metadata;
+            try (InputStream schema = new FileInputStream(cmd.getOptionValue(SCHEMA_OPTION))) {
+                metadata = CassandraUtils.tableFromCQL(schema);
+            }
+            Generate generate = new Generate(metadata, new File(cmd.getOptionValue(DIRECTORY_OPTION, ".")));
+            generate.sstables = Integer.parseInt(cmd.getOptionValue(SSTABLES_OPTION, "1"));
+            generate.partitions = Integer.parseInt(cmd.getOptionValue(PARTITIONS_OPTION, "1000"));
+            generate.rows = Integer.parseInt(cmd.getOptionValue(ROWS_OPTION, "10"));
+            generate.cellSize = Integer.parseInt(cmd.getOptionValue(CELL_SIZE_OPTION, "64"));
+            if (cmd.hasOption(THREADS_OPTION)) {
+                generate.threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION));
+            }
+            generate.ttlRatio = Double.parseDouble(cmd.getOptionValue(TTL_RATIO_OPTION, "0"));
+            generate.ttl = Integer.parseInt(cmd.getOptionValue(TTL_OPTION, "86400"));
+            generate.tombstoneRatio = Double.parseDouble(cmd.getOptionValue(TOMBSTONE_RATIO_OPTION, "0"));
+            generate.skew = Double.parseDouble(cmd.getOptionValue(SKEW_OPTION, "0"));
+            generate.seed = Long.parseLong(cmd.getOptionValue(SEED_OPTION, "0"));
+            for (Written sstable : generate.generate()) {
+                System.out.printf("Wrote %d partitions, %d rows to %s%n", sstable.partitions, sstable.rows, sstable.file);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
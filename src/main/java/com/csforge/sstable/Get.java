@@ -0,0 +1,317 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.db.Slices;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterators;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.serializers.MarshalException;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.commons.cli.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.csforge.sstable.TableTransformer.ANSI_RED;
+import static com.csforge.sstable.TableTransformer.ANSI_RESET;
+
+/**
+ * Looks up a list of partition keys across a set of sstables without planning a query per key. The keys are sorted by
+ * token and split into batches of consecutive keys, each looked up on a pool of workers. For every sstable whose key
+ * range holds the key, the bloom filter is checked first, then the {@link KeyCache} and only then the index summary
+ * and Index.db. The versions of a partition found in several sstables are merged as a read would.
+ * <p/>
+ * Results are handed over in token order, at most a few batches of partitions are held in memory at a time.
+ */
+public class Get {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String KEYS_OPTION = "k";
+
+    private static final String OUTPUT_OPTION = "o";
+
+    private static final String WRITE_OPTION = "w";
+
+    private static final String MISSING_OPTION = "m";
+
+    private static final String THREADS_OPTION = "t";
+
+    static final int BATCH_SIZE = 256;
+
+    static {
+        Option keysOption = new Option(KEYS_OPTION, true, "File of partition keys, one per line as cqlsh prints them (parts of composite keys separated by ':'), - for stdin.");
+        keysOption.setRequired(true);
+        options.addOption(keysOption);
+        options.addOption(new Option(SCHEMA_OPTION, true, "Schema file to use."));
+        options.addOption(new Option(OUTPUT_OPTION, true, "Output format, json (lines, default), csv or tsv."));
+        options.addOption(new Option(WRITE_OPTION, true, "Write to FILE instead of stdout."));
+        options.addOption(new Option(MISSING_OPTION, true, "Write the keys found in no sstable to FILE."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of lookup threads, default is the number of processors."));
+    }
+
+    /**
+     * Receives the result of every key in token order, the partition is null if no sstable has the key.
+     */
+    public interface PartitionConsumer {
+        void accept(DecoratedKey key, UnfilteredRowIterator partition) throws IOException;
+    }
+
+    private final List<File> sstables;
+
+    private final CFMetaData metadata;
+
+    private final int threads;
+
+    private final int nowInSec = FBUtilities.nowInSeconds();
+
+    /**
+     * Distinct keys of the last key file read, keys found, key and sstable pairs passing the key range and bloom filter,
+     * those skipped by the bloom filter, found in the key cache and looked up in Index.db. Bloom filter false positives
+     * are the Index.db lookups that found nothing.
+     */
+    public long keyCount = 0;
+    public final AtomicLong found = new AtomicLong();
+    public final AtomicLong candidates = new AtomicLong();
+    public final AtomicLong filtered = new AtomicLong();
+    public final AtomicLong cacheHits = new AtomicLong();
+    public final AtomicLong indexLookups = new AtomicLong();
+    public final AtomicLong falsePositives = new AtomicLong();
+
+    public Get(Collection<File> sstables, CFMetaData metadata, int threads) {
+        this.sstables = Lists.newArrayList(sstables);
+        this.metadata = metadata;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Parses the keys, one per line, and returns them sorted by token without duplicates.
+     */
+    public static List<DecoratedKey> readKeys(BufferedReader in, CFMetaData metadata) throws IOException {
+        List<DecoratedKey> keys = Lists.newArrayList();
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            number++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                keys.add(metadata.decorateKey(metadata.getKeyValidator().fromString(line)));
+            } catch (MarshalException e) {
+                throw new IllegalArgumentException(String.format("Invalid key on line %d: %s", number, e.getMessage()));
+            }
+        }
+        keys.sort(null);
+        List<DecoratedKey> distinct = Lists.newArrayListWithCapacity(keys.size());
+        for (DecoratedKey key : keys) {
+            if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).equals(key)) {
+                distinct.add(key);
+            }
+        }
+        return distinct;
+    }
+
+    private RowIndexEntry<?> position(SSTableReader reader, DecoratedKey key) {
+        if (reader.first.compareTo(key) > 0 || reader.last.compareTo(key) < 0) {
+            return null;
+        }
+        if (!reader.getBloomFilter().isPresent(key)) {
+            filtered.incrementAndGet();
+            return null;
+        }
+        candidates.incrementAndGet();
+        RowIndexEntry<?> position = KeyCache.instance.get(reader.descriptor, key);
+        if (position != null) {
+            cacheHits.incrementAndGet();
+            return position;
+        }
+        indexLookups.incrementAndGet();
+        position = reader.getPosition(key, SSTableReader.Operator.EQ, false);
+        if (position == null) {
+            falsePositives.incrementAndGet();
+        } else {
+            KeyCache.instance.put(reader.descriptor, key, position);
+        }
+        return position;
+    }
+
+    /**
+     * Looks up a batch of consecutive keys, reading the partitions found into memory.
+     */
+    private List<ImmutableBTreePartition> lookup(List<SSTableReader> readers, List<DecoratedKey> keys) {
+        List<ImmutableBTreePartition> partitions = Lists.newArrayListWithCapacity(keys.size());
+        ColumnFilter columns = ColumnFilter.all(metadata);
+        for (DecoratedKey key : keys) {
+            List<UnfilteredRowIterator> versions = Lists.newArrayList();
+            try {
+                for (SSTableReader reader : readers) {
+                    RowIndexEntry<?> position = position(reader, key);
+                    if (position != null) {
+                        versions.add(reader.iterator(null, key, position, Slices.ALL, columns, false, false));
+                    }
+                }
+                if (versions.isEmpty()) {
+                    partitions.add(null);
+                } else {
+                    found.incrementAndGet();
+                    try (UnfilteredRowIterator merged = versions.size() == 1 ? versions.get(0) :
+                            UnfilteredRowIterators.merge(versions, nowInSec)) {
+                        partitions.add(ImmutableBTreePartition.create(merged));
+                    }
+                }
+            } finally {
+                versions.forEach(UnfilteredRowIterator::close);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Looks up the keys, which must be sorted by token, and hands their partitions to the consumer in the same order.
+     */
+    public void run(List<DecoratedKey> keys, PartitionConsumer consumer) throws Exception {
+        keyCount = keys.size();
+        List<SSTableReader> readers = SSTableReaderPool.instance.acquireAll(sstables, metadata);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("Get"));
+        // batches in token order, bounded so the workers wait on a slow consumer instead of reading every partition
+        Deque<Future<List<ImmutableBTreePartition>>> pending = new ArrayDeque<>();
+        try {
+            int submitted = 0;
+            int consumed = 0;
+            while (consumed < keys.size()) {
+                while (submitted < keys.size() && pending.size() < threads * 2) {
+                    List<DecoratedKey> batch = keys.subList(submitted, Math.min(keys.size(), submitted + BATCH_SIZE));
+                    pending.add(pool.submit(() -> lookup(readers, batch)));
+                    submitted += batch.size();
+                }
+                for (ImmutableBTreePartition partition : pending.poll().get()) {
+                    consumer.accept(keys.get(consumed++), partition == null ? null : partition.unfilteredIterator());
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
+            SSTableReaderPool.instance.releaseAll(readers);
+        }
+    }
+
+    /**
+     * Looks up the keys of a file, - for stdin, writing the rows found to out.
+     *
+     * @return the number of lines written
+     */
+    public long run(String keyFile, OutputWriter.Format format, Writer out, Writer missing) throws Exception {
+        List<DecoratedKey> keys;
+        try (BufferedReader in = "-".equals(keyFile) ?
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+                Files.newBufferedReader(new File(keyFile).toPath(), StandardCharsets.UTF_8)) {
+            keys = readKeys(in, metadata);
+        }
+        OutputWriter writer = OutputWriter.forColumns(format, out, Dump.COLUMNS);
+        writer.writeHeader();
+        AtomicLong rows = new AtomicLong();
+        run(keys, (key, partition) -> {
+            if (partition != null) {
+                rows.addAndGet(Dump.writePartition(writer, metadata, partition, Integer.MAX_VALUE));
+            } else if (missing != null) {
+                missing.write(metadata.getKeyValidator().getString(key.getKey()));
+                missing.write(System.lineSeparator());
+            }
+        });
+        out.flush();
+        if (missing != null) {
+            missing.flush();
+        }
+        return rows.get();
+    }
+
+    public String summary(long rows) {
+        return String.format("%d of %d keys found, %d rows, %d sstables in key range, %d skipped by bloom filter, " +
+                        "%d key cache hits, %d Index.db lookups, %d bloom filter false positives",
+                found.get(), keyCount, rows, candidates.get() + filtered.get(), filtered.get(), cacheHits.get(),
+                indexLookups.get(), falsePositives.get());
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+            if (cmd.getArgs().length == 0) {
+                throw new ParseException("No sstables given");
+            }
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "get sstable|directory|glob [...]",
+                        String.format("%nLooks up a file of partition keys, writing their rows as json lines, csv or tsv%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        String schemaPath = cmd.getOptionValue(SCHEMA_OPTION);
+        if (schemaPath != null) {
+            System.setProperty("sstabletools.schema", schemaPath);
+        }
+
+        try {
+            List<File> sstables = Lists.newArrayList();
+            for (String path : cmd.getArgs()) {
+                sstables.addAll(CassandraUtils.sstablesFromPath(path));
+            }
+            if (sstables.isEmpty()) {
+                System.err.println("No sstables found in " + String.join(", ", cmd.getArgs()));
+                System.exit(-3);
+            }
+            CFMetaData metadata = CassandraUtils.tableFromBestSource(sstables.get(0));
+            OutputWriter.Format format = OutputWriter.Format.parse(cmd.getOptionValue(OUTPUT_OPTION, "json"));
+            int threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION,
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            Get get = new Get(sstables, metadata, threads);
+            try (Writer out = OutputWriter.open(cmd.getOptionValue(WRITE_OPTION));
+                 Writer missing = cmd.hasOption(MISSING_OPTION) ?
+                         Files.newBufferedWriter(new File(cmd.getOptionValue(MISSING_OPTION)).toPath(), StandardCharsets.UTF_8) : null) {
+                long rows = get.run(cmd.getOptionValue(KEYS_OPTION), format, out, missing);
+                System.err.printf("(%s)%n", get.summary(rows));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.format("%s%s%s%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            System.exit(-2);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.io.sstable.Descriptor;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the Index.db entries of partition keys, the offline counterpart of Cassandra's key cache.
+ * {@link Get} deduplicates its keys so a single run never looks a key up twice, the cache is for the lookups of later
+ * runs in the same process, like repeated GETs in cqlsh, which then skip the summary search and the Index.db seek.
+ * <p/>
+ * Entries are keyed on the sstable descriptor and dropped by {@link SSTableReaderPool} when it retires or closes the
+ * reader of that sstable, so a rewritten sstable is never read at a stale position.
+ */
+public class KeyCache {
+
+    private static final String CAPACITY_PROPERTY = "sstabletools.keys.max";
+
+    public static final KeyCache instance = new KeyCache(Integer.getInteger(CAPACITY_PROPERTY, 16384));
+
+    private final LinkedHashMap<List<Object>, RowIndexEntry<?>> entries;
+
+    public KeyCache(int capacity) {
+        this.entries = new LinkedHashMap<List<Object>, RowIndexEntry<?>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, RowIndexEntry<?>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * The cached index entry of the key in the sstable, null if not cached.
+     */
+    public synchronized RowIndexEntry<?> get(Descriptor desc, DecoratedKey key) {
+        return entries.get(Arrays.asList(desc, key));
+    }
+
+    public synchronized void put(Descriptor desc, DecoratedKey key, RowIndexEntry<?> position) {
+        entries.put(Arrays.asList(desc, key), position);
+    }
+
+    /**
+     * Drops the entries of the sstable.
+     */
+    public synchronized void invalidate(Descriptor desc) {
+        entries.keySet().removeIf(k -> k.get(0).equals(desc));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,304 @@
+package com.csforge.sstable;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MinMaxPriorityQueue;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.csforge.sstable.TableTransformer.*;
+
+/**
+ * Finds the largest partitions of a set of sstables from their Index.db alone. The size of a partition is the distance
+ * from its position in Data.db to the position of the next partition, its serialized and uncompressed size, so no data
+ * is read or decompressed. The promoted index of wide partitions adds the number of index blocks and the partition
+ * deletion.
+ * <p/>
+ * A partition is ranked separately in each sstable holding part of it.
+ */
+public class LargePartitions {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    public static final List<String> COLUMNS = Arrays.asList("size", "index_blocks", "deleted", "key", "sstable");
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String COUNT_OPTION = "n";
+
+    private static final String THREADS_OPTION = "t";
+
+    private static final String OUTPUT_OPTION = "o";
+
+    static {
+        options.addOption(new Option(SCHEMA_OPTION, true, "Schema file to use."));
+        options.addOption(new Option(COUNT_OPTION, true, "Number of partitions to list, default 20."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of sstables read concurrently, default is the number of processors."));
+        options.addOption(new Option(OUTPUT_OPTION, true, "Output json (lines), csv or tsv instead of a table."));
+    }
+
+    public static class Partition {
+        public final ByteBuffer key;
+        public final File sstable;
+        public final long size;
+        public final int indexBlocks;
+        public final boolean deleted;
+
+        Partition(ByteBuffer key, File sstable, long size, int indexBlocks, boolean deleted) {
+            this.key = key;
+            this.sstable = sstable;
+            this.size = size;
+            this.indexBlocks = indexBlocks;
+            this.deleted = deleted;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private static final Comparator<Partition> SIZE_ORDER = Comparator.comparingLong(Partition::getSize).reversed();
+
+    private final List<File> sstables;
+
+    private final CFMetaData metadata;
+
+    private final int count;
+
+    private final int threads;
+
+    /**
+     * Partitions in the Index.db files read, the index bytes read.
+     */
+    public long partitions = 0;
+    public long indexBytes = 0;
+
+    public LargePartitions(Collection<File> sstables, CFMetaData metadata, int count, int threads) {
+        this.sstables = Lists.newArrayList(sstables);
+        this.metadata = metadata;
+        this.count = Math.max(1, count);
+        this.threads = threads;
+    }
+
+    private static class Result {
+        final MinMaxPriorityQueue<Partition> largest;
+        long partitions = 0;
+        long indexBytes = 0;
+
+        Result(int count) {
+            largest = MinMaxPriorityQueue.orderedBy(SIZE_ORDER).maximumSize(count).create();
+        }
+    }
+
+    /**
+     * Called for each partition of an Index.db, in token order.
+     */
+    interface IndexVisitor {
+        void partition(ByteBuffer key, long size, int indexBlocks, boolean deleted);
+    }
+
+    /**
+     * Uncompressed length of the Data.db. The compression metadata holds its chunk offsets off heap, so it is closed
+     * once read.
+     */
+    private static long dataLength(Descriptor descriptor) {
+        if (!new File(descriptor.filenameFor(Component.COMPRESSION_INFO)).exists()) {
+            return new File(descriptor.filenameFor(Component.DATA)).length();
+        }
+        CompressionMetadata compression = CompressionMetadata.create(descriptor.filenameFor(Component.DATA));
+        try {
+            return compression.dataLength;
+        } finally {
+            compression.close();
+        }
+    }
+
+    /**
+     * Walks the Index.db of an sstable, sizing each partition once the position of the next one is known.
+     *
+     * @return the number of Index.db bytes read
+     */
+    static long walkIndex(File sstable, IndexVisitor visitor) throws IOException {
+        Descriptor descriptor = Descriptor.fromFilename(sstable.getAbsolutePath());
+        if (!descriptor.version.storeRows()) {
+            throw new IOException("Unsupported sstable version " + descriptor.version + " of " + sstable);
+        }
+        long dataLength = dataLength(descriptor);
+        try (RandomAccessReader in = RandomAccessReader.open(new File(descriptor.filenameFor(Component.PRIMARY_INDEX)))) {
+            ByteBuffer key = null;
+            long position = 0;
+            int blocks = 0;
+            boolean deleted = false;
+            while (true) {
+                boolean eof = in.isEOF();
+                ByteBuffer next = eof ? null : ByteBufferUtil.readWithShortLength(in);
+                long nextPosition = eof ? dataLength : in.readUnsignedVInt();
+                if (key != null) {
+                    visitor.partition(key, nextPosition - position, blocks, deleted);
+                }
+                if (eof)
+                    break;
+                key = next;
+                position = nextPosition;
+                blocks = 0;
+                deleted = false;
+                int promotedSize = (int) in.readUnsignedVInt();
+                if (promotedSize > 0) {
+                    long start = in.getFilePointer();
+                    in.readUnsignedVInt(); // header length
+                    deleted = !DeletionTime.serializer.deserialize(in).isLive();
+                    blocks = (int) in.readUnsignedVInt();
+                    in.skipBytesFully((int) (promotedSize - (in.getFilePointer() - start)));
+                }
+            }
+            return in.getFilePointer();
+        }
+    }
+
+    Result read(File sstable) throws IOException {
+        Result result = new Result(count);
+        MinMaxPriorityQueue<Partition> largest = result.largest;
+        result.indexBytes = walkIndex(sstable, (key, size, blocks, deleted) -> {
+            result.partitions++;
+            if (largest.size() < count || size > largest.peekLast().size) {
+                largest.add(new Partition(key, sstable, size, blocks, deleted));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads every Index.db on a pool of threads.
+     *
+     * @return the largest partitions, largest first
+     */
+    public List<Partition> run() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sstables.size())),
+                new NamedThreadFactory("LargePartitions"));
+        MinMaxPriorityQueue<Partition> largest = MinMaxPriorityQueue.orderedBy(SIZE_ORDER).maximumSize(count).create();
+        try {
+            List<Future<Result>> results = Lists.newArrayList();
+            for (File sstable : sstables) {
+                results.add(pool.submit(() -> read(sstable)));
+            }
+            for (Future<Result> future : results) {
+                Result result = future.get();
+                largest.addAll(result.largest);
+                partitions += result.partitions;
+                indexBytes += result.indexBytes;
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
+        }
+        return largest.stream().sorted(SIZE_ORDER).collect(Collectors.toList());
+    }
+
+    public void print(List<Partition> largest, PrintStream out, boolean color) {
+        String c = color ? ANSI_BLUE : "";
+        String s = color ? ANSI_CYAN : "";
+        String r = color ? ANSI_RESET : "";
+        List<String> keys = largest.stream().map(p -> metadata.getKeyValidator().getString(p.key)).collect(Collectors.toList());
+        int width = Math.max(3, keys.stream().mapToInt(String::length).max().orElse(0));
+        out.printf("   %s%-22s %s|%s %12s %s|%s %-7s %s|%s %-" + width + "s %s|%s SSTable%s%n", c, "Size (bytes)", s, c,
+                "Index Blocks", s, c, "Deleted", s, c, "Key", s, c, r);
+        out.printf("%s%s%s%n", s, Strings.repeat("-", 3 + 22 + 3 + 12 + 3 + 7 + 3 + width + 3 + 7), r);
+        for (int i = 0; i < largest.size(); i++) {
+            Partition p = largest.get(i);
+            String size = String.format("%d %s", p.size, CassandraUtils.toByteString(p.size, true, color));
+            out.printf("   %-" + (22 + TerminalUtils.countANSI(size)) + "s %s|%s %12d %s|%s %-7s %s|%s %-" + width + "s %s|%s %s%n",
+                    size, s, r, p.indexBlocks, s, r, p.deleted, s, r, keys.get(i), s, r, p.sstable.getName());
+        }
+        out.printf("%n%d largest of %d partitions in %d sstables, %d bytes %s of Index.db read%n",
+                largest.size(), partitions, sstables.size(), indexBytes, CassandraUtils.toByteString(indexBytes, true, color));
+    }
+
+    public void write(List<Partition> largest, OutputWriter.Format format, Writer out) throws IOException {
+        OutputWriter writer = OutputWriter.forColumns(format, out, COLUMNS);
+        writer.writeHeader();
+        for (Partition p : largest) {
+            writer.writeStrings(Long.toString(p.size), Integer.toString(p.indexBlocks), Boolean.toString(p.deleted),
+                    metadata.getKeyValidator().getString(p.key), p.sstable.getAbsolutePath());
+        }
+        out.flush();
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+            if (cmd.getArgs().length == 0) {
+                throw new ParseException("No sstables given");
+            }
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "large-partitions sstable|directory|glob [...]",
+                        String.format("%nLists the largest partitions using Index.db only%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        String schemaPath = cmd.getOptionValue(SCHEMA_OPTION);
+        if (schemaPath != null) {
+            System.setProperty("sstabletools.schema", schemaPath);
+        }
+
+        try {
+            List<File> sstables = Lists.newArrayList();
+            for (String path : cmd.getArgs()) {
+                sstables.addAll(CassandraUtils.sstablesFromPath(path));
+            }
+            if (sstables.isEmpty()) {
+                System.err.println("No sstables found in " + String.join(", ", cmd.getArgs()));
+                System.exit(-3);
+            }
+            CFMetaData metadata = CassandraUtils.tableFromBestSource(sstables.get(0));
+            int count = Integer.parseInt(cmd.getOptionValue(COUNT_OPTION, "20"));
+            int threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION,
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            LargePartitions large = new LargePartitions(sstables, metadata, count, threads);
+            List<Partition> largest = large.run();
+            if (cmd.hasOption(OUTPUT_OPTION)) {
+                large.write(largest, OutputWriter.Format.parse(cmd.getOptionValue(OUTPUT_OPTION)), OutputWriter.open(null));
+            } else {
+                large.print(largest, System.out, true);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.Json;
+import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.transport.ProtocolVersion;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Writes rows as JSON lines, CSV or TSV without any ANSI decoration, for piping sstable contents into other systems.
+ * How each column is encoded is resolved once when the writer is created, and rows go through a large buffered writer
+ * that is left to the caller to flush.
+ */
+public class OutputWriter {
+
+    public enum Format {
+        JSON, CSV, TSV;
+
+        public static Format parse(String format) {
+            try {
+                return valueOf(format.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown output format '" + format + "', expected json, csv or tsv");
+            }
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Format format;
+
+    private final Writer out;
+
+    private final String[] names;
+
+    private final List<Function<ByteBuffer, String>> encoders;
+
+    private boolean header;
+
+    private boolean rawJson = false;
+
+    private OutputWriter(Format format, Writer out, List<String> columns, List<Function<ByteBuffer, String>> encoders) {
+        this.format = format;
+        this.out = out;
+        this.names = new String[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = format == Format.JSON ? quote(columns.get(i)) : encode(columns.get(i));
+        }
+        this.encoders = encoders;
+        this.header = format != Format.JSON;
+    }
+
+    /**
+     * Writer for rows of plain string values, such as the lines of a DUMP.
+     */
+    public static OutputWriter forColumns(Format format, Writer out, List<String> columns) {
+        return new OutputWriter(format, out, columns, null);
+    }
+
+    /**
+     * Writer for query result rows, encoding each value according to the type of its column. The JSON objects of a
+     * SELECT JSON are written as they are when writing JSON.
+     */
+    public static OutputWriter forResult(Format format, Writer out, ResultSet.ResultMetadata metadata) {
+        List<String> columns = new ArrayList<>(metadata.names.size());
+        List<Function<ByteBuffer, String>> encoders = new ArrayList<>(metadata.names.size());
+        for (int i = 0; i < metadata.names.size(); i++) {
+            ColumnSpecification spec = metadata.names.get(i);
+            columns.add(spec.name.toString());
+            if (format == Format.JSON) {
+                AbstractType<?> type = spec.type;
+                // collection types read the value from the buffer itself
+                encoders.add(v -> v == null ? "null" : type.toJSONString(v.duplicate(), ProtocolVersion.CURRENT));
+            } else {
+                Function<ByteBuffer, String> formatter = TableTransformer.formatter(metadata, i, false);
+                encoders.add(v -> v == null ? "" : encode(format, formatter.apply(v)));
+            }
+        }
+        OutputWriter writer = new OutputWriter(format, out, columns, encoders);
+        writer.rawJson = format == Format.JSON && metadata.names.size() == 1
+                && Json.JSON_COLUMN_ID.equals(metadata.names.get(0).name);
+        return writer;
+    }
+
+    /**
+     * A large buffered writer to the file, or to stdout if the path is null.
+     */
+    public static Writer open(String path) throws IOException {
+        OutputStream stream = path == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(path);
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public void writeRow(List<ByteBuffer> row) throws IOException {
+        if (rawJson) {
+            out.write(row.get(0) == null ? "null" : UTF8Type.instance.getString(row.get(0)));
+            out.write('\n');
+            return;
+        }
+        writeHeader();
+        beginRow();
+        for (int i = 0; i < names.length; i++) {
+            writeValue(i, encoders.get(i).apply(row.get(i)));
+        }
+        endRow();
+    }
+
+    public void writeStrings(String... values) throws IOException {
+        writeHeader();
+        beginRow();
+        for (int i = 0; i < names.length; i++) {
+            String value = values[i];
+            if (value == null) {
+                writeValue(i, format == Format.JSON ? "null" : "");
+            } else {
+                writeValue(i, format == Format.JSON ? quote(value) : encode(value));
+            }
+        }
+        endRow();
+    }
+
+    /**
+     * Leaves out the CSV/TSV header line, for writers of chunks that follow one that has it.
+     */
+    public OutputWriter withoutHeader() {
+        header = false;
+        return this;
+    }
+
+    /**
+     * Writes the CSV/TSV header line unless it was already written, rows do so on their own.
+     */
+    public void writeHeader() throws IOException {
+        if (header) {
+            header = false;
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    out.write(format == Format.CSV ? ',' : '\t');
+                }
+                out.write(names[i]);
+            }
+            out.write('\n');
+        }
+    }
+
+    private void beginRow() throws IOException {
+        if (format == Format.JSON) {
+            out.write('{');
+        }
+    }
+
+    private void writeValue(int i, String value) throws IOException {
+        if (format == Format.JSON) {
+            if (i > 0) {
+                out.write(", ");
+            }
+            out.write(names[i]);
+            out.write(": ");
+        } else if (i > 0) {
+            out.write(format == Format.CSV ? ',' : '\t');
+        }
+        out.write(value);
+    }
+
+    private void endRow() throws IOException {
+        if (format == Format.JSON) {
+            out.write('}');
+        }
+        out.write('\n');
+    }
+
+    private static String quote(String value) {
+        return '"' + Json.quoteAsJsonString(value) + '"';
+    }
+
+    private String encode(String value) {
+        return encode(format, value);
+    }
+
+    /**
+     * Quotes a CSV field when it contains a separator, quote or line break, and escapes tabs, line breaks and
+     * backslashes in a TSV field.
+     */
+    private static String encode(Format format, String value) {
+        if (format == Format.CSV) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return '"' + value.replace("\"", "\"\"") + '"';
+                }
+            }
+            return value;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r' || c == '\\') {
+                return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+            }
+        }
+        return value;
+    }
+}
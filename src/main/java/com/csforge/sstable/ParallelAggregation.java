@@ -0,0 +1,341 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.CQL3Type;
+import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.cql3.functions.AggregateFunction;
+import org.apache.cassandra.cql3.functions.FunctionName;
+import org.apache.cassandra.cql3.selection.RawSelector;
+import org.apache.cassandra.cql3.selection.Selectable;
+import org.apache.cassandra.cql3.selection.Selection;
+import org.apache.cassandra.db.DataRange;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.filter.ClusteringIndexFilter;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.ByteType;
+import org.apache.cassandra.db.marshal.CounterColumnType;
+import org.apache.cassandra.db.marshal.DecimalType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.IntegerType;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.ShortType;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterators;
+import org.apache.cassandra.db.rows.RowIterator;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.transport.ProtocolVersion;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the aggregates of a query per token sub-range on worker threads and combines the partial results.
+ * <p/>
+ * GROUP BY groups never span partitions and {@link TokenRanges#split} only splits between partitions, so the groups of
+ * each range are concatenated in token order. Without GROUP BY,
+ * count, sum, min and max are re-aggregated over the partial values and avg is computed from a partial sum and count.
+ * Queries selecting anything else fall back to the single threaded aggregation.
+ */
+public class ParallelAggregation {
+
+    private static final int RANGES_PER_THREAD = 4;
+
+    private enum Kind {
+        COUNT, REAGGREGATE, AVG
+    }
+
+    /**
+     * How one output column is computed from the columns of the partial rows.
+     */
+    private static class Column {
+        final Kind kind;
+        final AggregateFunction function;
+        final int value;
+        final int count;
+
+        Column(Kind kind, AggregateFunction function, int value, int count) {
+            this.kind = kind;
+            this.function = function;
+            this.value = value;
+            this.count = count;
+        }
+    }
+
+    private final Query query;
+
+    private final Query partial;
+
+    private final List<Column> columns;
+
+    private ParallelAggregation(Query query, Query partial, List<Column> columns) {
+        this.query = query;
+        this.partial = partial;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the parallel plan for the query, or null if it is not an aggregate over a key range, parallelism is
+     * disabled, or it selects something that cannot be combined from partial results.
+     */
+    public static ParallelAggregation forQuery(Query query, int parallelism) {
+        if (parallelism <= 1 || !query.selection.isAggregate() || !query.restrictions.isKeyRange()
+                || query.statement.parameters.isDistinct || query.isIndexOnly()) {
+            return null;
+        }
+        if (!query.statement.parameters.groups.isEmpty()) {
+            return new ParallelAggregation(query, query, null);
+        }
+
+        List<Selectable> selectables = RawSelector.toSelectables(query.statement.selectClause, query.cfm);
+        List<RawSelector> partialSelectors = Lists.newArrayList();
+        List<Column> columns = Lists.newArrayListWithCapacity(selectables.size());
+        for (Selectable selectable : selectables) {
+            if (!(selectable instanceof Selectable.WithFunction)) {
+                return null;
+            }
+            Selectable.WithFunction fn = (Selectable.WithFunction) selectable;
+            if (!fn.function.isNative() || !fn.function.isAggregate() || fn.args.size() > 1) {
+                return null;
+            }
+            if (fn.args.size() == 1 && !(fn.args.get(0) instanceof ColumnDefinition)) {
+                return null;
+            }
+            AggregateFunction function = (AggregateFunction) fn.function;
+            int index = partialSelectors.size();
+            switch (function.name().name.toLowerCase()) {
+                case "countrows":
+                    partialSelectors.add(new RawSelector(Selectable.WithFunction.Raw.newCountRowsFunction(), null));
+                    columns.add(new Column(Kind.COUNT, function, index, -1));
+                    break;
+                case "count":
+                    partialSelectors.add(new RawSelector(call(function, argument(fn, null)), null));
+                    columns.add(new Column(Kind.COUNT, function, index, -1));
+                    break;
+                case "sum":
+                case "min":
+                case "max":
+                    partialSelectors.add(new RawSelector(call(function, argument(fn, null)), null));
+                    columns.add(new Column(Kind.REAGGREGATE, function, index, -1));
+                    break;
+                case "avg":
+                    CQL3Type.Native sumType = sumType(function.returnType());
+                    if (sumType == null) {
+                        return null;
+                    }
+                    partialSelectors.add(new RawSelector(new Selectable.WithFunction.Raw(
+                            FunctionName.nativeFunction("sum"),
+                            Collections.singletonList(argument(fn, sumType))), null));
+                    partialSelectors.add(new RawSelector(new Selectable.WithFunction.Raw(
+                            FunctionName.nativeFunction("count"),
+                            Collections.singletonList(argument(fn, null))), null));
+                    columns.add(new Column(Kind.AVG, function, index, index + 1));
+                    break;
+                default:
+                    return null;
+            }
+        }
+        try {
+            Selection selection = Selection.fromSelectors(query.cfm, partialSelectors, query.boundNames, false);
+            return new ParallelAggregation(query, query.withSelection(selection, query.aggregationSpec), columns);
+        } catch (InvalidRequestException e) {
+            // i.e. no cast for the column type, aggregate on a single thread instead
+            return null;
+        }
+    }
+
+    private static Selectable.Raw call(AggregateFunction function, Selectable.Raw argument) {
+        return new Selectable.WithFunction.Raw(function.name(), Collections.singletonList(argument));
+    }
+
+    private static Selectable.Raw argument(Selectable.WithFunction fn, CQL3Type.Native cast) {
+        ColumnDefinition def = (ColumnDefinition) fn.args.get(0);
+        Selectable.Raw raw = ColumnDefinition.Raw.forColumn(def);
+        return cast == null || def.type.equals(cast.getType()) ? raw : new Selectable.WithCast.Raw(raw, cast);
+    }
+
+    /**
+     * Type the partial sums of an average are computed in, wide enough that they can be combined without overflow.
+     */
+    private static CQL3Type.Native sumType(AbstractType<?> type) {
+        if (type instanceof FloatType || type instanceof DoubleType) {
+            return CQL3Type.Native.DOUBLE;
+        }
+        if (type instanceof DecimalType) {
+            return CQL3Type.Native.DECIMAL;
+        }
+        if (type instanceof ByteType || type instanceof ShortType || type instanceof Int32Type
+                || type instanceof LongType || type instanceof CounterColumnType || type instanceof IntegerType) {
+            return CQL3Type.Native.VARINT;
+        }
+        return null;
+    }
+
+    public ResultSetData execute(QueryExecution execution) throws IOException {
+        long start = System.nanoTime();
+        query.checkBound();
+        int now = FBUtilities.nowInSeconds();
+        AbstractBounds<PartitionPosition> bounds = query.restrictions.getPartitionKeyBounds(query.options);
+        ClusteringIndexFilter filter = query.makeClusteringIndexFilter();
+
+        List<Pair<ResultSet, Integer>> partials = Lists.newArrayList();
+        List<SSTableReader> readers = query.acquireReaders(bounds, filter, execution);
+        try {
+            int parallelism = execution.getParallelism();
+            List<AbstractBounds<PartitionPosition>> ranges = TokenRanges.split(bounds, readers, query.cfm.partitioner,
+                    parallelism * RANGES_PER_THREAD);
+            execution.split(ranges.size());
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, ranges.size()),
+                    new NamedThreadFactory("ParallelAggregation"));
+            List<Future<Pair<ResultSet, Integer>>> futures = Lists.newArrayListWithCapacity(ranges.size());
+            try {
+                for (AbstractBounds<PartitionPosition> range : ranges) {
+                    futures.add(executor.submit(() -> aggregate(readers, new DataRange(range, filter), now, execution.getTrace())));
+                }
+            } finally {
+                executor.shutdown();
+            }
+            // wait on every range before handing the readers back, even if one of them failed
+            Throwable failure = null;
+            for (Future<Pair<ResultSet, Integer>> future : futures) {
+                try {
+                    partials.add(future.get());
+                } catch (ExecutionException e) {
+                    failure = failure == null ? e.getCause() : failure;
+                } catch (InterruptedException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw new RuntimeException(failure);
+            }
+        } finally {
+            SSTableReaderPool.instance.releaseAll(readers);
+            if (execution.getTrace() != null) {
+                execution.getTrace().phase("scan", start);
+            }
+        }
+
+        int rowCount = 0;
+        for (Pair<ResultSet, Integer> p : partials) {
+            rowCount += p.right;
+        }
+        return new ResultSetData(combine(partials), new PagingData(null, null, rowCount));
+    }
+
+    private Pair<ResultSet, Integer> aggregate(List<SSTableReader> readers, DataRange range, int now, QueryTrace trace) {
+        Selection.ResultSetBuilder result = partial.selection.resultSetBuilder(partial.options,
+                columns == null && partial.statement.parameters.isJson, partial.aggregationSpec);
+        AtomicInteger rows = new AtomicInteger(0);
+        try (PartitionIterator partitions = UnfilteredPartitionIterators.filter(partial.scan(readers, range, now, trace), now)) {
+            while (partitions.hasNext()) {
+                try (RowIterator partition = partitions.next()) {
+                    partial.processPartition(partition, partial.options, result, now, Integer.MAX_VALUE, rows);
+                }
+            }
+        }
+        return Pair.create(result.build(), rows.get());
+    }
+
+    private ResultSet combine(List<Pair<ResultSet, Integer>> partials) {
+        boolean json = query.statement.parameters.isJson;
+        if (columns == null) {
+            List<List<ByteBuffer>> groups = Lists.newArrayList();
+            for (Pair<ResultSet, Integer> p : partials) {
+                groups.addAll(p.left.rows);
+            }
+            return new ResultSet(query.selection.getResultMetadata(json), groups);
+        }
+
+        ProtocolVersion protocolVersion = query.options.getProtocolVersion();
+        List<List<ByteBuffer>> rows = Lists.newArrayListWithCapacity(partials.size());
+        for (Pair<ResultSet, Integer> p : partials) {
+            rows.add(p.left.rows.get(0));
+        }
+        List<ByteBuffer> row = Lists.newArrayListWithCapacity(columns.size());
+        for (Column column : columns) {
+            switch (column.kind) {
+                case COUNT:
+                    long count = 0;
+                    for (List<ByteBuffer> r : rows) {
+                        count += LongType.instance.compose(r.get(column.value));
+                    }
+                    row.add(LongType.instance.decompose(count));
+                    break;
+                case REAGGREGATE:
+                    AggregateFunction.Aggregate aggregate = column.function.newAggregate();
+                    for (List<ByteBuffer> r : rows) {
+                        aggregate.addInput(protocolVersion, Collections.singletonList(r.get(column.value)));
+                    }
+                    row.add(aggregate.compute(protocolVersion));
+                    break;
+                case AVG:
+                    row.add(average(column.function.returnType(), rows, column));
+                    break;
+            }
+        }
+        if (json) {
+            row = Selection.rowToJson(row, protocolVersion, query.selection.getResultMetadata(false));
+        }
+        return new ResultSet(query.selection.getResultMetadata(json), Collections.singletonList(row));
+    }
+
+    /**
+     * Divides the combined sum by the count the same way the native avg functions do for the type.
+     */
+    private static ByteBuffer average(AbstractType<?> type, List<List<ByteBuffer>> rows, Column column) {
+        long count = 0;
+        for (List<ByteBuffer> r : rows) {
+            count += LongType.instance.compose(r.get(column.count));
+        }
+        if (type instanceof FloatType || type instanceof DoubleType) {
+            double sum = 0;
+            for (List<ByteBuffer> r : rows) {
+                sum += DoubleType.instance.compose(r.get(column.value));
+            }
+            double avg = count == 0 ? 0 : sum / count;
+            return type instanceof FloatType ? FloatType.instance.decompose((float) avg) : DoubleType.instance.decompose(avg);
+        }
+        if (type instanceof DecimalType) {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (List<ByteBuffer> r : rows) {
+                sum = sum.add(DecimalType.instance.compose(r.get(column.value)));
+            }
+            return DecimalType.instance.decompose(count == 0 ? BigDecimal.ZERO : sum.divide(BigDecimal.valueOf(count), RoundingMode.HALF_EVEN));
+        }
+        BigInteger sum = BigInteger.ZERO;
+        for (List<ByteBuffer> r : rows) {
+            sum = sum.add(IntegerType.instance.compose(r.get(column.value)));
+        }
+        BigInteger avg = count == 0 ? BigInteger.ZERO : sum.divide(BigInteger.valueOf(count));
+        if (type instanceof ByteType) {
+            return ByteType.instance.decompose(avg.byteValue());
+        } else if (type instanceof ShortType) {
+            return ShortType.instance.decompose(avg.shortValue());
+        } else if (type instanceof Int32Type) {
+            return Int32Type.instance.decompose(avg.intValue());
+        } else if (type instanceof IntegerType) {
+            return IntegerType.instance.decompose(avg);
+        }
+        return LongType.instance.decompose(avg.longValue());
+    }
+}
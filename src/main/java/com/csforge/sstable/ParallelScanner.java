@@ -0,0 +1,147 @@
+package com.csforge.sstable;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.DataRange;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Scans token sub-ranges on a pool of worker threads and returns their partitions in token order.
+ * <p/>
+ * Each range is read by its own merged scanner and its partitions are materialized into a small bounded queue, so
+ * workers decompress and deserialize ahead of the consumer while at most QUEUE_DEPTH partitions per range are held in
+ * memory. Ranges are consumed in the order they were given, which must be token order.
+ */
+public class ParallelScanner implements UnfilteredPartitionIterator {
+
+    private static final int QUEUE_DEPTH = 32;
+
+    private static final Object END = new Object();
+
+    private final CFMetaData metadata;
+
+    private final ExecutorService executor;
+
+    private final List<BlockingQueue<Object>> queues;
+
+    private final List<Future<?>> futures;
+
+    private volatile boolean closed = false;
+
+    private int current = 0;
+
+    private UnfilteredRowIterator next = null;
+
+    /**
+     * @param ranges      the ranges to scan, in token order
+     * @param scanner     opens the scanner for a single range, called from the worker threads
+     * @param parallelism the number of worker threads
+     */
+    public ParallelScanner(CFMetaData metadata, List<DataRange> ranges,
+                           Function<DataRange, UnfilteredPartitionIterator> scanner, int parallelism) {
+        this.metadata = metadata;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, ranges.size())),
+                new NamedThreadFactory("ParallelScanner"));
+        this.queues = Lists.newArrayListWithCapacity(ranges.size());
+        this.futures = Lists.newArrayListWithCapacity(ranges.size());
+        for (DataRange range : ranges) {
+            BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+            queues.add(queue);
+            futures.add(executor.submit(() -> scan(range, scanner, queue)));
+        }
+        // tasks run in submission order, so the range being consumed always has a worker before any range after it
+        executor.shutdown();
+    }
+
+    private void scan(DataRange range, Function<DataRange, UnfilteredPartitionIterator> scanner, BlockingQueue<Object> queue) {
+        if (closed) {
+            return;
+        }
+        Object last = END;
+        try (UnfilteredPartitionIterator partitions = scanner.apply(range)) {
+            while (!closed && partitions.hasNext()) {
+                try (UnfilteredRowIterator partition = partitions.next()) {
+                    put(queue, ImmutableBTreePartition.create(partition));
+                }
+            }
+        } catch (Throwable t) {
+            last = t;
+        }
+        put(queue, last);
+    }
+
+    /**
+     * Blocks until there is room in the queue, giving up once the scanner is closed. Workers are never interrupted as
+     * that would close the file channels shared by every reader of the sstable.
+     */
+    private void put(BlockingQueue<Object> queue, Object item) {
+        try {
+            while (!closed && !queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isForThrift() {
+        return false;
+    }
+
+    public CFMetaData metadata() {
+        return metadata;
+    }
+
+    public boolean hasNext() {
+        while (next == null && current < queues.size()) {
+            Object item = Uninterruptibles.takeUninterruptibly(queues.get(current));
+            if (item == END) {
+                current++;
+            } else if (item instanceof Throwable) {
+                current = queues.size();
+                throw Throwables.propagate((Throwable) item);
+            } else {
+                next = ((ImmutableBTreePartition) item).unfilteredIterator();
+            }
+        }
+        return next != null;
+    }
+
+    public UnfilteredRowIterator next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        UnfilteredRowIterator ret = next;
+        next = null;
+        return ret;
+    }
+
+    public void close() {
+        closed = true;
+        for (BlockingQueue<Object> queue : queues) {
+            queue.clear();
+        }
+        for (Future<?> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                // failures are handed to the consumer through the queue
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.PartitionColumns;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.AbstractUnfilteredRowIterator;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.EncodingStats;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Rows;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.io.sstable.KeyIterator;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.utils.AbstractIterator;
+import org.apache.cassandra.utils.CloseableIterator;
+import org.apache.cassandra.utils.MergeIterator;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lists the partition keys within a range by walking the Index.db of every sstable and merging their keys, without
+ * reading Data.db at all. Each key is returned as a partition holding a single live row with no cells, which is enough
+ * for selections of partition key columns only.
+ * <p/>
+ * The index has no knowledge of deletions, so partitions whose data has all been deleted or has expired would be listed
+ * as well. It is only used when {@link #listsLiveKeysOnly} holds for every sstable read.
+ */
+public class PartitionKeyScanner implements UnfilteredPartitionIterator {
+
+    private final CFMetaData metadata;
+
+    private final List<BoundedKeyIterator> iterators;
+
+    private final MergeIterator<DecoratedKey, DecoratedKey> keys;
+
+    private final Row row;
+
+    /**
+     * True if every partition in the index of the reader has live data: its StatsMetadata shows no tombstones and no
+     * cells with a TTL.
+     */
+    public static boolean listsLiveKeysOnly(SSTableReader reader) {
+        StatsMetadata stats = reader.getSSTableMetadata();
+        return stats.estimatedTombstoneDropTime.getAsMap().isEmpty() && stats.minTTL == 0 && stats.maxTTL == 0;
+    }
+
+    /**
+     * @param trace records the bytes read from each index if not null
+     */
+    public PartitionKeyScanner(CFMetaData metadata, List<SSTableReader> readers, AbstractBounds<PartitionPosition> bounds,
+                               int nowInSec, QueryTrace trace) {
+        this.metadata = metadata;
+        this.iterators = Lists.newArrayListWithCapacity(readers.size());
+        for (SSTableReader reader : readers) {
+            iterators.add(new BoundedKeyIterator(reader, new KeyIterator(reader.descriptor, metadata), bounds, trace));
+        }
+        this.keys = MergeIterator.get(iterators, DecoratedKey::compareTo, new MergeIterator.Reducer<DecoratedKey, DecoratedKey>() {
+            private DecoratedKey key;
+
+            public void reduce(int idx, DecoratedKey current) {
+                key = current;
+            }
+
+            protected DecoratedKey getReduced() {
+                return key;
+            }
+        });
+        this.row = BTreeRow.noCellLiveRow(Clustering.EMPTY, LivenessInfo.create(LivenessInfo.NO_TIMESTAMP + 1, nowInSec));
+    }
+
+    public boolean isForThrift() {
+        return false;
+    }
+
+    public CFMetaData metadata() {
+        return metadata;
+    }
+
+    public boolean hasNext() {
+        return keys.hasNext();
+    }
+
+    public UnfilteredRowIterator next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return new AbstractUnfilteredRowIterator(metadata, keys.next(), DeletionTime.LIVE, PartitionColumns.NONE,
+                Rows.EMPTY_STATIC_ROW, false, EncodingStats.NO_STATS) {
+            private boolean done = false;
+
+            protected Unfiltered computeNext() {
+                if (done) {
+                    return endOfData();
+                }
+                done = true;
+                return row;
+            }
+        };
+    }
+
+    public void close() {
+        keys.close();
+    }
+
+    /**
+     * Keys of a single sstable within the bounds. Keys are read in token order, so reading stops at the first key past
+     * the right bound unless the bounds wrap.
+     */
+    private static class BoundedKeyIterator extends AbstractIterator<DecoratedKey> implements CloseableIterator<DecoratedKey> {
+        private final SSTableReader reader;
+        private final KeyIterator keys;
+        private final AbstractBounds<PartitionPosition> bounds;
+        private final boolean wraps;
+        private final QueryTrace trace;
+
+        BoundedKeyIterator(SSTableReader reader, KeyIterator keys, AbstractBounds<PartitionPosition> bounds, QueryTrace trace) {
+            this.reader = reader;
+            this.keys = keys;
+            this.trace = trace;
+            this.bounds = bounds;
+            this.wraps = !bounds.right.isMinimum() && bounds.left.compareTo(bounds.right) > 0;
+        }
+
+        protected DecoratedKey computeNext() {
+            while (keys.hasNext()) {
+                DecoratedKey key = keys.next();
+                if (bounds.contains(key)) {
+                    return key;
+                }
+                if (!wraps && !bounds.right.isMinimum() && key.compareTo(bounds.right) >= 0) {
+                    break;
+                }
+            }
+            return endOfData();
+        }
+
+        public void close() {
+            if (trace != null) {
+                trace.scanned(reader, keys.getBytesRead());
+            }
+            keys.close();
+        }
+    }
+}
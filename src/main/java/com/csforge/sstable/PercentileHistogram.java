@@ -0,0 +1,103 @@
+package com.csforge.sstable;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non negative longs in the manner of HdrHistogram: a value is counted in the bucket of its highest bit
+ * and the {@link #PRECISION_BITS} bits that follow it, so percentiles are within 1% of the recorded values whatever
+ * their range. Values below 2^PRECISION_BITS are exact. Memory is bounded by the largest value recorded, at most
+ * 7296 buckets, and histograms merge by adding their buckets.
+ * <p/>
+ * Not thread safe, record on one thread and merge the results.
+ */
+public class PercentileHistogram {
+
+    static final int PRECISION_BITS = 7;
+
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+
+    private long[] buckets = new long[SUB_BUCKETS];
+
+    private long count = 0;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max = 0;
+
+    private double sum = 0;
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+        return ((shift + 1) << PRECISION_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Highest value counted in the bucket.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index >> PRECISION_BITS) - 1;
+        long lower = (long) ((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public void add(long value) {
+        if (value < 0)
+            value = 0;
+        int index = index(value);
+        if (index >= buckets.length)
+            buckets = Arrays.copyOf(buckets, Math.max(index + 1, Math.min(buckets.length * 2, index(Long.MAX_VALUE) + 1)));
+        buckets[index]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(PercentileHistogram other) {
+        if (other.buckets.length > buckets.length)
+            buckets = Arrays.copyOf(buckets, other.buckets.length);
+        for (int i = 0; i < other.buckets.length; i++)
+            buckets[i] += other.buckets[i];
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * The smallest recorded value, within the precision of the buckets, that at least the fraction q of the values are
+     * less than or equal to.
+     */
+    public long percentile(double q) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.max(min, Math.min(max, upperBound(i)));
+        }
+        return max;
+    }
+}
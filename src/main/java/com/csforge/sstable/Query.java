@@ -1,12 +1,15 @@
 package com.csforge.sstable;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Throwables;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.ColumnSpecification;
 import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.ResultSet;
 import org.apache.cassandra.cql3.VariableSpecifications;
 import org.apache.cassandra.cql3.restrictions.StatementRestrictions;
 import org.apache.cassandra.cql3.selection.Selection;
@@ -23,10 +26,12 @@ import org.apache.cassandra.db.partitions.UnfilteredPartitionIterators;
 import org.apache.cassandra.db.rows.ComplexColumnData;
 import org.apache.cassandra.db.rows.Row;
 import org.apache.cassandra.db.rows.RowIterator;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.WrappingUnfilteredRowIterator;
 import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.Bounds;
 import org.apache.cassandra.exceptions.InvalidRequestException;
-import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableReadsListener;
 import org.apache.cassandra.transport.ProtocolVersion;
@@ -39,6 +44,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.mockito.Mockito.mock;
@@ -50,6 +56,25 @@ public class Query {
 
     public static QueryOptions OPTIONS = QueryOptions.DEFAULT;
 
+    /**
+     * Number of threads used to scan partition key ranges, 1 scans on the calling thread.
+     */
+    public static volatile int parallelism = Integer.getInteger("sstabletools.parallelism", 1);
+
+    private static final int RANGES_PER_THREAD = 4;
+
+    /**
+     * Rows read per page when streaming results to a {@link RowConsumer}.
+     */
+    public static final int STREAM_BATCH = 1000;
+
+    /**
+     * Receives result rows one at a time as they are read.
+     */
+    public interface RowConsumer {
+        void accept(List<ByteBuffer> row) throws Exception;
+    }
+
     public final StatementRestrictions restrictions;
     public final SelectStatement.RawStatement statement;
     public final CFMetaData cfm;
@@ -57,25 +82,31 @@ public class Query {
     public final ColumnFilter queriedColumns;
     public AggregationSpecification aggregationSpec;
     public final Collection<File> path;
+    public final VariableSpecifications boundNames;
+    public final QueryOptions options;
+    public final WriteTimeFilter writeTimeFilter;
+    public final Comparator<List<ByteBuffer>> ordering;
 
     private static final SSTableReadsListener emptyReadListener = new SSTableReadsListener() {
     };
 
     public Query(String query, Collection<File> path, CFMetaData cfm) throws IllegalAccessException, NoSuchFieldException, IOException {
-        SelectStatement.RawStatement statement = (SelectStatement.RawStatement) QueryProcessor.parseStatement(query);
-        if (!statement.parameters.orderings.isEmpty()) {
-            throw new UnsupportedOperationException("ORDER BY not supported");
-        }
-        if (statement.parameters.isDistinct) {
-            throw new UnsupportedOperationException("DISTINCT not supported");
-        }
+        this(query, (SelectStatement.RawStatement) QueryProcessor.parseStatement(WriteTimeFilter.strip(query)), path, cfm);
+    }
+
+    /**
+     * @param statement the query already parsed, with its writetime relations stripped
+     */
+    public Query(String query, SelectStatement.RawStatement statement, Collection<File> path, CFMetaData cfm) throws IllegalAccessException, NoSuchFieldException, IOException {
+        this.writeTimeFilter = WriteTimeFilter.parse(query, cfm);
         this.path = path;
+        this.options = OPTIONS;
 
         VariableSpecifications boundNames = statement.getBoundVariables();
 
         Selection selection = statement.selectClause.isEmpty()
                 ? Selection.wildcard(cfm)
-                : Selection.fromSelectors(cfm, statement.selectClause, VariableSpecifications.empty(), !statement.parameters.groups.isEmpty());
+                : Selection.fromSelectors(cfm, statement.selectClause, boundNames, !statement.parameters.groups.isEmpty());
 
         // yes its unfortunate, im sorry
         StatementType type = mock(StatementType.class);
@@ -93,9 +124,22 @@ public class Query {
                 selection.containsAComplexColumn(),
                 true, true);
 
+        if (statement.parameters.isDistinct) {
+            try {
+                Method validateDistinctSelection = SelectStatement.RawStatement.class.getDeclaredMethod("validateDistinctSelection", CFMetaData.class, Selection.class, StatementRestrictions.class);
+                validateDistinctSelection.setAccessible(true);
+                validateDistinctSelection.invoke(null, cfm, selection, restrictions);
+            } catch (InvocationTargetException e) {
+                throw Throwables.propagate(e.getCause());
+            } catch (ReflectiveOperationException e) {
+                logger.error("Unable to validate DISTINCT selection", e);
+            }
+        }
+
         this.statement = statement;
         this.cfm = cfm;
         this.selection = selection;
+        this.boundNames = boundNames;
 
         ColumnFilter filter;
         if (selection.isWildcard()) {
@@ -106,6 +150,7 @@ public class Query {
             filter = builder.build();
         }
         this.queriedColumns = filter;
+        this.ordering = makeOrdering(statement, cfm, selection);
 
         try {
             // Make getAggregationSpecification public and invoke it..
@@ -118,7 +163,80 @@ public class Query {
         }
     }
 
-    private ClusteringIndexFilter makeClusteringIndexFilter()
+    private Query(Query prepared, QueryOptions options, Selection selection, AggregationSpecification aggregationSpec) {
+        this.restrictions = prepared.restrictions;
+        this.statement = prepared.statement;
+        this.cfm = prepared.cfm;
+        this.selection = selection;
+        this.queriedColumns = prepared.queriedColumns;
+        this.aggregationSpec = aggregationSpec;
+        this.path = prepared.path;
+        this.boundNames = prepared.boundNames;
+        this.writeTimeFilter = prepared.writeTimeFilter;
+        this.ordering = prepared.ordering;
+        this.options = options;
+    }
+
+    /**
+     * Compares result rows by the ORDER BY columns, which can be any selected column. Nulls sort first in
+     * ascending order and last in descending order.
+     */
+    private static Comparator<List<ByteBuffer>> makeOrdering(SelectStatement.RawStatement statement, CFMetaData cfm, Selection selection) {
+        if (statement.parameters.orderings.isEmpty()) {
+            return null;
+        }
+        if (selection.isAggregate() || statement.parameters.isJson) {
+            throw new InvalidRequestException("ORDER BY is not supported with aggregates or JSON");
+        }
+        List<ColumnSpecification> names = selection.getResultMetadata(false).names;
+        Comparator<List<ByteBuffer>> ordering = null;
+        for (Map.Entry<ColumnDefinition.Raw, Boolean> entry : statement.parameters.orderings.entrySet()) {
+            ColumnDefinition def = entry.getKey().prepare(cfm);
+            int index = -1;
+            for (int i = 0; i < names.size() && index < 0; i++) {
+                if (names.get(i).name.equals(def.name)) {
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                throw new InvalidRequestException("ORDER BY column " + def.name + " must be selected");
+            }
+            final int column = index;
+            Comparator<List<ByteBuffer>> comparator = (a, b) -> {
+                ByteBuffer x = a.get(column);
+                ByteBuffer y = b.get(column);
+                if (x == null || y == null) {
+                    return x == null ? (y == null ? 0 : -1) : 1;
+                }
+                return def.type.compare(x, y);
+            };
+            if (entry.getValue()) {
+                comparator = comparator.reversed();
+            }
+            ordering = ordering == null ? comparator : ordering.thenComparing(comparator);
+        }
+        return ordering;
+    }
+
+    /**
+     * Binds values to the ? markers of this query, sharing everything that was planned when it was prepared.
+     */
+    public Query bind(List<ByteBuffer> values) throws InvalidRequestException {
+        if (values.size() != boundNames.size()) {
+            throw new InvalidRequestException(String.format("There were %d markers(?) in CQL but %d bound variables",
+                    boundNames.size(), values.size()));
+        }
+        return new Query(this, QueryOptions.forInternalCalls(values), selection, aggregationSpec);
+    }
+
+    /**
+     * Same query with a different selection over the same (or a subset of the) queried columns.
+     */
+    Query withSelection(Selection selection, AggregationSpecification aggregationSpec) {
+        return new Query(this, options, selection, aggregationSpec);
+    }
+
+    ClusteringIndexFilter makeClusteringIndexFilter()
             throws InvalidRequestException {
         if (restrictions.isColumnRange()) {
             Slices slices = makeSlices();
@@ -127,7 +245,7 @@ public class Query {
 
             return new ClusteringIndexSliceFilter(slices, false);
         } else {
-            NavigableSet<Clustering> clusterings = restrictions.getClusteringColumns(OPTIONS);
+            NavigableSet<Clustering> clusterings = restrictions.getClusteringColumns(options);
             if (clusterings.isEmpty() && queriedColumns.fetchedColumns().statics.isEmpty())
                 return null;
 
@@ -137,8 +255,8 @@ public class Query {
 
     private Slices makeSlices()
             throws InvalidRequestException {
-        SortedSet<ClusteringBound> startBounds = restrictions.getClusteringColumnsBounds(Bound.START, OPTIONS);
-        SortedSet<ClusteringBound> endBounds = restrictions.getClusteringColumnsBounds(Bound.END, OPTIONS);
+        SortedSet<ClusteringBound> startBounds = restrictions.getClusteringColumnsBounds(Bound.START, options);
+        SortedSet<ClusteringBound> endBounds = restrictions.getClusteringColumnsBounds(Bound.END, options);
         assert startBounds.size() == endBounds.size();
 
         // The case where startBounds == 1 is common enough that it's worth optimizing
@@ -167,37 +285,146 @@ public class Query {
         return builder.build();
     }
 
+    /**
+     * The row limit of the statement, aggregates are never limited since LIMIT applies to their output.
+     */
+    public int getLimit() {
+        if (statement.limit == null || selection.isAggregate()) {
+            return Integer.MAX_VALUE;
+        }
+        return Integer.parseInt(statement.limit.getText());
+    }
+
+    /**
+     * Opens a cursor that reads the results page by page over a single scan.
+     */
+    public QueryCursor cursor() throws IOException {
+        return cursor(new QueryExecution());
+    }
+
+    public QueryCursor cursor(QueryExecution execution) throws IOException {
+        return new QueryCursor(this, execution);
+    }
+
+    /**
+     * Metadata of the rows returned by the query.
+     */
+    public ResultSet.ResultMetadata getResultMetadata() {
+        return selection.getResultMetadata(statement.parameters.isJson);
+    }
+
+    /**
+     * Hands every result row to the consumer as the scanner produces them. Unlike {@link #getResults()} the result is
+     * never materialized, at most {@link #STREAM_BATCH} rows are held at a time (plus the sort buffer with ORDER BY).
+     *
+     * @return the number of rows read
+     */
+    public int forEachRow(RowConsumer consumer) throws Exception {
+        return forEachRow(consumer, new QueryExecution());
+    }
+
+    public int forEachRow(RowConsumer consumer, QueryExecution execution) throws Exception {
+        try (QueryCursor cursor = cursor(execution)) {
+            while (cursor.hasMorePages()) {
+                for (List<ByteBuffer> row : cursor.nextPage(STREAM_BATCH).getResultSet().rows) {
+                    consumer.accept(row);
+                }
+            }
+            return cursor.getRowCount();
+        }
+    }
+
+    void checkBound() throws InvalidRequestException {
+        if (options.getValues().size() != boundNames.size()) {
+            throw new InvalidRequestException(String.format("Query has %d markers(?) but no values were bound", boundNames.size()));
+        }
+    }
+
+    /**
+     * True if the query only needs the partition keys, which are read from Index.db by a {@link PartitionKeyScanner}
+     * without reading any data. That is a DISTINCT, or any query on a table without clustering columns (where each
+     * partition is a single row, i.e. count(*)), that selects nothing but partition key columns and is not restricted
+     * by anything but the partition key range. The index is only used if none of the sstables read have tombstones or
+     * expiring cells, otherwise the query falls back to a scan of the data.
+     */
+    public boolean isIndexOnly() {
+        if (!(statement.parameters.isDistinct || cfm.clusteringColumns().isEmpty()) || !restrictions.isKeyRange()
+                || writeTimeFilter != null || !restrictions.getRowFilter(null, options).isEmpty()) {
+            return false;
+        }
+        for (ColumnDefinition def : selection.getColumns()) {
+            if (!def.isPartitionKey()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public UnfilteredPartitionIterator getScanner() throws IOException {
-        return getScanner(Integer.MAX_VALUE, new PagingData());
+        return getScanner(new QueryExecution());
+    }
+
+    public UnfilteredPartitionIterator getScanner(QueryExecution execution) throws IOException {
+        return getScanner(Integer.MAX_VALUE, new PagingData(), execution);
     }
 
-    public UnfilteredPartitionIterator getScanner(int pageSize, PagingData pagingData) throws IOException {
+    public UnfilteredPartitionIterator getScanner(int pageSize, PagingData pagingData, QueryExecution execution) throws IOException {
         Preconditions.checkNotNull(pagingData);
-        AbstractBounds<PartitionPosition> bounds = restrictions.getPartitionKeyBounds(OPTIONS);
-        DataRange range = new DataRange(bounds, makeClusteringIndexFilter());
+        checkBound();
+        AbstractBounds<PartitionPosition> bounds = restrictions.getPartitionKeyBounds(options);
+        ClusteringIndexFilter clusteringFilter = makeClusteringIndexFilter();
+        DataRange range = new DataRange(bounds, clusteringFilter);
+        boolean indexOnly = isIndexOnly();
         final DataRange pageRange;
-        if (pagingData.hasMorePages()) {
+        if (pagingData.hasMorePages() && (statement.parameters.isDistinct || indexOnly)) {
+            // there is a single row per partition, so resume after the last partition returned
+            bounds = AbstractBounds.bounds(pagingData.getPartitionKey(), false, bounds.right, bounds.inclusiveRight());
+            pageRange = new DataRange(bounds, clusteringFilter);
+        } else if (pagingData.hasMorePages()) {
             pageRange = range.forPaging(new Bounds<>(pagingData.getPartitionKey(), bounds.right),
                     cfm.comparator, pagingData.getClustering(), false);
         } else {
             pageRange = range;
         }
-        List<SSTableReader> readers = Lists.newArrayList();
-        for (File f : path) {
-            Descriptor desc = Descriptor.fromFilename(f.getAbsolutePath());
-            readers.add(SSTableReader.openNoValidation(desc, cfm));
-        }
+        List<SSTableReader> readers = acquireReaders(bounds, indexOnly ? null : clusteringFilter, execution);
+        indexOnly = indexOnly && readers.stream().allMatch(PartitionKeyScanner::listsLiveKeysOnly);
+        QueryTrace trace = execution.getTrace();
         int now = FBUtilities.nowInSeconds();
-        List<UnfilteredPartitionIterator> all = readers.stream()
-                .map(r -> r.getScanner(queriedColumns, pageRange, false, emptyReadListener))
-                .collect(Collectors.toList());
-        UnfilteredPartitionIterator ret = UnfilteredPartitionIterators.mergeLazily(all, now);
-        ret = restrictions.getRowFilter(null, OPTIONS).filter(ret, now);
-        if (statement.limit != null && !selection.isAggregate()) {
-            int limit = Integer.parseInt(statement.limit.getText());
-            DataLimits limits = DataLimits.cqlLimits(limit);
+        UnfilteredPartitionIterator ret;
+        try {
+            List<AbstractBounds<PartitionPosition>> ranges = Collections.singletonList(bounds);
+            int parallelism = execution.getParallelism();
+            if (parallelism > 1 && restrictions.isKeyRange() && !pagingData.hasMorePages() && !indexOnly) {
+                ranges = TokenRanges.split(bounds, readers, cfm.partitioner, parallelism * RANGES_PER_THREAD);
+            }
+            execution.split(ranges.size());
+            if (ranges.size() > 1) {
+                List<DataRange> subRanges = ranges.stream()
+                        .map(b -> new DataRange(b, clusteringFilter))
+                        .collect(Collectors.toList());
+                ret = new ParallelScanner(cfm, subRanges, r -> scan(readers, r, now, trace), parallelism);
+            } else if (indexOnly) {
+                ret = new PartitionKeyScanner(cfm, readers, bounds, now, trace);
+                if (trace != null) {
+                    ret = trace.count(trace.count(ret, false), true);
+                }
+            } else {
+                ret = scan(readers, pageRange, now, trace);
+            }
+        } catch (RuntimeException e) {
+            SSTableReaderPool.instance.releaseAll(readers);
+            throw e;
+        }
+        ret = new PooledScanner(ret, readers, trace);
+        boolean distinct = statement.parameters.isDistinct;
+        if (distinct || (statement.limit != null && !selection.isAggregate() && ordering == null)) {
+            int limit = ordering == null ? getLimit() : DataLimits.NO_LIMIT;
+            if (distinct && pagingData.hasMorePages() && limit != DataLimits.NO_LIMIT) {
+                limit -= pagingData.getRowCount();
+            }
+            DataLimits limits = distinct ? DataLimits.distinctLimits(limit) : DataLimits.cqlLimits(limit);
             if (pageSize != Integer.MAX_VALUE) {
-                if (pagingData.hasMorePages()) {
+                if (pagingData.hasMorePages() && !distinct) {
                     limits = limits.forPaging(pageSize, pagingData.getPartitionKey().getKey(), limit - pagingData.getRowCount());
                 } else {
                     limits = limits.forPaging(pageSize);
@@ -208,26 +435,295 @@ public class Query {
         return ret;
     }
 
+    /**
+     * Acquires the readers of every sstable that may hold data for the query, dropping the ones that cannot by their
+     * first/last keys, bloom filters for partition key EQ/IN restrictions, min/max clustering values and min/max
+     * timestamps when restricted by writetime. The number of sstables pruned is recorded on the execution.
+     */
+    List<SSTableReader> acquireReaders(AbstractBounds<PartitionPosition> bounds, ClusteringIndexFilter clusteringFilter,
+                                       QueryExecution execution) throws IOException {
+        long start = System.nanoTime();
+        QueryTrace trace = execution.getTrace();
+        List<SSTableReader> readers = SSTableReaderPool.instance.acquireAll(path, cfm);
+        List<SSTableReader> pruned = new ArrayList<>(readers.size());
+        try {
+            List<DecoratedKey> keys = partitionKeys();
+            for (SSTableReader reader : readers) {
+                String skipped = skipReason(reader, keys, bounds, clusteringFilter);
+                if (skipped != null) {
+                    pruned.add(reader);
+                    if (trace != null) {
+                        trace.skipped(reader, skipped);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            SSTableReaderPool.instance.releaseAll(readers);
+            throw e;
+        }
+        readers.removeAll(pruned);
+        SSTableReaderPool.instance.releaseAll(pruned);
+        execution.pruned(readers.size() + pruned.size(), pruned.size());
+        if (!pruned.isEmpty()) {
+            logger.debug("Skipped {} of {} sstables", pruned.size(), readers.size() + pruned.size());
+        }
+        if (trace != null) {
+            trace.phase("open", start);
+        }
+        return readers;
+    }
+
+    private List<DecoratedKey> partitionKeys() {
+        if (restrictions.isKeyRange()) {
+            return null;
+        }
+        return restrictions.getPartitionKeys(options).stream().map(cfm::decorateKey).collect(Collectors.toList());
+    }
+
+    /**
+     * Why the sstable cannot hold data for the query, or null if it may.
+     */
+    private String skipReason(SSTableReader reader, List<DecoratedKey> keys, AbstractBounds<PartitionPosition> bounds,
+                              ClusteringIndexFilter clusteringFilter) {
+        if (keys != null ? !SSTablePruner.mayContainAny(reader, keys) : !SSTablePruner.mayIntersect(reader, bounds)) {
+            return keys != null ? "partition keys not in key range or bloom filter" : "outside partition key range";
+        }
+        if (!SSTablePruner.mayIncludeClusterings(reader, clusteringFilter, queriedColumns, cfm)) {
+            return "outside clustering range";
+        }
+        if (writeTimeFilter != null && !writeTimeFilter.mayInclude(reader)) {
+            return "outside write time window";
+        }
+        return null;
+    }
+
+    /**
+     * Describes how the query would be executed without executing it: the kind of scan, its bounds and filters and
+     * which sstables would be read or skipped.
+     */
+    public List<String> explain() throws IOException {
+        checkBound();
+        List<String> plan = new ArrayList<>();
+        AbstractBounds<PartitionPosition> bounds = restrictions.getPartitionKeyBounds(options);
+        ClusteringIndexFilter clusteringFilter = makeClusteringIndexFilter();
+        boolean indexOnly = isIndexOnly();
+        ClusteringIndexFilter pruningFilter = indexOnly ? null : clusteringFilter;
+        List<DecoratedKey> keys = partitionKeys();
+        List<SSTableReader> readers = SSTableReaderPool.instance.acquireAll(path, cfm);
+        try {
+            List<SSTableReader> read = new ArrayList<>();
+            List<String> sstables = new ArrayList<>();
+            for (SSTableReader reader : readers) {
+                String skipped = skipReason(reader, keys, bounds, pruningFilter);
+                if (skipped == null) {
+                    read.add(reader);
+                    indexOnly = indexOnly && PartitionKeyScanner.listsLiveKeysOnly(reader);
+                    sstables.add(String.format("  %s read (%s)", reader.descriptor.baseFilename(),
+                            FBUtilities.prettyPrintMemory(reader.onDiskLength())));
+                } else {
+                    sstables.add(String.format("  %s skipped (%s)", reader.descriptor.baseFilename(), skipped));
+                }
+            }
+
+            int ranges = 1;
+            if (parallelism > 1 && restrictions.isKeyRange() && !indexOnly) {
+                ranges = TokenRanges.split(bounds, read, cfm.partitioner, parallelism * RANGES_PER_THREAD).size();
+            }
+            if (indexOnly) {
+                plan.add("Partition key scan of Index.db, no data read");
+            } else if (keys != null) {
+                plan.add(String.format("Point lookup of %d partition(s)", keys.size()));
+            } else if (ranges > 1) {
+                plan.add(String.format("Range scan split into %d token ranges over %d threads", ranges, parallelism));
+            } else {
+                plan.add("Range scan");
+            }
+            if (selection.isAggregate()) {
+                plan.add(ParallelAggregation.forQuery(this, parallelism) != null
+                        ? String.format("Aggregation: partial aggregates over %d threads", parallelism)
+                        : "Aggregation: on the calling thread");
+            }
+            plan.add("Partition bounds: " + bounds);
+            if (!indexOnly) {
+                plan.add("Clustering filter: " + clusteringFilter.toString(cfm));
+            }
+            RowFilter rowFilter = restrictions.getRowFilter(null, options);
+            if (!rowFilter.isEmpty()) {
+                plan.add("Row filter: " + rowFilter);
+            }
+            if (writeTimeFilter != null) {
+                plan.add("Write time filter: " + writeTimeFilter);
+            }
+            if (ordering != null) {
+                plan.add(String.format("Order by: external sort of the result (%s buffer)",
+                        FBUtilities.prettyPrintMemory(ExternalSorter.DEFAULT_BUFFER)));
+            }
+            if (getLimit() != Integer.MAX_VALUE) {
+                plan.add("Limit: " + getLimit());
+            }
+            plan.add(String.format("SSTables: %d of %d read", read.size(), readers.size()));
+            plan.addAll(sstables);
+        } finally {
+            SSTableReaderPool.instance.releaseAll(readers);
+        }
+        return plan;
+    }
+
+    /**
+     * Merges the scanners of every reader over the range and applies the row filter.
+     *
+     * @param trace records the sstables read and the partitions and rows read and matched if not null
+     */
+    UnfilteredPartitionIterator scan(List<SSTableReader> readers, DataRange range, int now, QueryTrace trace) {
+        if (readers.isEmpty()) {
+            return EmptyIterators.unfilteredPartition(cfm, false);
+        }
+        if (trace == null) {
+            List<UnfilteredPartitionIterator> all = readers.stream()
+                    .map(r -> r.getScanner(queriedColumns, range, false, emptyReadListener))
+                    .collect(Collectors.toList());
+            return filter(UnfilteredPartitionIterators.mergeLazily(all, now), now);
+        }
+        List<UnfilteredPartitionIterator> all = readers.stream()
+                .map(r -> trace.scanner(r, r.getScanner(queriedColumns, range, false, trace.listener())))
+                .collect(Collectors.toList());
+        UnfilteredPartitionIterator merged = trace.count(UnfilteredPartitionIterators.mergeLazily(all, now), false);
+        return trace.count(filter(merged, now), true);
+    }
+
+    private UnfilteredPartitionIterator filter(UnfilteredPartitionIterator partitions, int now) {
+        partitions = restrictions.getRowFilter(null, options).filter(partitions, now);
+        return writeTimeFilter == null ? partitions : writeTimeFilter.filter(partitions);
+    }
+
+    /**
+     * Hands the readers backing a scanner back to the pool once the scanner itself has been closed, and records the time
+     * spent in it when traced.
+     */
+    static class PooledScanner implements UnfilteredPartitionIterator {
+        private final UnfilteredPartitionIterator scanner;
+        private final List<SSTableReader> readers;
+        private final QueryTrace trace;
+        // time spent in the scanner, not counting the time between pages the consumer spends elsewhere
+        private final AtomicLong busy = new AtomicLong();
+
+        PooledScanner(UnfilteredPartitionIterator scanner, List<SSTableReader> readers, QueryTrace trace) {
+            this.scanner = scanner;
+            this.readers = readers;
+            this.trace = trace;
+        }
+
+        public boolean isForThrift() {
+            return scanner.isForThrift();
+        }
+
+        public CFMetaData metadata() {
+            return scanner.metadata();
+        }
+
+        public boolean hasNext() {
+            if (trace == null) {
+                return scanner.hasNext();
+            }
+            long start = System.nanoTime();
+            try {
+                return scanner.hasNext();
+            } finally {
+                busy.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        public UnfilteredRowIterator next() {
+            if (trace == null) {
+                return scanner.next();
+            }
+            long start = System.nanoTime();
+            try {
+                return new TimedPartition(scanner.next());
+            } finally {
+                busy.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        public void close() {
+            try {
+                scanner.close();
+            } finally {
+                SSTableReaderPool.instance.releaseAll(readers);
+                if (trace != null) {
+                    trace.elapsed("scan", busy.get());
+                }
+            }
+        }
+
+        /**
+         * Rows are read from the sstables as the partition is iterated, so that is timed as well.
+         */
+        private class TimedPartition extends WrappingUnfilteredRowIterator {
+            TimedPartition(UnfilteredRowIterator wrapped) {
+                super(wrapped);
+            }
+
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                try {
+                    return super.hasNext();
+                } finally {
+                    busy.addAndGet(System.nanoTime() - start);
+                }
+            }
+
+            public Unfiltered next() {
+                long start = System.nanoTime();
+                try {
+                    return super.next();
+                } finally {
+                    busy.addAndGet(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
     public ResultSetData getResults() throws IOException {
         return getResults(Integer.MAX_VALUE);
     }
 
+    public ResultSetData getResults(QueryExecution execution) throws IOException {
+        return getResults(Integer.MAX_VALUE, new PagingData(), execution);
+    }
+
     public ResultSetData getResults(int pageSize) throws IOException {
         return getResults(pageSize, new PagingData());
     }
 
     public ResultSetData getResults(int pageSize, PagingData pagingData) throws IOException {
+        return getResults(pageSize, pagingData, new QueryExecution());
+    }
+
+    public ResultSetData getResults(int pageSize, PagingData pagingData, QueryExecution execution) throws IOException {
         Preconditions.checkNotNull(pagingData);
+        if (ordering != null) {
+            // sorted results cannot resume from a paging state, they are read in one page through a cursor
+            try (QueryCursor cursor = cursor(execution)) {
+                return cursor.nextPage(pageSize);
+            }
+        }
+        if (!pagingData.hasMorePages()) {
+            ParallelAggregation aggregation = ParallelAggregation.forQuery(this, execution.getParallelism());
+            if (aggregation != null) {
+                return aggregation.execute(execution);
+            }
+        }
         int now = FBUtilities.nowInSeconds();
 
-        Selection.ResultSetBuilder result = selection.resultSetBuilder(OPTIONS, statement.parameters.isJson, aggregationSpec);
-        try (UnfilteredPartitionIterator scanner = getScanner(pageSize, pagingData)) {
+        Selection.ResultSetBuilder result = selection.resultSetBuilder(options, statement.parameters.isJson, aggregationSpec);
+        try (UnfilteredPartitionIterator scanner = getScanner(pageSize, pagingData, execution)) {
             PartitionIterator partitions = UnfilteredPartitionIterators.filter(scanner, now);
             AtomicInteger rowsPaged = new AtomicInteger(0);
             Clustering newClustering = null;
             DecoratedKey newPartitionKey = null;
 
-            int limit = statement.limit != null && !selection.isAggregate() ? Integer.parseInt(statement.limit.getText()) : Integer.MAX_VALUE;
+            int limit = getLimit();
 
             int rowsThusFar = pagingData.getRowCount() + rowsPaged.get();
             while (rowsThusFar < limit && partitions.hasNext()) {
@@ -235,7 +731,7 @@ public class Query {
                     newPartitionKey = partition.partitionKey();
                     // Remaining is the min of how many the requested page size - how many pages
                     // - or - the limit minus rows read overall.
-                    newClustering = processPartition(partition, OPTIONS, result, now, Math.min(pageSize - rowsPaged.get(), limit - rowsThusFar), rowsPaged);
+                    newClustering = processPartition(partition, options, result, now, Math.min(pageSize - rowsPaged.get(), limit - rowsThusFar), rowsPaged);
                     rowsThusFar = pagingData.getRowCount() + rowsPaged.get();
                     if (newClustering != null) {
                         break;
@@ -0,0 +1,132 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.statements.SelectStatement;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bounded LRU cache of prepared {@link Query} plans keyed by CQL text, schema and the sstable set the statement reads,
+ * so repeated statements skip parsing, selection and restriction building. Queries with ? markers are cached once and
+ * bound per execution with {@link Query#bind(List)}.
+ * <p/>
+ * Statements are parsed and plans prepared outside of the cache's lock, concurrent lookups of a plan being prepared
+ * wait for it instead of preparing it again.
+ */
+public class QueryCache {
+
+    private static final String CAPACITY_PROPERTY = "sstabletools.plans.max";
+
+    public static final QueryCache instance = new QueryCache(Integer.getInteger(CAPACITY_PROPERTY, 256));
+
+    private final LinkedHashMap<String, SelectStatement.RawStatement> statements;
+
+    private final LinkedHashMap<List<Object>, Query> plans;
+
+    private final Map<List<Object>, CompletableFuture<Void>> loading = Maps.newHashMap();
+
+    public QueryCache(int capacity) {
+        this.statements = new LinkedHashMap<String, SelectStatement.RawStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, SelectStatement.RawStatement> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.plans = new LinkedHashMap<List<Object>, Query>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Query> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * The parsed statement of the CQL text, with its writetime relations stripped. Parsed on first use only, so the
+     * FROM clause of a repeated statement is resolved without parsing it again.
+     */
+    public SelectStatement.RawStatement statement(String cql) {
+        String key = cql.trim();
+        SelectStatement.RawStatement statement;
+        synchronized (this) {
+            statement = statements.get(key);
+        }
+        if (statement == null) {
+            statement = (SelectStatement.RawStatement) QueryProcessor.parseStatement(WriteTimeFilter.strip(key));
+            synchronized (this) {
+                statements.put(key, statement);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the cached plan for the statement or prepares it with the loader. Plans that could not be prepared
+     * (loader returned null) are not cached.
+     */
+    public Query get(String cql, String schema, Collection<File> sstables, Callable<Query> loader) throws Exception {
+        ImmutableSortedSet.Builder<String> paths = ImmutableSortedSet.naturalOrder();
+        for (File f : sstables) {
+            paths.add(f.getAbsolutePath());
+        }
+        List<Object> key = Arrays.asList(cql.trim(), schema, paths.build());
+        while (true) {
+            CompletableFuture<Void> loaded;
+            synchronized (this) {
+                Query query = plans.get(key);
+                if (query != null) {
+                    return query;
+                }
+                loaded = loading.get(key);
+                if (loaded == null) {
+                    loading.put(key, new CompletableFuture<>());
+                }
+            }
+            if (loaded == null) {
+                return load(key, loader);
+            }
+            try {
+                // once prepared the plan is cached, a failed or empty load is retried by this lookup
+                loaded.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (ExecutionException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private Query load(List<Object> key, Callable<Query> loader) throws Exception {
+        Query query = null;
+        try {
+            query = loader.call();
+        } finally {
+            CompletableFuture<Void> loaded;
+            synchronized (this) {
+                loaded = loading.remove(key);
+                if (query != null) {
+                    plans.put(key, query);
+                }
+            }
+            loaded.complete(null);
+        }
+        return query;
+    }
+
+    public synchronized void clear() {
+        statements.clear();
+        plans.clear();
+    }
+
+    public synchronized int size() {
+        return plans.size();
+    }
+}
@@ -0,0 +1,171 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.cql3.selection.Selection;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterators;
+import org.apache.cassandra.db.rows.RowIterator;
+import org.apache.cassandra.utils.FBUtilities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the merged scanner of a {@link Query} open between pages so each page resumes where the previous one stopped,
+ * instead of re-planning the query and seeking past everything already returned.
+ */
+public class QueryCursor implements AutoCloseable {
+
+    private final Query query;
+
+    private final QueryExecution execution;
+
+    private final UnfilteredPartitionIterator scanner;
+
+    private final PartitionIterator partitions;
+
+    private final int nowInSec;
+
+    private final int limit;
+
+    private ParallelAggregation aggregation;
+
+    private RowIterator current = null;
+
+    private ExternalSorter sorter;
+
+    private Iterator<List<ByteBuffer>> sorted;
+
+    private int rowCount = 0;
+
+    private static final int SORT_BATCH = 1000;
+
+    QueryCursor(Query query, QueryExecution execution) throws IOException {
+        this.query = query;
+        this.execution = execution;
+        this.nowInSec = FBUtilities.nowInSeconds();
+        this.limit = query.getLimit();
+        this.aggregation = ParallelAggregation.forQuery(query, execution.getParallelism());
+        if (aggregation == null) {
+            this.scanner = query.getScanner(execution);
+            this.partitions = UnfilteredPartitionIterators.filter(scanner, nowInSec);
+        } else {
+            this.scanner = null;
+            this.partitions = null;
+        }
+    }
+
+    public boolean hasMorePages() {
+        if (partitions == null) {
+            return aggregation != null;
+        }
+        if (query.ordering != null) {
+            return rowCount < limit && sort().hasNext();
+        }
+        return rowCount < limit && (current != null || partitions.hasNext());
+    }
+
+    /**
+     * Reads every row into an {@link ExternalSorter} the first time it is called, and returns the sorted rows.
+     */
+    private Iterator<List<ByteBuffer>> sort() {
+        if (sorted == null) {
+            sorter = new ExternalSorter(query.ordering);
+            try {
+                AtomicInteger rowsRead = new AtomicInteger(0);
+                // until the scanner is exhausted, static rows of partitions without rows are not counted in a batch
+                while (current != null || partitions.hasNext()) {
+                    for (List<ByteBuffer> row : read(SORT_BATCH, Integer.MAX_VALUE, rowsRead).rows) {
+                        sorter.add(row);
+                    }
+                }
+                sorted = sorter.sorted();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Reads up to pageSize rows. Aggregates are always computed over the entire remaining result in a single page, in
+     * parallel over token ranges when {@link ParallelAggregation} supports the query.
+     */
+    public ResultSetData nextPage(int pageSize) throws IOException {
+        if (partitions == null) {
+            ResultSetData result = aggregation.execute(execution);
+            aggregation = null;
+            rowCount = result.getPagingData().getRowCount();
+            return result;
+        }
+        if (query.ordering != null) {
+            Iterator<List<ByteBuffer>> rows = sort();
+            ResultSet result = new ResultSet(query.selection.getResultMetadata(false), new ArrayList<>());
+            while (result.size() < pageSize && rowCount < limit && rows.hasNext()) {
+                result.addRow(rows.next());
+                rowCount++;
+            }
+            return new ResultSetData(result, new PagingData(null, null, rowCount));
+        }
+        if (query.selection.isAggregate()) {
+            pageSize = Integer.MAX_VALUE;
+        }
+        AtomicInteger rowsPaged = new AtomicInteger(0);
+        ResultSet result = read(pageSize, limit - rowCount, rowsPaged);
+        rowCount += rowsPaged.get();
+        return new ResultSetData(result, new PagingData(null, null, rowCount));
+    }
+
+    /**
+     * Reads up to pageSize rows, and no more than limit, from the scanner.
+     */
+    private ResultSet read(int pageSize, int limit, AtomicInteger rowsPaged) {
+        rowsPaged.set(0);
+        Selection.ResultSetBuilder result = query.selection.resultSetBuilder(query.options, query.statement.parameters.isJson, query.aggregationSpec);
+        while (rowsPaged.get() < pageSize && rowsPaged.get() < limit) {
+            if (current == null) {
+                if (!partitions.hasNext()) {
+                    break;
+                }
+                current = partitions.next();
+            }
+            int remaining = Math.min(pageSize - rowsPaged.get(), limit - rowsPaged.get());
+            query.processPartition(current, query.options, result, nowInSec, remaining, rowsPaged);
+            if (!current.hasNext()) {
+                current.close();
+                current = null;
+            }
+        }
+        return result.build();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public QueryExecution getExecution() {
+        return execution;
+    }
+
+    public void close() {
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } finally {
+            if (sorter != null) {
+                sorter.close();
+            }
+            if (partitions != null) {
+                partitions.close();
+            }
+        }
+    }
+}
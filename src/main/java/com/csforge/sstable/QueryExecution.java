@@ -0,0 +1,73 @@
+package com.csforge.sstable;
+
+/**
+ * State of a single execution of a {@link Query}. Plans are cached and shared by {@link QueryCache}, so anything
+ * recorded while running one is kept here instead of on the plan.
+ */
+public class QueryExecution {
+
+    private final int parallelism;
+
+    private final QueryTrace trace;
+
+    private volatile int sstablesTotal = 0;
+
+    private volatile int sstablesSkipped = 0;
+
+    private volatile int ranges = 1;
+
+    public QueryExecution() {
+        this(Query.parallelism);
+    }
+
+    /**
+     * @param parallelism the number of threads scanning or aggregating token ranges of the query
+     */
+    public QueryExecution(int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * @param trace collects timings and counts of the execution if not null, see TRACING ON in cqlsh
+     */
+    public QueryExecution(int parallelism, QueryTrace trace) {
+        this.parallelism = parallelism;
+        this.trace = trace;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public QueryTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Records the sstables of the query and how many of them were pruned without being scanned.
+     */
+    void pruned(int total, int skipped) {
+        this.sstablesTotal = total;
+        this.sstablesSkipped = skipped;
+    }
+
+    public int getSSTablesTotal() {
+        return sstablesTotal;
+    }
+
+    public int getSSTablesSkipped() {
+        return sstablesSkipped;
+    }
+
+    void split(int ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Number of token ranges the scan was split into. Each is read by a {@link ParallelScanner} worker, which hands out
+     * partitions that are already in memory.
+     */
+    public int getRanges() {
+        return ranges;
+    }
+}
@@ -0,0 +1,162 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.transform.Transformation;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableReadsListener;
+import org.apache.cassandra.utils.FBUtilities;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects what a traced query did: the time spent in each phase, which sstables were read or skipped and why, how
+ * many bytes were scanned from each, and how many partitions and rows were read versus matched by the filters.
+ * Scans of token ranges may run on several threads, so everything here is thread safe.
+ */
+public class QueryTrace {
+
+    private static class SSTableTrace {
+        final String name;
+        String skipped = null;
+        long bytes = 0;
+        int scanners = 0;
+
+        SSTableTrace(SSTableReader reader) {
+            this.name = reader.descriptor.baseFilename();
+        }
+    }
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private final Map<String, SSTableTrace> sstables = new LinkedHashMap<>();
+
+    private final AtomicLong partitionsRead = new AtomicLong();
+
+    private final AtomicLong rowsRead = new AtomicLong();
+
+    private final AtomicLong partitionsMatched = new AtomicLong();
+
+    private final AtomicLong rowsMatched = new AtomicLong();
+
+    /**
+     * Adds the time elapsed since start (from {@link System#nanoTime()}) to the phase.
+     */
+    public void phase(String name, long start) {
+        elapsed(name, System.nanoTime() - start);
+    }
+
+    /**
+     * Adds the nanoseconds to the phase.
+     */
+    public synchronized void elapsed(String name, long nanos) {
+        phases.merge(name, nanos, Long::sum);
+    }
+
+    synchronized long getPhase(String name) {
+        return phases.getOrDefault(name, 0L);
+    }
+
+    private synchronized SSTableTrace sstable(SSTableReader reader) {
+        return sstables.computeIfAbsent(reader.descriptor.baseFilename(), n -> new SSTableTrace(reader));
+    }
+
+    void skipped(SSTableReader reader, String reason) {
+        SSTableTrace trace = sstable(reader);
+        synchronized (this) {
+            trace.skipped = reason;
+        }
+    }
+
+    void scanned(SSTableReader reader, long bytes) {
+        SSTableTrace trace = sstable(reader);
+        synchronized (this) {
+            trace.bytes += bytes;
+            trace.scanners++;
+        }
+    }
+
+    /**
+     * Records the bytes a scanner of the reader went through once it is closed.
+     */
+    UnfilteredPartitionIterator scanner(SSTableReader reader, ISSTableScanner scanner) {
+        sstable(reader);
+        return new UnfilteredPartitionIterator() {
+            public boolean isForThrift() {
+                return scanner.isForThrift();
+            }
+
+            public CFMetaData metadata() {
+                return scanner.metadata();
+            }
+
+            public boolean hasNext() {
+                return scanner.hasNext();
+            }
+
+            public UnfilteredRowIterator next() {
+                return scanner.next();
+            }
+
+            public void close() {
+                scanned(reader, scanner.getBytesScanned());
+                scanner.close();
+            }
+        };
+    }
+
+    SSTableReadsListener listener() {
+        return new SSTableReadsListener() {
+            public void onSSTableSkipped(SSTableReader sstable, SkippingReason reason) {
+                skipped(sstable, reason.toString().toLowerCase().replace('_', ' '));
+            }
+        };
+    }
+
+    /**
+     * Counts the partitions and rows going through the iterator, as read (before filtering) or as matched.
+     */
+    UnfilteredPartitionIterator count(UnfilteredPartitionIterator partitions, boolean matched) {
+        AtomicLong partitionCount = matched ? partitionsMatched : partitionsRead;
+        AtomicLong rowCount = matched ? rowsMatched : rowsRead;
+        return Transformation.apply(partitions, new Transformation<UnfilteredRowIterator>() {
+            protected UnfilteredRowIterator applyToPartition(UnfilteredRowIterator partition) {
+                partitionCount.incrementAndGet();
+                return Transformation.apply(partition, this);
+            }
+
+            protected Row applyToRow(Row row) {
+                rowCount.incrementAndGet();
+                return row;
+            }
+        });
+    }
+
+    /**
+     * Prints the phases, the sstables and the partition and row counts.
+     *
+     * @param rowsReturned number of rows in the result
+     */
+    public synchronized void print(PrintStream out, long rowsReturned) {
+        out.println("Tracing:");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            out.printf("  %-22s %,12d us%n", phase.getKey(), TimeUnit.NANOSECONDS.toMicros(phase.getValue()));
+        }
+        for (SSTableTrace sstable : sstables.values()) {
+            if (sstable.skipped != null) {
+                out.printf("  %s skipped (%s)%n", sstable.name, sstable.skipped);
+            } else {
+                out.printf("  %s read %s in %d scanner(s)%n", sstable.name, FBUtilities.prettyPrintMemory(sstable.bytes), sstable.scanners);
+            }
+        }
+        out.printf("  partitions read %,d, matched %,d%n", partitionsRead.get(), partitionsMatched.get());
+        out.printf("  rows read %,d, matched %,d, returned %,d%n", rowsRead.get(), rowsMatched.get(), rowsReturned);
+    }
+}
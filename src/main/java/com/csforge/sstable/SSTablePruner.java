@@ -0,0 +1,65 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.filter.ClusteringIndexFilter;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+import java.util.Collection;
+
+/**
+ * Decides from its metadata alone whether an sstable can contain anything a query reads, so sstables that cannot are
+ * never scanned.
+ */
+public class SSTablePruner {
+
+    /**
+     * True if the reader may have partitions within the bounds, judged by its first and last keys. Wrapping bounds are
+     * never pruned.
+     */
+    public static boolean mayIntersect(SSTableReader reader, AbstractBounds<PartitionPosition> bounds) {
+        if (!bounds.right.isMinimum() && bounds.left.compareTo(bounds.right) > 0) {
+            return true;
+        }
+        if (!bounds.left.isMinimum()) {
+            int cmp = reader.last.compareTo(bounds.left);
+            if (cmp < 0 || (cmp == 0 && !bounds.inclusiveLeft())) {
+                return false;
+            }
+        }
+        if (!bounds.right.isMinimum()) {
+            int cmp = reader.first.compareTo(bounds.right);
+            if (cmp > 0 || (cmp == 0 && !bounds.inclusiveRight())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if any of the partition keys is within the key range of the reader and passes its bloom filter.
+     */
+    public static boolean mayContainAny(SSTableReader reader, Collection<DecoratedKey> keys) {
+        for (DecoratedKey key : keys) {
+            if (reader.first.compareTo(key) <= 0 && reader.last.compareTo(key) >= 0 && reader.getBloomFilter().isPresent(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the reader may have rows within the clustering filter according to the min/max clustering values in its
+     * StatsMetadata. Like Cassandra's single partition reads, sstables are kept if static columns are queried (the
+     * clustering stats say nothing about static rows) or if they have tombstones that could shadow rows in other sstables.
+     */
+    public static boolean mayIncludeClusterings(SSTableReader reader, ClusteringIndexFilter filter, ColumnFilter columns, CFMetaData cfm) {
+        if (filter == null || !columns.fetchedColumns().statics.isEmpty() || cfm.clusteringColumns().isEmpty()) {
+            return true;
+        }
+        return reader.mayHaveTombstones() || filter.shouldInclude(reader);
+    }
+}
@@ -0,0 +1,267 @@
+package com.csforge.sstable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.cassandra.concurrent.ScheduledExecutors;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of opened sstable readers so repeated queries, pages and describes over the same files do not reload the
+ * Index/Summary/Filter/CompressionInfo components every time.
+ * <p/>
+ * Readers are keyed by their {@link Descriptor} and are reopened if the Data.db file was modified or the metadata
+ * they were opened with no longer matches the requested schema. Every {@link #acquire} must be paired with a
+ * {@link #release}; readers that are unreferenced are evicted least recently used first once the pool grows beyond
+ * its capacity, and readers evicted while in use are closed on their last release.
+ * <p/>
+ * Readers are opened outside of the pool's lock so cold opens of different sstables run concurrently, concurrent
+ * acquires of an sstable being opened wait for that open instead of opening it again.
+ */
+public class SSTableReaderPool {
+    private static final Logger logger = LoggerFactory.getLogger(SSTableReaderPool.class);
+
+    private static final String CAPACITY_PROPERTY = "sstabletools.readers.max";
+
+    public static final SSTableReaderPool instance = new SSTableReaderPool(Integer.getInteger(CAPACITY_PROPERTY, 512));
+
+    private final int capacity;
+
+    private final LinkedHashMap<Descriptor, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<SSTableReader, Entry> leased = new IdentityHashMap<>();
+
+    private final Map<Descriptor, CompletableFuture<Void>> opening = Maps.newHashMap();
+
+    /**
+     * Readers closed and closes known to be tidied, see {@link #awaitTidy}.
+     */
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong tidied = new AtomicLong();
+
+    private static class Entry {
+        final SSTableReader reader;
+        final long modified;
+        final long length;
+        int refs = 0;
+        boolean retired = false;
+
+        Entry(SSTableReader reader, long modified, long length) {
+            this.reader = reader;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+
+    public SSTableReaderPool(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Reader pool capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    public SSTableReader acquire(File file, CFMetaData cfm) throws IOException {
+        return acquire(Descriptor.fromFilename(file.getAbsolutePath()), cfm);
+    }
+
+    public SSTableReader acquire(Descriptor desc, CFMetaData cfm) throws IOException {
+        while (true) {
+            File data = new File(desc.filenameFor(Component.DATA));
+            long modified = data.lastModified();
+            long length = data.length();
+            CompletableFuture<Void> opened;
+            synchronized (this) {
+                Entry entry = entries.get(desc);
+                if (entry != null && (entry.modified != modified || entry.length != length || !sameShape(entry.reader.metadata, cfm))) {
+                    logger.debug("Reopening {}, file or schema changed", desc);
+                    entries.remove(desc);
+                    retire(entry);
+                    entry = null;
+                }
+                if (entry != null) {
+                    return lease(entry);
+                }
+                opened = opening.get(desc);
+                if (opened == null) {
+                    opening.put(desc, new CompletableFuture<>());
+                }
+            }
+            if (opened == null) {
+                return open(desc, cfm, modified, length);
+            }
+            try {
+                // once opened the reader is pooled, a failed open is retried and reported by this acquire
+                opened.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + desc + " to open", e);
+            } catch (ExecutionException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private SSTableReader open(Descriptor desc, CFMetaData cfm, long modified, long length) throws IOException {
+        Entry entry = null;
+        try {
+            awaitTidy();
+            entry = new Entry(SSTableReader.openNoValidation(desc, cfm), modified, length);
+        } finally {
+            CompletableFuture<Void> opened;
+            synchronized (this) {
+                opened = opening.remove(desc);
+                if (entry != null) {
+                    entries.put(desc, entry);
+                    lease(entry);
+                }
+            }
+            opened.complete(null);
+        }
+        return entry.reader;
+    }
+
+    private SSTableReader lease(Entry entry) {
+        entry.refs++;
+        leased.put(entry.reader, entry);
+        evict();
+        return entry.reader;
+    }
+
+    /**
+     * Acquires a reader for every file, releasing any already acquired ones if one of them fails to open.
+     */
+    public List<SSTableReader> acquireAll(Collection<File> files, CFMetaData cfm) throws IOException {
+        List<SSTableReader> readers = Lists.newArrayListWithCapacity(files.size());
+        try {
+            for (File f : files) {
+                readers.add(acquire(f, cfm));
+            }
+        } catch (IOException | RuntimeException e) {
+            releaseAll(readers);
+            throw e;
+        }
+        return readers;
+    }
+
+    public synchronized void release(SSTableReader reader) {
+        Entry entry = leased.get(reader);
+        Preconditions.checkState(entry != null && entry.refs > 0, "Releasing reader that was not acquired: %s", reader);
+        if (--entry.refs == 0) {
+            leased.remove(reader);
+            if (entry.retired) {
+                close(entry);
+            } else {
+                evict();
+            }
+        }
+    }
+
+    public void releaseAll(Collection<SSTableReader> readers) {
+        for (SSTableReader reader : readers) {
+            release(reader);
+        }
+    }
+
+    /**
+     * Closes every unreferenced reader and marks the ones in use to be closed on release.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            retire(entry);
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (entries.size() > capacity && iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.refs == 0) {
+                iter.remove();
+                close(entry);
+            }
+        }
+    }
+
+    private void retire(Entry entry) {
+        entry.retired = true;
+        KeyCache.instance.invalidate(entry.reader.descriptor);
+        if (entry.refs == 0) {
+            close(entry);
+        }
+    }
+
+    private void close(Entry entry) {
+        logger.trace("Closing {}", entry.reader);
+        KeyCache.instance.invalidate(entry.reader.descriptor);
+        entry.reader.selfRef().release();
+        closed.incrementAndGet();
+    }
+
+    /**
+     * Closed readers are tidied on the non periodic tasks thread, and reopening an sstable before its previous reader
+     * is tidied fails. Waits for a task queued behind the pending tidies.
+     */
+    private void awaitTidy() throws IOException {
+        long target = closed.get();
+        if (tidied.get() >= target) {
+            return;
+        }
+        try {
+            ScheduledExecutors.nonPeriodicTasks.submit(() -> {}).get();
+            tidied.accumulateAndGet(target, Math::max);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for closed readers", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Readers are bound to the metadata they were opened with, but the shell rebuilds equivalent metadata for each
+     * statement. Treat two tables as interchangeable when their keys and columns have the same names, kinds and types.
+     */
+    static boolean sameShape(CFMetaData a, CFMetaData b) {
+        if (a == b) {
+            return true;
+        }
+        if (!a.getKeyValidator().equals(b.getKeyValidator()) || !a.comparator.equals(b.comparator)) {
+            return false;
+        }
+        Map<String, ColumnDefinition> columns = Maps.newHashMap();
+        for (ColumnDefinition def : a.allColumns()) {
+            columns.put(def.name.toString(), def);
+        }
+        if (columns.size() != b.allColumns().size()) {
+            return false;
+        }
+        for (ColumnDefinition def : b.allColumns()) {
+            ColumnDefinition other = columns.get(def.name.toString());
+            if (other == null || other.kind != def.kind || other.position() != def.position() || !other.type.equals(def.type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,900 @@
+package com.csforge.sstable;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.ICardinality;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.MinMaxPriorityQueue;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.rows.*;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.IncludingExcludingBounds;
+import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.SSTable;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.*;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.StreamingHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.csforge.sstable.CassandraUtils.*;
+import static com.csforge.sstable.TerminalUtils.TermHistogram;
+
+/**
+ * What describe reports about an sstable: the metadata of its Statistics.db and the counts and top partitions of a
+ * scan of its Data.db. The stats of all sstables of a table can be merged into a table level summary with
+ * {@link #summarize(List)}.
+ */
+public class SSTableStats {
+    private static String FULL_BAR = Strings.repeat("█", 30);
+    private static String EMPTY_BAR = Strings.repeat("░", 30);
+
+    public static final int TOP = 5;
+
+    private static class ValuedByteBuffer {
+        public long value;
+        public ByteBuffer buffer;
+
+        public ValuedByteBuffer(ByteBuffer buffer, long value) {
+            this.value = value;
+            this.buffer = buffer;
+        }
+
+        public long getValue() {
+            return value;
+        }
+    }
+
+    private static Comparator<ValuedByteBuffer> VCOMP = Comparator.comparingLong(ValuedByteBuffer::getValue).reversed();
+
+    /**
+     * Scan progress over one or more sstables, measured in cells against the totalColumnsSet of their metadata.
+     */
+    public static class Progress {
+        private final double total;
+        private final String label;
+        private final AtomicLong cells = new AtomicLong();
+        private int lastPercent = 0;
+
+        public Progress(long total, String label) {
+            this.total = total;
+            this.label = label;
+        }
+
+        void add(long count) {
+            int percent = (int) (Math.min(1.0, cells.addAndGet(count) / total) * 100);
+            if (percent > lastPercent) {
+                synchronized (this) {
+                    if (percent > lastPercent) {
+                        lastPercent = percent;
+                        int cols = percent * 30 / 100;
+                        System.out.printf("\r%s%s...  %s%s%s %s(%%%s)", TableTransformer.ANSI_BLUE, label, TableTransformer.ANSI_CYAN,
+                                FULL_BAR.substring(30 - cols), EMPTY_BAR.substring(cols), TableTransformer.ANSI_RESET, percent);
+                        System.out.flush();
+                    }
+                }
+            }
+        }
+
+        void clear(PrintStream out) {
+            out.printf("\r%80s\r", " ");
+        }
+    }
+
+    /**
+     * Path of the sstable, null for a summary.
+     */
+    public final String path;
+
+    public final CFMetaData cfm;
+
+    public int sstables = 1;
+
+    public long bytes;
+    public long partitions;
+    public long rows;
+    public long tombstones;
+    public long cells;
+
+    /**
+     * Whether Data.db was read, the counts and top lists are empty otherwise.
+     */
+    public boolean scanned = false;
+
+    /**
+     * Fraction of the partitions read, the counts are estimates with the errors below when less than 1.
+     */
+    public double sample = 1.0;
+    public long partitionsError;
+    public long rowsError;
+    public long tombstonesError;
+    public long cellsError;
+
+    /**
+     * Number of partitions kept in each top list.
+     */
+    public final int top;
+
+    private final MinMaxPriorityQueue<ValuedByteBuffer> widestPartitions;
+    private final MinMaxPriorityQueue<ValuedByteBuffer> largestPartitions;
+    private final MinMaxPriorityQueue<ValuedByteBuffer> mostTombstones;
+
+    // of the partitions and cells read, each sstable's part of a partition counting as one in a summary
+    public final PercentileHistogram partitionBytes = new PercentileHistogram();
+    public final PercentileHistogram partitionRows = new PercentileHistogram();
+    public final PercentileHistogram partitionTombstones = new PercentileHistogram();
+    public final PercentileHistogram cellBytes = new PercentileHistogram();
+
+    /**
+     * Profiles of the static and regular columns by name, null unless {@link #profile()} was called before the scan.
+     */
+    Map<String, ColumnProfile> profiles;
+    long profiledPartitions;
+    long profiledRows;
+
+    // only known for a single sstable
+    ValidationMetadata validation;
+    StatsMetadata stats;
+    /** class name of the compressor, null if the sstable is not compressed */
+    String compressor;
+    SerializationHeader.Component header;
+    List<AbstractType<?>> clusteringTypes;
+
+    // merged across sstables for a summary
+    public long minTimestamp = Long.MAX_VALUE;
+    public long maxTimestamp = Long.MIN_VALUE;
+    public int minLocalDeletionTime = Integer.MAX_VALUE;
+    public int maxLocalDeletionTime = Integer.MIN_VALUE;
+    public int minTTL = Integer.MAX_VALUE;
+    public int maxTTL = Integer.MIN_VALUE;
+    public long totalColumnsSet;
+    public long totalRows;
+    StreamingHistogram tombstoneDropTimes;
+    EstimatedHistogram partitionSizes;
+    EstimatedHistogram columnCounts;
+    ICardinality cardinality;
+
+    private SSTableStats(String path, CFMetaData cfm, int top) {
+        this.path = path;
+        this.cfm = cfm;
+        this.top = Math.max(1, top);
+        widestPartitions = newTop(this.top);
+        largestPartitions = newTop(this.top);
+        mostTombstones = newTop(this.top);
+    }
+
+    private static MinMaxPriorityQueue<ValuedByteBuffer> newTop(int top) {
+        return MinMaxPriorityQueue.orderedBy(VCOMP).maximumSize(top).create();
+    }
+
+    /**
+     * Adds a partition to a top list if it makes it, copying its key so the list does not pin the buffer it was read
+     * from.
+     */
+    private void offer(MinMaxPriorityQueue<ValuedByteBuffer> list, ByteBuffer key, long value) {
+        if (list.size() < top || value > list.peekLast().value) {
+            list.add(new ValuedByteBuffer(ByteBufferUtil.clone(key), value));
+        }
+    }
+
+    /**
+     * Reads the metadata components of an sstable, the Data.db is only read by {@link #scan(Progress)}.
+     */
+    public static SSTableStats read(File file) throws IOException, NoSuchFieldException, IllegalAccessException {
+        return read(file, TOP);
+    }
+
+    /**
+     * Reads the metadata components of an sstable, keeping top partitions in the top lists of a later scan.
+     */
+    public static SSTableStats read(File file, int top) throws IOException, NoSuchFieldException, IllegalAccessException {
+        String fname = file.getAbsolutePath();
+        Descriptor descriptor = Descriptor.fromFilename(fname);
+        SSTableStats result = new SSTableStats(fname, tableFromBestSource(file), top);
+
+        Map<MetadataType, MetadataComponent> metadata = descriptor.getMetadataSerializer().deserialize(descriptor, EnumSet.allOf(MetadataType.class));
+        result.validation = (ValidationMetadata) metadata.get(MetadataType.VALIDATION);
+        result.stats = (StatsMetadata) metadata.get(MetadataType.STATS);
+        CompactionMetadata compaction = (CompactionMetadata) metadata.get(MetadataType.COMPACTION);
+        result.bytes = file.length();
+        if (new File(descriptor.filenameFor(Component.COMPRESSION_INFO)).exists()) {
+            // the chunk offsets are held off heap until closed
+            CompressionMetadata compression = CompressionMetadata.create(fname);
+            try {
+                result.bytes = compression.dataLength;
+                result.compressor = compression.compressor().getClass().getName();
+            } finally {
+                compression.close();
+            }
+        }
+        result.header = (SerializationHeader.Component) metadata.get(MetadataType.HEADER);
+        if (result.header != null)
+            result.clusteringTypes = (List<AbstractType<?>>) readPrivate(result.header, "clusteringTypes");
+
+        StatsMetadata stats = result.stats;
+        if (stats != null) {
+            result.minTimestamp = stats.minTimestamp;
+            result.maxTimestamp = stats.maxTimestamp;
+            result.minLocalDeletionTime = stats.minLocalDeletionTime;
+            result.maxLocalDeletionTime = stats.maxLocalDeletionTime;
+            result.minTTL = stats.minTTL;
+            result.maxTTL = stats.maxTTL;
+            result.totalColumnsSet = stats.totalColumnsSet;
+            result.totalRows = stats.totalRows;
+            result.tombstoneDropTimes = stats.estimatedTombstoneDropTime;
+            result.partitionSizes = stats.estimatedPartitionSize;
+            result.columnCounts = stats.estimatedColumnCount;
+        }
+        if (compaction != null)
+            result.cardinality = compaction.cardinalityEstimator;
+        return result;
+    }
+
+    /**
+     * Makes the scan also profile the values of every static and regular column.
+     */
+    public SSTableStats profile() {
+        profiles = new LinkedHashMap<>();
+        for (ColumnDefinition column : cfm.partitionColumns().statics)
+            profiles.put(column.name.toString(), new ColumnProfile(column, top));
+        for (ColumnDefinition column : cfm.partitionColumns().regulars)
+            profiles.put(column.name.toString(), new ColumnProfile(column, top));
+        return this;
+    }
+
+    private void profile(DecoratedKey key, Row row) {
+        for (ColumnData data : row) {
+            ColumnProfile profile = profiles.get(data.column().name.toString());
+            if (profile != null)
+                profile.add(cfm, key, row, data);
+        }
+    }
+
+    /**
+     * Counts the partitions, rows, tombstones and cells of the sstable and finds its widest, largest and most deleted
+     * partitions.
+     */
+    public SSTableStats scan(Progress progress) throws IOException {
+        return scan(progress, 1.0);
+    }
+
+    /**
+     * Like {@link #scan(Progress)} but only reads about fraction of the partitions: evenly spaced intervals between
+     * consecutive index summary entries, each one a seek and a short sequential read. The counts are extrapolated to
+     * the whole sstable, with the half width of their 95% confidence interval in the matching error fields. The top
+     * lists only hold partitions that were read.
+     */
+    public SSTableStats scan(Progress progress, double fraction) throws IOException {
+        Descriptor descriptor = Descriptor.fromFilename(path);
+        SSTableReader reader = SSTableReaderPool.instance.acquire(descriptor, cfm);
+        try {
+            int intervals = reader.getIndexSummarySize();
+            int windows = (int) Math.max(1, Math.round(fraction * intervals));
+            if (windows >= intervals) {
+                try (ISSTableScanner scanner = reader.getScanner()) {
+                    add(scanner, progress);
+                }
+            } else {
+                long[][] totals = new long[windows][];
+                for (int w = 0; w < windows; w++) {
+                    int index = (int) ((long) w * intervals / windows);
+                    DecoratedKey start = reader.decorateKey(ByteBuffer.wrap(reader.getIndexSummaryKey(index)));
+                    AbstractBounds<PartitionPosition> bounds = index + 1 < intervals ?
+                            new IncludingExcludingBounds<>(start, reader.decorateKey(ByteBuffer.wrap(reader.getIndexSummaryKey(index + 1)))) :
+                            new Bounds<>(start, reader.last);
+                    long[] before = {partitions, rows, tombstones, cells};
+                    try (ISSTableScanner scanner = reader.getScanner(Iterators.singletonIterator(bounds))) {
+                        add(scanner, progress);
+                    }
+                    totals[w] = new long[]{partitions - before[0], rows - before[1], tombstones - before[2], cells - before[3]};
+                }
+                extrapolate(totals, intervals);
+            }
+            scanned = true;
+        } finally {
+            SSTableReaderPool.instance.release(reader);
+        }
+        return this;
+    }
+
+    private void add(ISSTableScanner scanner, Progress progress) {
+        while (scanner.hasNext()) {
+            UnfilteredRowIterator partition = scanner.next();
+
+            long psize = 0;
+            long pcount = 0;
+            int ptombcount = 0;
+            long pcells = 0;
+            partitions++;
+            if (profiles != null)
+                profiledPartitions++;
+            if (!partition.staticRow().isEmpty()) {
+                rows++;
+                pcount++;
+                psize += partition.staticRow().dataSize();
+                if (profiles != null)
+                    profile(partition.partitionKey(), partition.staticRow());
+            }
+            if (!partition.partitionLevelDeletion().isLive()) {
+                tombstones++;
+                ptombcount++;
+            }
+            while (partition.hasNext()) {
+                Unfiltered unfiltered = partition.next();
+                switch (unfiltered.kind()) {
+                    case ROW:
+                        rows++;
+                        Row row = (Row) unfiltered;
+                        if (profiles != null) {
+                            profiledRows++;
+                            profile(partition.partitionKey(), row);
+                        }
+                        if (!row.deletion().isLive()) {
+                            tombstones++;
+                            ptombcount++;
+                        }
+                        psize += row.dataSize();
+                        pcount++;
+                        for (Cell cell : row.cells()) {
+                            pcells++;
+                            cellBytes.add(cell.dataSize());
+                            if (cell.isTombstone()) {
+                                tombstones++;
+                                ptombcount++;
+                            }
+                        }
+                        break;
+                    case RANGE_TOMBSTONE_MARKER:
+                        tombstones++;
+                        ptombcount++;
+                        break;
+                }
+            }
+            cells += pcells;
+            if (progress != null)
+                progress.add(pcells);
+            partitionBytes.add(psize);
+            partitionRows.add(pcount);
+            partitionTombstones.add(ptombcount);
+            ByteBuffer key = partition.partitionKey().getKey();
+            offer(widestPartitions, key, pcount);
+            offer(largestPartitions, key, psize);
+            offer(mostTombstones, key, ptombcount);
+        }
+    }
+
+    /**
+     * Estimates the totals from the counts of the sampled summary intervals, taken as a systematic sample of equal
+     * sized clusters. With a single interval read there is no variance to go by and the error is left at 0.
+     */
+    private void extrapolate(long[][] windows, int intervals) {
+        int n = windows.length;
+        sample = (double) n / intervals;
+        long[] estimates = new long[4];
+        long[] errors = new long[4];
+        for (int k = 0; k < 4; k++) {
+            double sum = 0;
+            double squares = 0;
+            for (long[] window : windows) {
+                sum += window[k];
+                squares += (double) window[k] * window[k];
+            }
+            double mean = sum / n;
+            double variance = n > 1 ? Math.max(0, (squares - n * mean * mean) / (n - 1)) : 0;
+            estimates[k] = Math.round(mean * intervals);
+            errors[k] = Math.round(1.96 * intervals * Math.sqrt((1 - sample) * variance / n));
+        }
+        partitions = estimates[0];
+        rows = estimates[1];
+        tombstones = estimates[2];
+        cells = estimates[3];
+        partitionsError = errors[0];
+        rowsError = errors[1];
+        tombstonesError = errors[2];
+        cellsError = errors[3];
+    }
+
+    /**
+     * Merges the stats of sstables of the same table. Counts and histograms are exact sums, a partition's value in
+     * the top lists is the sum of its values in the sstables where it made the top list, so a partition spread thinly
+     * over many sstables can be missed or under counted. Errors of sampled counts are combined as independent.
+     */
+    public static SSTableStats summarize(List<SSTableStats> all) {
+        SSTableStats summary = new SSTableStats(null, all.get(0).cfm, all.stream().mapToInt(stats -> stats.top).max().getAsInt());
+        summary.sstables = 0;
+        summary.scanned = all.stream().allMatch(stats -> stats.scanned);
+        summary.sample = 0;
+        double partitionsVariance = 0, rowsVariance = 0, tombstonesVariance = 0, cellsVariance = 0;
+        Map<ByteBuffer, Long> widest = Maps.newHashMap();
+        Map<ByteBuffer, Long> largest = Maps.newHashMap();
+        Map<ByteBuffer, Long> deleted = Maps.newHashMap();
+        boolean mergeCardinality = true;
+        for (SSTableStats stats : all) {
+            summary.sstables += stats.sstables;
+            summary.bytes += stats.bytes;
+            summary.partitions += stats.partitions;
+            summary.rows += stats.rows;
+            summary.tombstones += stats.tombstones;
+            summary.cells += stats.cells;
+            summary.sample += stats.sample * stats.bytes;
+            partitionsVariance += Math.pow(stats.partitionsError, 2);
+            rowsVariance += Math.pow(stats.rowsError, 2);
+            tombstonesVariance += Math.pow(stats.tombstonesError, 2);
+            cellsVariance += Math.pow(stats.cellsError, 2);
+            summary.partitionBytes.merge(stats.partitionBytes);
+            summary.partitionRows.merge(stats.partitionRows);
+            summary.partitionTombstones.merge(stats.partitionTombstones);
+            summary.cellBytes.merge(stats.cellBytes);
+            if (stats.profiles != null) {
+                if (summary.profiles == null)
+                    summary.profiles = new LinkedHashMap<>();
+                for (ColumnProfile profile : stats.profiles.values()) {
+                    summary.profiles.computeIfAbsent(profile.column.name.toString(), name -> new ColumnProfile(profile.column, summary.top))
+                            .merge(profile);
+                }
+                summary.profiledPartitions += stats.profiledPartitions;
+                summary.profiledRows += stats.profiledRows;
+            }
+            stats.widestPartitions.forEach(p -> widest.merge(p.buffer, p.value, Long::sum));
+            stats.largestPartitions.forEach(p -> largest.merge(p.buffer, p.value, Long::sum));
+            stats.mostTombstones.forEach(p -> deleted.merge(p.buffer, p.value, Long::sum));
+
+            summary.minTimestamp = Math.min(summary.minTimestamp, stats.minTimestamp);
+            summary.maxTimestamp = Math.max(summary.maxTimestamp, stats.maxTimestamp);
+            summary.minLocalDeletionTime = Math.min(summary.minLocalDeletionTime, stats.minLocalDeletionTime);
+            summary.maxLocalDeletionTime = Math.max(summary.maxLocalDeletionTime, stats.maxLocalDeletionTime);
+            summary.minTTL = Math.min(summary.minTTL, stats.minTTL);
+            summary.maxTTL = Math.max(summary.maxTTL, stats.maxTTL);
+            summary.totalColumnsSet += stats.totalColumnsSet;
+            summary.totalRows += stats.totalRows;
+            if (stats.tombstoneDropTimes != null) {
+                if (summary.tombstoneDropTimes == null)
+                    summary.tombstoneDropTimes = new StreamingHistogram(SSTable.TOMBSTONE_HISTOGRAM_BIN_SIZE,
+                            SSTable.TOMBSTONE_HISTOGRAM_SPOOL_SIZE, 1);
+                summary.tombstoneDropTimes.merge(stats.tombstoneDropTimes);
+            }
+            summary.partitionSizes = merge(summary.partitionSizes, stats.partitionSizes);
+            summary.columnCounts = merge(summary.columnCounts, stats.columnCounts);
+            if (stats.cardinality == null || !mergeCardinality) {
+                mergeCardinality = false;
+            } else if (summary.cardinality == null) {
+                summary.cardinality = stats.cardinality;
+            } else {
+                try {
+                    summary.cardinality = summary.cardinality.merge(stats.cardinality);
+                } catch (CardinalityMergeException e) {
+                    mergeCardinality = false;
+                }
+            }
+        }
+        if (!mergeCardinality)
+            summary.cardinality = null;
+        summary.sample = summary.bytes > 0 ? summary.sample / summary.bytes : all.get(0).sample;
+        summary.partitionsError = Math.round(Math.sqrt(partitionsVariance));
+        summary.rowsError = Math.round(Math.sqrt(rowsVariance));
+        summary.tombstonesError = Math.round(Math.sqrt(tombstonesVariance));
+        summary.cellsError = Math.round(Math.sqrt(cellsVariance));
+        widest.forEach((k, v) -> summary.widestPartitions.add(new ValuedByteBuffer(k, v)));
+        largest.forEach((k, v) -> summary.largestPartitions.add(new ValuedByteBuffer(k, v)));
+        deleted.forEach((k, v) -> summary.mostTombstones.add(new ValuedByteBuffer(k, v)));
+        return summary;
+    }
+
+    /**
+     * Adds the buckets of two histograms. Histograms written with a different number of buckets are merged into the
+     * buckets of the first, each bucket of the second going to the one holding its offset.
+     */
+    static EstimatedHistogram merge(EstimatedHistogram into, EstimatedHistogram from) {
+        if (into == null || from == null)
+            return into == null ? from : into;
+        long[] offsets = into.getBucketOffsets();
+        long[] buckets = into.getBuckets(false);
+        long[] fromOffsets = from.getBucketOffsets();
+        long[] fromBuckets = from.getBuckets(false);
+        boolean same = Arrays.equals(offsets, fromOffsets);
+        for (int i = 0; i < fromBuckets.length; i++) {
+            if (fromBuckets[i] == 0)
+                continue;
+            int index;
+            if (same) {
+                index = i;
+            } else if (i == fromOffsets.length) {
+                index = offsets.length; // overflow bucket
+            } else {
+                index = Arrays.binarySearch(offsets, fromOffsets[i]);
+                index = index < 0 ? -index - 1 : index;
+            }
+            buckets[index] += fromBuckets[i];
+        }
+        return new EstimatedHistogram(offsets, buckets);
+    }
+
+    /**
+     * The ratio of cells whose tombstones can be purged at gcBefore, computed as by StatsMetadata.
+     */
+    public double droppableTombstoneRatio(int gcBefore) {
+        if (stats != null)
+            return stats.getEstimatedDroppableTombstoneRatio(gcBefore);
+        if (columnCounts == null || tombstoneDropTimes == null)
+            return 0.0;
+        long estimatedColumnCount = columnCounts.mean() * columnCounts.count();
+        return estimatedColumnCount > 0 ? tombstoneDropTimes.sum(gcBefore) / estimatedColumnCount : 0.0;
+    }
+
+    private static final String[] PERCENTILE_NAMES = {"50th", "75th", "90th", "95th", "99th", "99.9th", "Min", "Max", "Mean"};
+
+    private static final double[] PERCENTILES = {.5, .75, .9, .95, .99, .999};
+
+    private static long[] percentiles(PercentileHistogram histogram) {
+        long[] values = new long[PERCENTILE_NAMES.length];
+        for (int i = 0; i < PERCENTILES.length; i++)
+            values[i] = histogram.percentile(PERCENTILES[i]);
+        values[PERCENTILES.length] = histogram.min();
+        values[PERCENTILES.length + 1] = histogram.max();
+        values[PERCENTILES.length + 2] = Math.round(histogram.mean());
+        return values;
+    }
+
+    /**
+     * Prints the percentiles of the partitions and cells read, within 1% unlike the histograms of the metadata.
+     */
+    private void printPercentiles(PrintStream out, boolean color) {
+        String c = color ? TableTransformer.ANSI_BLUE : "";
+        String s = color ? TableTransformer.ANSI_CYAN : "";
+        String r = color ? TableTransformer.ANSI_RESET : "";
+        long[] bytes = percentiles(partitionBytes);
+        long[] rows = percentiles(partitionRows);
+        long[] tombstones = percentiles(partitionTombstones);
+        long[] cells = percentiles(cellBytes);
+        out.printf("%sPartition Percentiles%s:%s%n", c, s, r);
+        out.printf("   %s%-10s %s|%s %-22s %s|%s %-10s %s|%s %-10s %s|%s Cell Size (bytes)%s%n", c, "", s, c, "Size (bytes)", s, c,
+                "Rows", s, c, "Tombstones", s, c, r);
+        for (int i = 0; i < PERCENTILE_NAMES.length; i++) {
+            String size = String.format("%d %s", bytes[i], toByteString(bytes[i], true, color));
+            out.printf("   %s%-10s %s|%s %-" + (22 + TerminalUtils.countANSI(size)) + "s %s|%s %10d %s|%s %10d %s|%s %d%n",
+                    c, PERCENTILE_NAMES[i], s, r, size, s, r, rows[i], s, r, tombstones[i], s, r, cells[i]);
+        }
+    }
+
+    /**
+     * Rows the column could have been set in, partitions for a static column.
+     */
+    private long rowsFor(ColumnProfile profile) {
+        return profile.column.isStatic() ? profiledPartitions : profiledRows;
+    }
+
+    private static String percent(long count, long total) {
+        return total == 0 ? "-" : String.format("%.1f%%", 100.0 * count / total);
+    }
+
+    private void printProfiles(PrintStream out, boolean color) {
+        String c = color ? TableTransformer.ANSI_BLUE : "";
+        String s = color ? TableTransformer.ANSI_CYAN : "";
+        String r = color ? TableTransformer.ANSI_RESET : "";
+        int width = Math.max(6, profiles.keySet().stream().mapToInt(String::length).max().orElse(0));
+        out.printf("%sColumn Profiles%s:%s%n", c, s, r);
+        out.printf("   %s%-" + width + "s %s|%s %8s %s|%s %8s %s|%s %8s %s|%s %10s %s|%s %10s %10s %10s %10s%s%n",
+                c, "Column", s, c, "Present", s, c, "Null", s, c, "Absent", s, c, "Distinct", s, c,
+                "Size 50th", "99th", "Max", "Mean", r);
+        for (ColumnProfile profile : profiles.values()) {
+            long total = rowsFor(profile);
+            out.printf("   %s%-" + width + "s %s|%s %8s %s|%s %8s %s|%s %8s %s|%s %10d %s|%s %10d %10d %10d %10d%n",
+                    c, profile.column.name, s, r,
+                    percent(profile.present, total), s, r,
+                    percent(profile.nulls, total), s, r,
+                    percent(Math.max(0, total - profile.present - profile.nulls), total), s, r,
+                    profile.distinct(), s, r,
+                    profile.sizes.percentile(.5), profile.sizes.percentile(.99), profile.sizes.max(),
+                    Math.round(profile.sizes.mean()));
+        }
+        out.printf("%sLargest Cells%s:%s%n", c, s, r);
+        for (ColumnProfile profile : profiles.values()) {
+            for (ColumnProfile.LargeCell cell : profile.largest()) {
+                out.printf("%s   %s%s [%s%s%s] %s%s%s %s %s%n", c, profile.column.name, s, r, cell.partition, s,
+                        r, cell.clustering, r, cell.size, toByteString(cell.size, true, color));
+            }
+        }
+    }
+
+    private void writeProfiles(JsonGenerator json) throws IOException {
+        json.writeArrayFieldStart("column_profiles");
+        for (ColumnProfile profile : profiles.values()) {
+            long total = rowsFor(profile);
+            json.writeStartObject();
+            json.writeStringField("column", profile.column.name.toString());
+            json.writeStringField("kind", profile.column.kind.toString().toLowerCase());
+            json.writeStringField("type", profile.column.type.asCQL3Type().toString());
+            json.writeNumberField("rows", total);
+            json.writeNumberField("present", profile.present);
+            json.writeNumberField("nulls", profile.nulls);
+            json.writeNumberField("absent", Math.max(0, total - profile.present - profile.nulls));
+            json.writeNumberField("distinct", profile.distinct());
+            writePercentiles(json, "size_percentiles", profile.sizes);
+            json.writeArrayFieldStart("largest_cells");
+            for (ColumnProfile.LargeCell cell : profile.largest()) {
+                json.writeStartObject();
+                json.writeStringField("partition", cell.partition);
+                json.writeStringField("clustering", cell.clustering);
+                json.writeNumberField("size", cell.size);
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    private String estimate(long count, long error) {
+        return sample < 1.0 ? String.format("~%d ±%d", count, error) : Long.toString(count);
+    }
+
+    private static List<ValuedByteBuffer> sorted(MinMaxPriorityQueue<ValuedByteBuffer> top) {
+        return asStream(top.iterator()).sorted(VCOMP).collect(Collectors.toList());
+    }
+
+    public void print(PrintStream out, boolean color, int gcGraceSeconds) {
+        String c = color ? TableTransformer.ANSI_BLUE : "";
+        String s = color ? TableTransformer.ANSI_CYAN : "";
+        String r = color ? TableTransformer.ANSI_RESET : "";
+        if (path == null) {
+            out.printf("%sSSTables%s:%s %s%n", c, s, r, sstables);
+        }
+        if (scanned) {
+            if (sample < 1.0) {
+                out.printf("%sSampled%s:%s %.2f%% of partitions, counts are estimates %s%n", c, s, r, sample * 100,
+                        wrapQuiet("± 95% confidence interval", color));
+            }
+            out.printf("%sPartitions%s:%s %s%n", c, s, r, estimate(partitions, partitionsError));
+            out.printf("%sRows%s:%s %s%n", c, s, r, estimate(rows, rowsError));
+            out.printf("%sTombstones%s:%s %s%n", c, s, r, estimate(tombstones, tombstonesError));
+            out.printf("%sCells%s:%s %s%n", c, s, r, estimate(cells, cellsError));
+            out.printf("%sWidest Partitions%s:%s%n", c, s, r);
+            sorted(widestPartitions).forEach(p -> {
+                out.printf("%s   [%s%s%s]%s %s%n", s, r, cfm.getKeyValidator().getString(p.buffer), s, r, p.value);
+            });
+            out.printf("%sLargest Partitions%s:%s%n", c, s, r);
+            sorted(largestPartitions).forEach(p -> {
+                out.printf("%s   [%s%s%s]%s %s %s%n", s, r, cfm.getKeyValidator().getString(p.buffer), s, r, p.value, toByteString(p.value, true, color));
+            });
+            out.printf("%sTombstone Leaders%s:%s%n", c, s, r);
+            sorted(mostTombstones).forEach(p -> {
+                if (p.value > 0) {
+                    out.printf("%s   [%s%s%s]%s %s%n", s, r, cfm.getKeyValidator().getString(p.buffer), s, r, p.value);
+                }
+            });
+            printPercentiles(out, color);
+            if (profiles != null)
+                printProfiles(out, color);
+        }
+
+        if (validation != null) {
+            out.printf("%sPartitioner%s:%s %s%n", c, s, r, validation.partitioner);
+            out.printf("%sBloom Filter FP chance%s:%s %f%n", c, s, r, validation.bloomFilterFPChance);
+        }
+        if (stats != null || path == null) {
+            out.printf("%sSize%s:%s %s %s %n", c, s, r, bytes, toByteString(bytes, true, color));
+            if (stats != null) {
+                out.printf("%sCompressor%s:%s %s%n", c, s, r, compressor != null ? compressor : "-");
+                if (compressor != null)
+                    out.printf("%s  Compression ratio%s:%s %s%n", c, s, r, stats.compressionRatio);
+            }
+
+            out.printf("%sMinimum timestamp%s:%s %s %s%n", c, s, r, minTimestamp, toDateString(minTimestamp, TimeUnit.MICROSECONDS, color));
+            out.printf("%sMaximum timestamp%s:%s %s %s%n", c, s, r, maxTimestamp, toDateString(maxTimestamp, TimeUnit.MICROSECONDS, color));
+
+            out.printf("%sSSTable min local deletion time%s:%s %s %s%n", c, s, r, minLocalDeletionTime, toDateString(minLocalDeletionTime, TimeUnit.SECONDS, color));
+            out.printf("%sSSTable max local deletion time%s:%s %s %s%n", c, s, r, maxLocalDeletionTime, toDateString(maxLocalDeletionTime, TimeUnit.SECONDS, color));
+
+            out.printf("%sTTL min%s:%s %s %s%n", c, s, r, minTTL, toDurationString(minTTL, TimeUnit.SECONDS, color));
+            out.printf("%sTTL max%s:%s %s %s%n", c, s, r, maxTTL, toDurationString(maxTTL, TimeUnit.SECONDS, color));
+            if (stats != null && header != null && clusteringTypes.size() == stats.minClusteringValues.size()) {
+                List<ByteBuffer> minClusteringValues = stats.minClusteringValues;
+                List<ByteBuffer> maxClusteringValues = stats.maxClusteringValues;
+                String[] minValues = new String[clusteringTypes.size()];
+                String[] maxValues = new String[clusteringTypes.size()];
+                for (int i = 0; i < clusteringTypes.size(); i++) {
+                    minValues[i] = clusteringTypes.get(i).getString(minClusteringValues.get(i));
+                    maxValues[i] = clusteringTypes.get(i).getString(maxClusteringValues.get(i));
+                }
+                out.printf("%sminClustringValues%s:%s %s%n", c, s, r, Arrays.toString(minValues));
+                out.printf("%smaxClustringValues%s:%s %s%n", c, s, r, Arrays.toString(maxValues));
+            }
+            out.printf("%sEstimated droppable tombstones%s:%s %s%n", c, s, r, droppableTombstoneRatio((int) (System.currentTimeMillis() / 1000) - gcGraceSeconds));
+            if (stats != null) {
+                out.printf("%sSSTable Level%s:%s %d%n", c, s, r, stats.sstableLevel);
+                out.printf("%sRepaired at%s:%s %d %s%n", c, s, r, stats.repairedAt, toDateString(stats.repairedAt, TimeUnit.MILLISECONDS, color));
+                out.printf("%sReplay positions covered%s:%s %s%n", c, s, r, stats.commitLogIntervals);
+            }
+            out.printf("%stotalColumnsSet%s:%s %s%n", c, s, r, totalColumnsSet);
+            out.printf("%stotalRows%s:%s %s%n", c, s, r, totalRows);
+            if (tombstoneDropTimes != null) {
+                out.printf("%sEstimated tombstone drop times%s:%s%n", c, s, r);
+                TermHistogram estDropped = new TermHistogram(tombstoneDropTimes.getAsMap(),
+                        "Drop Time",
+                        offset -> {
+                            long dropTime = offset + gcGraceSeconds;
+                            return String.format("%d %s", dropTime, toDateString(dropTime, TimeUnit.SECONDS, color));
+                        },
+                        Object::toString);
+                estDropped.printHistogram(out, color, true);
+            }
+            if (partitionSizes != null) {
+                out.printf("%sPartition Size%s:%s%n", c, s, r);
+                TermHistogram rowSize = new TermHistogram(partitionSizes,
+                        "Size (bytes)",
+                        offset -> String.format("%d %s", offset, toByteString(offset, true, color)),
+                        Object::toString);
+                rowSize.printHistogram(out, color, true);
+            }
+            if (columnCounts != null) {
+                out.printf("%sColumn Count%s:%s%n", c, s, r);
+                TermHistogram cellCountHisto = new TermHistogram(columnCounts,
+                        "Columns",
+                        Object::toString,
+                        Object::toString);
+                cellCountHisto.printHistogram(out, color, true);
+            }
+        }
+        if (cardinality != null) {
+            out.printf("%sEstimated cardinality%s:%s %s%n", c, s, r, cardinality.cardinality());
+        }
+        if (header != null) {
+            EncodingStats encodingStats = header.getEncodingStats();
+            AbstractType<?> keyType = header.getKeyType();
+            out.printf("%sEncodingStats minTTL%s:%s %s %s%n", c, s, r, encodingStats.minTTL, toDurationString(encodingStats.minTTL, TimeUnit.SECONDS, color));
+            out.printf("%sEncodingStats minLocalDeletionTime%s:%s %s %s%n", c, s, r, encodingStats.minLocalDeletionTime, toDateString(encodingStats.minLocalDeletionTime, TimeUnit.MILLISECONDS, color));
+            out.printf("%sEncodingStats minTimestamp%s:%s %s %s%n", c, s, r, encodingStats.minTimestamp, toDateString(encodingStats.minTimestamp, TimeUnit.MICROSECONDS, color));
+            out.printf("%sKeyType%s:%s %s%n", c, s, r, keyType.toString());
+            out.printf("%sClusteringTypes%s:%s %s%n", c, s, r, clusteringTypes.toString());
+            out.printf("%sStaticColumns%s:%s {%s}%n", c, s, r, FBUtilities.toString(columns(header.getStaticColumns())));
+            out.printf("%sRegularColumns%s:%s {%s}%n", c, s, r, FBUtilities.toString(columns(header.getRegularColumns())));
+        }
+    }
+
+    private static Map<String, String> columns(Map<ByteBuffer, AbstractType<?>> columns) {
+        return columns.entrySet().stream()
+                .collect(Collectors.toMap(
+                        e -> UTF8Type.instance.getString(e.getKey()),
+                        e -> e.getValue().toString()));
+    }
+
+    private void writeTop(JsonGenerator json, String name, MinMaxPriorityQueue<ValuedByteBuffer> top) throws IOException {
+        json.writeArrayFieldStart(name);
+        for (ValuedByteBuffer p : sorted(top)) {
+            if (p.value > 0) {
+                json.writeStartObject();
+                json.writeStringField("key", cfm.getKeyValidator().getString(p.buffer));
+                json.writeNumberField("value", p.value);
+                json.writeEndObject();
+            }
+        }
+        json.writeEndArray();
+    }
+
+    private static void writePercentiles(JsonGenerator json, String name, PercentileHistogram histogram) throws IOException {
+        long[] values = percentiles(histogram);
+        json.writeObjectFieldStart(name);
+        for (int i = 0; i < PERCENTILE_NAMES.length; i++) {
+            json.writeNumberField(PERCENTILE_NAMES[i].toLowerCase(), values[i]);
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeHistogram(JsonGenerator json, String name, Map<? extends Number, long[]> histogram, long shift) throws IOException {
+        json.writeObjectFieldStart(name);
+        for (Map.Entry<? extends Number, long[]> e : histogram.entrySet()) {
+            json.writeNumberField(Long.toString(e.getKey().longValue() + shift), e.getValue()[0]);
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeHistogram(JsonGenerator json, String name, EstimatedHistogram histogram) throws IOException {
+        Map<Long, long[]> buckets = new TreeMap<>();
+        long[] offsets = histogram.getBucketOffsets();
+        long[] counts = histogram.getBuckets(false);
+        for (int i = 0; i < offsets.length; i++) {
+            if (counts[i] > 0)
+                buckets.put(offsets[i], new long[]{counts[i]});
+        }
+        writeHistogram(json, name, buckets, 0);
+    }
+
+    /**
+     * Writes the same fields as {@link #print(PrintStream, boolean, int)} as a json object.
+     */
+    public void writeJson(JsonGenerator json, int gcGraceSeconds) throws IOException {
+        json.writeStartObject();
+        if (path != null)
+            json.writeStringField("path", path);
+        else
+            json.writeNumberField("sstables", sstables);
+        if (scanned) {
+            if (sample < 1.0) {
+                json.writeNumberField("sample", sample);
+                json.writeNumberField("partitions_error", partitionsError);
+                json.writeNumberField("rows_error", rowsError);
+                json.writeNumberField("tombstones_error", tombstonesError);
+                json.writeNumberField("cells_error", cellsError);
+            }
+            json.writeNumberField("partitions", partitions);
+            json.writeNumberField("rows", rows);
+            json.writeNumberField("tombstones", tombstones);
+            json.writeNumberField("cells", cells);
+            writeTop(json, "widest_partitions", widestPartitions);
+            writeTop(json, "largest_partitions", largestPartitions);
+            writeTop(json, "tombstone_leaders", mostTombstones);
+            writePercentiles(json, "partition_size_percentiles", partitionBytes);
+            writePercentiles(json, "partition_rows_percentiles", partitionRows);
+            writePercentiles(json, "partition_tombstones_percentiles", partitionTombstones);
+            writePercentiles(json, "cell_size_percentiles", cellBytes);
+            if (profiles != null)
+                writeProfiles(json);
+        }
+        if (validation != null) {
+            json.writeStringField("partitioner", validation.partitioner);
+            json.writeNumberField("bloom_filter_fp_chance", validation.bloomFilterFPChance);
+        }
+        json.writeNumberField("size", bytes);
+        if (stats != null) {
+            json.writeStringField("compressor", compressor);
+            if (compressor != null)
+                json.writeNumberField("compression_ratio", stats.compressionRatio);
+        }
+        json.writeNumberField("min_timestamp", minTimestamp);
+        json.writeNumberField("max_timestamp", maxTimestamp);
+        json.writeNumberField("min_local_deletion_time", minLocalDeletionTime);
+        json.writeNumberField("max_local_deletion_time", maxLocalDeletionTime);
+        json.writeNumberField("min_ttl", minTTL);
+        json.writeNumberField("max_ttl", maxTTL);
+        json.writeNumberField("estimated_droppable_tombstones", droppableTombstoneRatio((int) (System.currentTimeMillis() / 1000) - gcGraceSeconds));
+        if (stats != null) {
+            json.writeNumberField("sstable_level", stats.sstableLevel);
+            json.writeNumberField("repaired_at", stats.repairedAt);
+        }
+        json.writeNumberField("total_columns_set", totalColumnsSet);
+        json.writeNumberField("total_rows", totalRows);
+        if (tombstoneDropTimes != null)
+            writeHistogram(json, "estimated_tombstone_drop_times", tombstoneDropTimes.getAsMap(), gcGraceSeconds);
+        if (partitionSizes != null)
+            writeHistogram(json, "partition_size", partitionSizes);
+        if (columnCounts != null)
+            writeHistogram(json, "column_count", columnCounts);
+        if (cardinality != null)
+            json.writeNumberField("estimated_cardinality", cardinality.cardinality());
+        if (header != null) {
+            json.writeStringField("key_type", header.getKeyType().toString());
+            json.writeStringField("clustering_types", clusteringTypes.toString());
+            json.writeObjectFieldStart("static_columns");
+            for (Map.Entry<String, String> e : columns(header.getStaticColumns()).entrySet())
+                json.writeStringField(e.getKey(), e.getValue());
+            json.writeEndObject();
+            json.writeObjectFieldStart("regular_columns");
+            for (Map.Entry<String, String> e : columns(header.getRegularColumns()).entrySet())
+                json.writeStringField(e.getKey(), e.getValue());
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+}
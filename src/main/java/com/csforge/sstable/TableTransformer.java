@@ -4,13 +4,23 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.ColumnSpecification;
 import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.serializers.TypeSerializer;
 import org.apache.cassandra.utils.ByteBufferUtil;
-import org.apache.commons.lang3.StringUtils;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
 
 public class TableTransformer {
 
@@ -25,83 +35,185 @@ public class TableTransformer {
     public static final String ANSI_WHITE = "\u001B[37m";
 
     public static String colValue(ResultSet results, List<ByteBuffer> row, int i) throws Exception {
-        ByteBuffer v = row.get(i).duplicate();
-        String ret = "null";
-        if (v != null) {
-            EnumSet<ResultSet.Flag> flags = (EnumSet<ResultSet.Flag>) CassandraUtils.readPrivate(results.metadata, "flags");
-            if (flags.contains(ResultSet.Flag.NO_METADATA)) {
-                ret = "0x" + ByteBufferUtil.bytesToHex(v);
-            } else if (results.metadata.names.get(i).type.isCollection()) {
-                ret = results.metadata.names.get(i).type.getSerializer().deserialize(v).toString();
+        return formatter(results.metadata, i, isNoMetadata(results.metadata)).apply(row.get(i));
+    }
+
+    private static boolean isNoMetadata(ResultSet.ResultMetadata metadata) throws Exception {
+        EnumSet<ResultSet.Flag> flags = (EnumSet<ResultSet.Flag>) CassandraUtils.readPrivate(metadata, "flags");
+        return flags.contains(ResultSet.Flag.NO_METADATA);
+    }
+
+    /**
+     * Resolves how values of a column are rendered, so the type lookup is done once per column rather than per cell.
+     */
+    static Function<ByteBuffer, String> formatter(ResultSet.ResultMetadata metadata, int i, boolean noMetadata) {
+        Function<ByteBuffer, String> format;
+        if (noMetadata) {
+            format = v -> "0x" + ByteBufferUtil.bytesToHex(v);
+        } else {
+            AbstractType<?> type = metadata.names.get(i).type;
+            if (type.isCollection()) {
+                TypeSerializer<?> serializer = type.getSerializer();
+                format = v -> serializer.deserialize(v.duplicate()).toString();
             } else {
-                ret = results.metadata.names.get(i).type.getString(v);
+                format = type::getString;
             }
         }
-        return ret;
+        return v -> v == null ? "null" : format.apply(v);
     }
 
-    private static void printLine(char left, char mid, char right, char cross, int[] padding, PrintStream out) {
-        out.print(" " + left);
-        for (int i = 0; i < padding.length; i++) {
-            out.print(StringUtils.repeat(mid, padding[i]) + ((i == (padding.length - 1)) ? right : cross));
-        }
-    }
+    /**
+     * A table written out as batches of rows arrive, for results too large to render at once. The column widths are
+     * fixed by the header and the first batch; a later value that is wider overflows its cell rather than widening
+     * the table.
+     */
+    public static class Table {
+        private final CFMetaData cfm;
 
-    public static void dumpResults(CFMetaData cfm, ResultSet results, PrintStream out) throws Exception {
-        if(results.rows.isEmpty()) return; // empty
-        // find spacing
-        int[] padding = new int[results.rows.get(0).size()];
-        for (int i = 0; i < results.rows.get(0).size(); i++) {
-            padding[i] = 3 + results.metadata.names.get(i).name.toString().length();
+        private final ResultSet.ResultMetadata metadata;
+
+        private final Writer out;
+
+        private final List<Function<ByteBuffer, String>> formatters;
+
+        private final int[] padding;
+
+        private final String newLine = System.lineSeparator();
+
+        private boolean started = false;
+
+        public Table(CFMetaData cfm, ResultSet.ResultMetadata metadata, Writer out) throws Exception {
+            this.cfm = cfm;
+            this.metadata = metadata;
+            this.out = out;
+            int columns = metadata.names.size();
+            boolean noMetadata = isNoMetadata(metadata);
+            this.formatters = new ArrayList<>(columns);
+            this.padding = new int[columns];
+            for (int i = 0; i < columns; i++) {
+                formatters.add(formatter(metadata, i, noMetadata));
+                padding[i] = 3 + metadata.names.get(i).name.toString().length();
+            }
         }
-        for (List<ByteBuffer> row : results.rows) {
-            for (int i = 0; i < row.size(); i++) {
-                padding[i] = Math.max(padding[i], colValue(results, row, i).length());
+
+        public void write(List<List<ByteBuffer>> rows) throws IOException {
+            if (rows.isEmpty()) {
+                return;
+            }
+            // the batch is bounded, so its cells are formatted once and kept to both size the columns and be written
+            String[][] cells = new String[rows.size()][padding.length];
+            for (int r = 0; r < cells.length; r++) {
+                List<ByteBuffer> row = rows.get(r);
+                for (int i = 0; i < padding.length; i++) {
+                    cells[r][i] = formatters.get(i).apply(row.get(i));
+                    if (!started) {
+                        padding[i] = Math.max(padding[i], cells[r][i].length());
+                    }
+                }
+            }
+            if (!started) {
+                writeHeader();
+            }
+            for (String[] row : cells) {
+                if (started) {
+                    out.write(ANSI_WHITE);
+                    writeLine('├', '─', '┤', '┼');
+                    out.write(ANSI_RESET);
+                    out.write(newLine);
+                }
+                started = true;
+                out.write(' ');
+                for (int i = 0; i < padding.length; i++) {
+                    out.write(ANSI_WHITE);
+                    out.write('│');
+                    out.write(ANSI_RESET);
+                    writePadded(row[i], padding[i]);
+                }
+                out.write(ANSI_WHITE);
+                out.write('│');
+                out.write(newLine);
+                out.write(ANSI_RESET);
             }
         }
 
-        // headers
-        out.print(ANSI_WHITE);
-        printLine('┌', '─', '┐', '┬', padding, out);
-        out.println();
-        out.print(" ");
-        for (int i = 0; i < results.metadata.names.size(); i++) {
-            ColumnSpecification spec = results.metadata.names.get(i);
-            out.print(ANSI_WHITE + "│" + ANSI_RESET);
-
-            ColumnDefinition def = cfm.getColumnDefinition(spec.name);
-            if (def != null && def.isPartitionKey()) {
-                out.print(ANSI_RED);
-            } else if (def != null && def.isClusteringColumn()) {
-                out.print(ANSI_CYAN);
+        /**
+         * Closes the table if any row was written, and flushes the writer.
+         */
+        public void finish() throws IOException {
+            if (started) {
+                out.write(ANSI_WHITE);
+                writeLine('└', '─', '┘', '┴');
+                out.write(ANSI_RESET);
+                out.write(newLine);
             }
-            out.print(String.format("%-" + padding[i] + "s", spec.name));
-            out.print(ANSI_RESET);
+            out.flush();
         }
-        out.println(ANSI_WHITE + "│");
-        printLine('╞', '═', '╡', '╪', padding, out);
-        out.println(ANSI_RESET);
-        out.print(" ");
-
-        // data
-        for (int r = 0; r < results.rows.size(); r++) {
-            if (r > 0) {
-                out.print(" ");
+
+        private void writeHeader() throws IOException {
+            out.write(ANSI_WHITE);
+            writeLine('┌', '─', '┐', '┬');
+            out.write(newLine);
+            out.write(' ');
+            for (int i = 0; i < padding.length; i++) {
+                ColumnSpecification spec = metadata.names.get(i);
+                out.write(ANSI_WHITE);
+                out.write('│');
+                out.write(ANSI_RESET);
+
+                ColumnDefinition def = cfm.getColumnDefinition(spec.name);
+                if (def != null && def.isPartitionKey()) {
+                    out.write(ANSI_RED);
+                } else if (def != null && def.isClusteringColumn()) {
+                    out.write(ANSI_CYAN);
+                }
+                writePadded(spec.name.toString(), padding[i]);
+                out.write(ANSI_RESET);
             }
-            List<ByteBuffer> row = results.rows.get(r);
-            for (int i = 0; i < row.size(); i++) {
-                out.print(ANSI_WHITE + "│" + ANSI_RESET);
-                out.print(String.format("%-" + padding[i] + "s", colValue(results, row, i)));
+            out.write(ANSI_WHITE);
+            out.write('│');
+            out.write(newLine);
+            writeLine('╞', '═', '╡', '╪');
+            out.write(ANSI_RESET);
+            out.write(newLine);
+        }
+
+        private void writeLine(char left, char mid, char right, char cross) throws IOException {
+            out.write(' ');
+            out.write(left);
+            for (int i = 0; i < padding.length; i++) {
+                writeRepeated(mid, padding[i]);
+                out.write((i == (padding.length - 1)) ? right : cross);
             }
+        }
 
-            out.println(ANSI_WHITE + "│");
-            if (r == results.rows.size() - 1) {
-                printLine('└', '─', '┘', '┴', padding, out);
-            } else {
-                printLine('├', '─', '┤', '┼', padding, out);
+        private void writePadded(String value, int width) throws IOException {
+            out.write(value);
+            writeRepeated(' ', width - value.length());
+        }
+
+        private void writeRepeated(char c, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.write(c);
             }
-            out.println(ANSI_RESET);
         }
-        out.flush();
+    }
+
+    private static final Map<PrintStream, Writer> writers = new WeakHashMap<>();
+
+    /**
+     * The buffered UTF-8 writer of the stream, created on first use and reused by every table written to it.
+     */
+    static synchronized Writer writer(PrintStream out) {
+        return writers.computeIfAbsent(out, o -> new BufferedWriter(new OutputStreamWriter(o, StandardCharsets.UTF_8), 65536));
+    }
+
+    /**
+     * Renders the result set as a table, formatting each cell once and writing through the stream's buffered writer.
+     */
+    public static void dumpResults(CFMetaData cfm, ResultSet results, PrintStream out) throws Exception {
+        if(results.rows.isEmpty()) return; // empty
+        Table table = new Table(cfm, results.metadata, writer(out));
+        table.write(results.rows);
+        table.finish();
     }
 }
@@ -69,6 +69,33 @@ public class TerminalUtils
         return string.length() - stripANSI(string).length();
     }
 
+    /**
+     * Prints a title underlined across its width, as the reports of describe, distribution and tombstones do.
+     */
+    public static void printSection(PrintStream out, String title, boolean color)
+    {
+        out.println((color ? "\u001B[1;34m" : "") + title);
+        out.println((color ? CYAN : "") + Strings.repeat("=", title.length()) + (color ? RESET : ""));
+    }
+
+    /**
+     * A byte count with its human readable size, padded to a report column.
+     */
+    public static String bytesColumn(long bytes, boolean color)
+    {
+        String size = bytes < 1000 ? Long.toString(bytes) :
+                format("%d %s", bytes, CassandraUtils.toByteString(bytes, true, color));
+        return size + Strings.repeat(" ", Math.max(0, 24 - size.length() + countANSI(size)));
+    }
+
+    /**
+     * The value as a percentage of the total, padded to a report column.
+     */
+    public static String share(long value, long total)
+    {
+        return format("%5.1f%%", total == 0 ? 0 : 100.0 * value / total);
+    }
+
     public static String wrapQuiet(String toWrap, boolean color)
     {
         if (Strings.isNullOrEmpty(toWrap))
@@ -0,0 +1,76 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.Pair;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits partition key bounds into contiguous, token ordered sub-ranges that can be scanned independently.
+ */
+public class TokenRanges {
+
+    /**
+     * Splits bounds into at most parts sub-ranges with evenly spaced tokens. The split points are taken between the
+     * first and last keys of the readers (clipped to the bounds) so unbounded scans are spread over the data actually
+     * present. Every split is after the last key of its token, so a partition always falls in a single sub-range.
+     * Returns the bounds unchanged if they cannot be split, i.e. with partitioners that cannot compute
+     * intermediate tokens.
+     */
+    public static List<AbstractBounds<PartitionPosition>> split(AbstractBounds<PartitionPosition> bounds,
+                                                                Collection<SSTableReader> readers,
+                                                                IPartitioner partitioner,
+                                                                int parts) {
+        if (parts <= 1 || readers.isEmpty()) {
+            return Collections.singletonList(bounds);
+        }
+        Token lo = null;
+        Token hi = null;
+        for (SSTableReader reader : readers) {
+            if (lo == null || reader.first.getToken().compareTo(lo) < 0) {
+                lo = reader.first.getToken();
+            }
+            if (hi == null || reader.last.getToken().compareTo(hi) > 0) {
+                hi = reader.last.getToken();
+            }
+        }
+        if (!bounds.left.isMinimum() && bounds.left.getToken().compareTo(lo) > 0) {
+            lo = bounds.left.getToken();
+        }
+        if (!bounds.right.isMinimum() && bounds.right.getToken().compareTo(hi) < 0) {
+            hi = bounds.right.getToken();
+        }
+        if (lo.compareTo(hi) >= 0) {
+            return Collections.singletonList(bounds);
+        }
+
+        List<AbstractBounds<PartitionPosition>> ranges = Lists.newArrayListWithCapacity(parts);
+        AbstractBounds<PartitionPosition> rest = bounds;
+        Token previous = lo;
+        for (int i = 1; i < parts; i++) {
+            Token token;
+            try {
+                token = partitioner.split(lo, hi, (double) i / parts);
+            } catch (UnsupportedOperationException e) {
+                return Collections.singletonList(bounds);
+            }
+            PartitionPosition position = token.maxKeyBound();
+            if (token.compareTo(previous) <= 0 || token.compareTo(hi) >= 0 || !rest.contains(position)) {
+                continue;
+            }
+            Pair<AbstractBounds<PartitionPosition>, AbstractBounds<PartitionPosition>> halves = rest.split(position);
+            ranges.add(halves.left);
+            rest = halves.right;
+            previous = token;
+        }
+        ranges.add(rest);
+        return ranges;
+    }
+}
@@ -0,0 +1,550 @@
+package com.csforge.sstable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MinMaxPriorityQueue;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.rows.*;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.csforge.sstable.TableTransformer.*;
+import static com.csforge.sstable.TerminalUtils.bytesColumn;
+import static com.csforge.sstable.TerminalUtils.printSection;
+import static com.csforge.sstable.TerminalUtils.share;
+
+/**
+ * Breaks down the tombstones and TTL'd cells of a set of sstables by kind and forecasts when compaction can reclaim
+ * their bytes. A tombstone can be purged gc_grace_seconds after its deletion time. An expiring cell loses its value
+ * when it expires and becomes a tombstone dated from when it was written, so the rest of it goes gc_grace_seconds after
+ * it was written, or on expiry if its TTL is longer than that. The forecast is an upper bound: compaction still has to
+ * include the sstable, and a tombstone is kept while an sstable outside the compaction may hold data it shadows.
+ * <p/>
+ * Bytes are the in-memory data sizes of the tombstones and cells, close to their uncompressed serialized sizes. The
+ * sstables are scanned in parallel, one per thread, and every partition of each is streamed once.
+ */
+public class Tombstones {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+    }
+
+    private static final Options options = new Options();
+
+    private static final String SCHEMA_OPTION = "s";
+
+    private static final String THREADS_OPTION = "t";
+
+    private static final String COUNT_OPTION = "n";
+
+    private static final String GCGS_OPTION = "gc_grace_seconds";
+
+    private static final String FORECAST_OPTION = "forecast";
+
+    private static final String JSON_OPTION = "json";
+
+    static final String FORECAST = "1h,1d,7d,30d";
+
+    static {
+        options.addOption(new Option(SCHEMA_OPTION, true, "Schema file to use."));
+        options.addOption(new Option(THREADS_OPTION, true, "Number of sstables scanned concurrently, default is the number of processors."));
+        options.addOption(new Option(COUNT_OPTION, true, "Number of top offending partitions to list, default 20."));
+        options.addOption(new Option(null, GCGS_OPTION, true, "The " + GCGS_OPTION + " to use, default the table's."));
+        options.addOption(new Option(null, FORECAST_OPTION, true, "Comma separated times from now to forecast, like 12h or 7d, default " + FORECAST + "."));
+        options.addOption(new Option(null, JSON_OPTION, false, "Output json instead of text."));
+    }
+
+    public enum Kind {
+        PARTITION("Partition deletions"),
+        RANGE("Range tombstones"),
+        ROW("Row deletions"),
+        CELL("Cell tombstones"),
+        TTL("TTL'd cells");
+
+        public final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final int KINDS = Kind.values().length;
+
+    /**
+     * A partition of an sstable with its tombstones and TTL'd cells by kind and their bytes.
+     */
+    public static class Offender {
+        public final ByteBuffer key;
+        public final File sstable;
+        public final long[] counts;
+        public final long bytes;
+
+        Offender(ByteBuffer key, File sstable, long[] counts, long bytes) {
+            this.key = key;
+            this.sstable = sstable;
+            this.counts = counts;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Tombstones a read of the whole partition has to go through, TTL'd cells excluded.
+         */
+        public long tombstones() {
+            return counts[Kind.PARTITION.ordinal()] + counts[Kind.RANGE.ordinal()] + counts[Kind.ROW.ordinal()] + counts[Kind.CELL.ordinal()];
+        }
+    }
+
+    private static final Comparator<Offender> OFFENDER_ORDER = Comparator.comparingLong(Offender::tombstones)
+            .thenComparingLong(o -> o.bytes).reversed();
+
+    private final List<File> sstables;
+
+    private final CFMetaData metadata;
+
+    private final int gcGraceSeconds;
+
+    private final int nowInSec = FBUtilities.nowInSeconds();
+
+    int top = 20;
+
+    /**
+     * Seconds from now of each forecast, ascending.
+     */
+    long[] forecast = parseForecast(FORECAST);
+
+    public long partitions = 0;
+    public long partitionsWithTombstones = 0;
+    public long dataBytes = 0;
+    public final long[] counts = new long[KINDS];
+    public final long[] bytes = new long[KINDS];
+    public final PercentileHistogram perPartition = new PercentileHistogram();
+
+    /**
+     * Bytes that can be reclaimed now, by each forecast time and later, not cumulative.
+     */
+    public long[] reclaimable;
+
+    public List<Offender> offenders;
+
+    public Tombstones(Collection<File> sstables, CFMetaData metadata, int gcGraceSeconds) {
+        this.sstables = Lists.newArrayList(sstables);
+        this.metadata = metadata;
+        this.gcGraceSeconds = gcGraceSeconds;
+    }
+
+    /**
+     * Parses durations like 30m, 12h or 7d, seconds without a unit.
+     */
+    static long[] parseForecast(String times) {
+        return Arrays.stream(times.split(",")).map(String::trim).filter(t -> !t.isEmpty()).mapToLong(t -> {
+            char unit = Character.toLowerCase(t.charAt(t.length() - 1));
+            if (Character.isDigit(unit)) {
+                return Long.parseLong(t);
+            }
+            long value = Long.parseLong(t.substring(0, t.length() - 1));
+            switch (unit) {
+                case 's':
+                    return value;
+                case 'm':
+                    return TimeUnit.MINUTES.toSeconds(value);
+                case 'h':
+                    return TimeUnit.HOURS.toSeconds(value);
+                case 'd':
+                    return TimeUnit.DAYS.toSeconds(value);
+                default:
+                    throw new IllegalArgumentException("Unknown unit of " + t);
+            }
+        }).sorted().toArray();
+    }
+
+    private static String duration(long seconds) {
+        if (seconds % 86400 == 0)
+            return seconds / 86400 + "d";
+        if (seconds % 3600 == 0)
+            return seconds / 3600 + "h";
+        if (seconds % 60 == 0)
+            return seconds / 60 + "m";
+        return seconds + "s";
+    }
+
+    /**
+     * Counts of one sstable, merged into the totals once every sstable is scanned.
+     */
+    private class Result {
+        long partitions = 0;
+        long partitionsWithTombstones = 0;
+        final long[] counts = new long[KINDS];
+        final long[] bytes = new long[KINDS];
+        final long[] reclaimable = new long[forecast.length + 2];
+        final PercentileHistogram perPartition = new PercentileHistogram();
+        final MinMaxPriorityQueue<Offender> offenders = MinMaxPriorityQueue.orderedBy(OFFENDER_ORDER).maximumSize(top).create();
+
+        // of the partition being scanned
+        final long[] partitionCounts = new long[KINDS];
+        long partitionBytes = 0;
+
+        /**
+         * Adds bytes that can be purged at the given time, in seconds.
+         */
+        void reclaim(long purgeTime, long size) {
+            int i = 0;
+            while (i < forecast.length + 1 && purgeTime > nowInSec + (i == 0 ? 0 : forecast[i - 1]))
+                i++;
+            reclaimable[i] += size;
+        }
+
+        void add(Kind kind, DeletionTime deletion, long size) {
+            add(kind, size);
+            reclaim((long) deletion.localDeletionTime() + gcGraceSeconds, size);
+        }
+
+        void add(Kind kind, long size) {
+            counts[kind.ordinal()]++;
+            bytes[kind.ordinal()] += size;
+            partitionCounts[kind.ordinal()]++;
+            partitionBytes += size;
+        }
+    }
+
+    /**
+     * @return the number of cells of the row
+     */
+    private long add(Result result, Row row) {
+        long cells = 0;
+        if (!row.deletion().isLive()) {
+            result.add(Kind.ROW, row.deletion().time(), row.clustering().dataSize() + row.deletion().time().dataSize());
+        }
+        for (ColumnData data : row) {
+            if (data.column().isComplex()) {
+                ComplexColumnData complex = (ComplexColumnData) data;
+                if (!complex.complexDeletion().isLive()) {
+                    result.add(Kind.CELL, complex.complexDeletion(), complex.complexDeletion().dataSize());
+                }
+                for (Cell cell : complex) {
+                    add(result, cell);
+                    cells++;
+                }
+            } else {
+                add(result, (Cell) data);
+                cells++;
+            }
+        }
+        return cells;
+    }
+
+    private void add(Result result, Cell cell) {
+        if (cell.isTombstone()) {
+            result.add(Kind.CELL, cell.dataSize());
+            result.reclaim((long) cell.localDeletionTime() + gcGraceSeconds, cell.dataSize());
+        } else if (cell.isExpiring()) {
+            // compaction turns an expired cell into a tombstone deleted at its write time (expiry - ttl), dropping its value
+            int value = cell.value().remaining();
+            long expiry = cell.localDeletionTime();
+            result.add(Kind.TTL, cell.dataSize());
+            result.reclaim(expiry, value);
+            result.reclaim(Math.max(expiry, expiry - cell.ttl() + gcGraceSeconds), cell.dataSize() - value);
+        }
+    }
+
+    Result scan(File sstable, SSTableStats.Progress progress) throws IOException {
+        Result result = new Result();
+        SSTableReader reader = SSTableReaderPool.instance.acquire(sstable, metadata);
+        try (ISSTableScanner scanner = reader.getScanner()) {
+            while (scanner.hasNext()) {
+                try (UnfilteredRowIterator partition = scanner.next()) {
+                    Arrays.fill(result.partitionCounts, 0);
+                    result.partitionBytes = 0;
+                    long cells = 0;
+                    if (!partition.partitionLevelDeletion().isLive()) {
+                        DeletionTime deletion = partition.partitionLevelDeletion();
+                        result.add(Kind.PARTITION, deletion, partition.partitionKey().getKey().remaining() + deletion.dataSize());
+                    }
+                    if (!partition.staticRow().isEmpty()) {
+                        cells += add(result, partition.staticRow());
+                    }
+                    while (partition.hasNext()) {
+                        Unfiltered unfiltered = partition.next();
+                        if (unfiltered.isRow()) {
+                            cells += add(result, (Row) unfiltered);
+                        } else {
+                            RangeTombstoneMarker marker = (RangeTombstoneMarker) unfiltered;
+                            long size = marker.clustering().dataSize();
+                            DeletionTime deletion;
+                            if (marker.isBoundary()) {
+                                RangeTombstoneBoundaryMarker boundary = (RangeTombstoneBoundaryMarker) marker;
+                                deletion = boundary.endDeletionTime().localDeletionTime() > boundary.startDeletionTime().localDeletionTime() ?
+                                        boundary.endDeletionTime() : boundary.startDeletionTime();
+                                size += boundary.endDeletionTime().dataSize() + boundary.startDeletionTime().dataSize();
+                            } else {
+                                deletion = ((RangeTombstoneBoundMarker) marker).deletionTime();
+                                size += deletion.dataSize();
+                            }
+                            // a range is counted once, by the marker opening it
+                            if (marker.isOpen(false)) {
+                                result.add(Kind.RANGE, deletion, size);
+                            } else {
+                                result.bytes[Kind.RANGE.ordinal()] += size;
+                                result.partitionBytes += size;
+                                result.reclaim((long) deletion.localDeletionTime() + gcGraceSeconds, size);
+                            }
+                        }
+                    }
+                    result.partitions++;
+                    ByteBuffer key = partition.partitionKey().getKey();
+                    Offender offender = new Offender(key, sstable, result.partitionCounts, result.partitionBytes);
+                    result.perPartition.add(offender.tombstones());
+                    if (offender.tombstones() > 0) {
+                        result.partitionsWithTombstones++;
+                    }
+                    if (offender.tombstones() + offender.counts[Kind.TTL.ordinal()] > 0 && (result.offenders.size() < top ||
+                            OFFENDER_ORDER.compare(offender, result.offenders.peekLast()) < 0)) {
+                        result.offenders.add(new Offender(ByteBufferUtil.clone(key), sstable,
+                                result.partitionCounts.clone(), result.partitionBytes));
+                    }
+                    if (progress != null) {
+                        progress.add(cells);
+                    }
+                }
+            }
+        } finally {
+            SSTableReaderPool.instance.release(reader);
+        }
+        return result;
+    }
+
+    /**
+     * Scans every sstable on a pool of threads and merges their counts.
+     *
+     * @param progress whether to show the progress of the scans on stdout
+     */
+    public void run(int threads, boolean progress) throws Exception {
+        long cells = 0;
+        for (File sstable : sstables) {
+            SSTableStats stats = SSTableStats.read(sstable);
+            cells += stats.totalColumnsSet;
+            dataBytes += stats.bytes;
+        }
+        SSTableStats.Progress tracker = progress ?
+                new SSTableStats.Progress(cells, String.format("Scanning %d SSTable%s", sstables.size(), sstables.size() > 1 ? "s" : "")) :
+                null;
+        reclaimable = new long[forecast.length + 2];
+        MinMaxPriorityQueue<Offender> top = MinMaxPriorityQueue.orderedBy(OFFENDER_ORDER).maximumSize(this.top).create();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sstables.size())),
+                new NamedThreadFactory("Tombstones"));
+        try {
+            List<Future<Result>> results = Lists.newArrayList();
+            for (File sstable : sstables) {
+                results.add(pool.submit(() -> scan(sstable, tracker)));
+            }
+            for (Future<Result> future : results) {
+                Result result = future.get();
+                partitions += result.partitions;
+                partitionsWithTombstones += result.partitionsWithTombstones;
+                for (int i = 0; i < KINDS; i++) {
+                    counts[i] += result.counts[i];
+                    bytes[i] += result.bytes[i];
+                }
+                for (int i = 0; i < reclaimable.length; i++) {
+                    reclaimable[i] += result.reclaimable[i];
+                }
+                perPartition.merge(result.perPartition);
+                top.addAll(result.offenders);
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
+        }
+        if (tracker != null) {
+            tracker.clear(System.out);
+        }
+        offenders = top.stream().sorted(OFFENDER_ORDER).collect(Collectors.toList());
+    }
+
+    public void print(PrintStream out, boolean color) {
+        String c = color ? ANSI_BLUE : "";
+        String s = color ? ANSI_CYAN : "";
+        String r = color ? ANSI_RESET : "";
+
+        printSection(out, String.format("Tombstones of %d SSTable%s", sstables.size(), sstables.size() > 1 ? "s" : ""), color);
+        out.printf("%sPartitions:%s %d, %d %s with tombstones%n", c, r, partitions, partitionsWithTombstones,
+                CassandraUtils.wrapQuiet(share(partitionsWithTombstones, partitions).trim(), color));
+        out.printf("%sData:%s %d bytes %s%n", c, r, dataBytes, CassandraUtils.toByteString(dataBytes, true, color));
+        out.printf("%sgc_grace_seconds:%s %d %s%n", c, r, gcGraceSeconds,
+                CassandraUtils.toDurationString(gcGraceSeconds, TimeUnit.SECONDS, color));
+        out.println();
+        out.printf("   %s%-19s %s|%s %12s %s|%s %-24s %s|%s %6s%s%n", c, "Kind", s, c, "Count", s, c, "Bytes", s, c, "% Data", r);
+        out.printf("%s%s%s%n", s, Strings.repeat("-", 3 + 19 + 3 + 12 + 3 + 24 + 3 + 6), r);
+        for (Kind kind : Kind.values()) {
+            out.printf("   %-19s %s|%s %12d %s|%s %s %s|%s %6s%n", kind.label, s, r, counts[kind.ordinal()], s, r,
+                    bytesColumn(bytes[kind.ordinal()], color), s, r, share(bytes[kind.ordinal()], dataBytes));
+        }
+        long total = Arrays.stream(bytes).sum();
+        out.printf("   %-19s %s|%s %12d %s|%s %s %s|%s %6s%n", "Total", s, r, Arrays.stream(counts).sum(), s, r,
+                bytesColumn(total, color), s, r, share(total, dataBytes));
+        out.println();
+        out.printf("%sTombstones per partition:%s 50th %d, 95th %d, 99th %d, max %d%n", c, r, perPartition.percentile(.5),
+                perPartition.percentile(.95), perPartition.percentile(.99), perPartition.max());
+        out.println();
+
+        printSection(out, "Reclaimable Bytes", color);
+        out.printf("   %s%-8s %s|%s %-19s %s|%s %-24s %s|%s %6s%s%n", c, "By", s, c, "Time", s, c, "Bytes", s, c, "% Data", r);
+        out.printf("%s%s%s%n", s, Strings.repeat("-", 3 + 8 + 3 + 19 + 3 + 24 + 3 + 6), r);
+        long cumulative = 0;
+        for (int i = 0; i <= forecast.length; i++) {
+            cumulative += reclaimable[i];
+            long at = nowInSec + (i == 0 ? 0 : forecast[i - 1]);
+            out.printf("   %-8s %s|%s %-19s %s|%s %s %s|%s %6s%n", i == 0 ? "now" : "+" + duration(forecast[i - 1]), s, r,
+                    CassandraUtils.toDateString(at, TimeUnit.SECONDS, false), s, r,
+                    bytesColumn(cumulative, color), s, r, share(cumulative, dataBytes));
+        }
+        out.printf("%sBytes reclaimable later:%s %s%n", c, r, bytesColumn(reclaimable[forecast.length + 1], color).trim());
+        out.println();
+
+        printSection(out, "Top Offenders", color);
+        List<String> keys = offenders.stream().map(o -> metadata.getKeyValidator().getString(o.key)).collect(Collectors.toList());
+        int width = Math.max(3, keys.stream().mapToInt(String::length).max().orElse(0));
+        out.printf("   %s%10s %s|%s %9s %s|%s %7s %s|%s %7s %s|%s %8s %s|%s %7s %s|%s %-24s %s|%s %-" + width + "s %s|%s SSTable%s%n",
+                c, "Tombstones", s, c, "Partition", s, c, "Range", s, c, "Row", s, c, "Cell", s, c, "TTL", s, c, "Bytes", s, c, "Key", s, c, r);
+        out.printf("%s%s%s%n", s, Strings.repeat("-", 3 + 10 + 3 + 9 + 3 + 7 + 3 + 7 + 3 + 8 + 3 + 7 + 3 + 24 + 3 + width + 3 + 7), r);
+        for (int i = 0; i < offenders.size(); i++) {
+            Offender o = offenders.get(i);
+            out.printf("   %10d %s|%s %9d %s|%s %7d %s|%s %7d %s|%s %8d %s|%s %7d %s|%s %s %s|%s %-" + width + "s %s|%s %s%n",
+                    o.tombstones(), s, r, o.counts[Kind.PARTITION.ordinal()], s, r, o.counts[Kind.RANGE.ordinal()], s, r,
+                    o.counts[Kind.ROW.ordinal()], s, r, o.counts[Kind.CELL.ordinal()], s, r, o.counts[Kind.TTL.ordinal()], s, r, bytesColumn(o.bytes, color), s, r, keys.get(i), s, r, o.sstable.getName());
+        }
+    }
+
+    public void writeJson(Writer out) throws IOException {
+        JsonGenerator json = new JsonFactory().createGenerator(out).useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeNumberField("sstables", sstables.size());
+        json.writeNumberField("partitions", partitions);
+        json.writeNumberField("partitions_with_tombstones", partitionsWithTombstones);
+        json.writeNumberField("data_bytes", dataBytes);
+        json.writeNumberField("gc_grace_seconds", gcGraceSeconds);
+        json.writeNumberField("now", nowInSec);
+        json.writeObjectFieldStart("kinds");
+        for (Kind kind : Kind.values()) {
+            json.writeObjectFieldStart(kind.name().toLowerCase());
+            json.writeNumberField("count", counts[kind.ordinal()]);
+            json.writeNumberField("bytes", bytes[kind.ordinal()]);
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+        json.writeObjectFieldStart("tombstones_per_partition");
+        json.writeNumberField("p50", perPartition.percentile(.5));
+        json.writeNumberField("p95", perPartition.percentile(.95));
+        json.writeNumberField("p99", perPartition.percentile(.99));
+        json.writeNumberField("max", perPartition.max());
+        json.writeEndObject();
+        json.writeArrayFieldStart("reclaimable");
+        long cumulative = 0;
+        for (int i = 0; i <= forecast.length; i++) {
+            cumulative += reclaimable[i];
+            json.writeStartObject();
+            json.writeNumberField("after_seconds", i == 0 ? 0 : forecast[i - 1]);
+            json.writeNumberField("bytes", cumulative);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeNumberField("reclaimable_later", reclaimable[forecast.length + 1]);
+        json.writeArrayFieldStart("offenders");
+        for (Offender o : offenders) {
+            json.writeStartObject();
+            json.writeStringField("key", metadata.getKeyValidator().getString(o.key));
+            json.writeStringField("sstable", o.sstable.getAbsolutePath());
+            json.writeNumberField("tombstones", o.tombstones());
+            for (Kind kind : Kind.values()) {
+                json.writeNumberField(kind.name().toLowerCase(), o.counts[kind.ordinal()]);
+            }
+            json.writeNumberField("bytes", o.bytes);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+        out.write(System.lineSeparator());
+        out.flush();
+    }
+
+    public static void main(String... args) {
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+            if (cmd.getArgs().length == 0) {
+                throw new ParseException("No sstables given");
+            }
+        } catch (ParseException e) {
+            System.err.format("%sFailure parsing arguments: %s%s%n%n", ANSI_RED, e.getMessage(), ANSI_RESET);
+            try (PrintWriter errWriter = new PrintWriter(System.err, true)) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp(errWriter, 120, "tombstones sstable|directory|glob [...]",
+                        String.format("%nBreaks down tombstones and TTL'd cells and forecasts when their bytes can be reclaimed%nOptions:"),
+                        options, 2, 1, "", true);
+            } finally {
+                System.exit(-1);
+            }
+        }
+
+        String schemaPath = cmd.getOptionValue(SCHEMA_OPTION);
+        if (schemaPath != null) {
+            System.setProperty("sstabletools.schema", schemaPath);
+        }
+
+        try {
+            List<File> sstables = Lists.newArrayList();
+            for (String path : cmd.getArgs()) {
+                sstables.addAll(CassandraUtils.sstablesFromPath(path));
+            }
+            if (sstables.isEmpty()) {
+                System.err.println("No sstables found in " + String.join(", ", cmd.getArgs()));
+                System.exit(-3);
+            }
+            CFMetaData metadata = CassandraUtils.tableFromBestSource(sstables.get(0));
+            int gcGraceSeconds = cmd.hasOption(GCGS_OPTION) ?
+                    Integer.parseInt(cmd.getOptionValue(GCGS_OPTION)) :
+                    metadata.params.gcGraceSeconds;
+            int threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION,
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            Tombstones tombstones = new Tombstones(sstables, metadata, gcGraceSeconds);
+            tombstones.top = Math.max(1, Integer.parseInt(cmd.getOptionValue(COUNT_OPTION, "20")));
+            tombstones.forecast = parseForecast(cmd.getOptionValue(FORECAST_OPTION, FORECAST));
+            if (cmd.hasOption(JSON_OPTION)) {
+                tombstones.run(threads, false);
+                tombstones.writeJson(new PrintWriter(System.out));
+            } else {
+                tombstones.run(threads, true);
+                tombstones.print(System.out, true);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(-2);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.ColumnIdentifier;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.transform.Transformation;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts a query to data written within a window of write timestamps (in microseconds, like writetime()).
+ * <p/>
+ * CQL does not allow writetime() in a WHERE clause, so <code>writetime(col) op value</code> relations are taken out of
+ * the statement before it is parsed. <code>writetime(*)</code> matches rows with any timestamp (liveness, deletion or
+ * cell) in the window and is what DUMP SINCE/UNTIL use. Values are microseconds or quoted timestamps. sstables whose
+ * min/max timestamps fall entirely outside the window are never scanned, so only cells from sstables overlapping the
+ * window are read.
+ */
+public class WriteTimeFilter {
+
+    private static final Pattern RELATION = Pattern.compile(
+            "(?i)\\bwritetime\\s*\\(\\s*(\\*|\"(?:[^\"]|\"\")+\"|\\w+)\\s*\\)\\s*(>=|<=|>|<|=)\\s*('[^']*'|-?\\d+)");
+
+    private static final String CLAUSE_END = "(?=LIMIT\\b|ALLOW\\b|GROUP\\b|ORDER\\b|BIND\\b|;|$)";
+
+    private static final Pattern LEADING_AND = Pattern.compile("(?i)\\bWHERE\\s+AND\\b");
+
+    private static final Pattern DOUBLE_AND = Pattern.compile("(?i)\\bAND\\s+AND\\b");
+
+    private static final Pattern TRAILING_AND = Pattern.compile("(?i)\\bAND\\s*" + CLAUSE_END);
+
+    private static final Pattern EMPTY_WHERE = Pattern.compile("(?i)\\bWHERE\\s*" + CLAUSE_END);
+
+    private static class Window {
+        final ColumnDefinition column;
+        final long min;
+        final long max;
+
+        Window(ColumnDefinition column, long min, long max) {
+            this.column = column;
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean contains(long timestamp) {
+            return timestamp >= min && timestamp <= max;
+        }
+    }
+
+    private final List<Window> windows;
+
+    private final long min;
+
+    private final long max;
+
+    private WriteTimeFilter(List<Window> windows) {
+        this.windows = windows;
+        long min = Long.MIN_VALUE;
+        long max = Long.MAX_VALUE;
+        for (Window w : windows) {
+            min = Math.max(min, w.min);
+            max = Math.min(max, w.max);
+        }
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Parses the writetime relations in the statement, or returns null if there are none.
+     */
+    public static WriteTimeFilter parse(String cql, CFMetaData cfm) throws InvalidRequestException {
+        List<Window> windows = Lists.newArrayList();
+        Matcher m = RELATION.matcher(cql);
+        while (m.find()) {
+            ColumnDefinition column = null;
+            if (!m.group(1).equals("*")) {
+                String name = m.group(1);
+                column = name.startsWith("\"")
+                        ? cfm.getColumnDefinition(new ColumnIdentifier(name.substring(1, name.length() - 1).replace("\"\"", "\""), true))
+                        : cfm.getColumnDefinition(new ColumnIdentifier(name.toLowerCase(), true));
+                if (column == null) {
+                    throw new InvalidRequestException("Undefined column name " + name + " in writetime()");
+                }
+                if (column.isPrimaryKeyColumn() || column.type.isMultiCell()) {
+                    throw new InvalidRequestException("Cannot use writetime() on primary key or non-frozen collection column " + name);
+                }
+            }
+            long value = timestamp(m.group(3));
+            switch (m.group(2)) {
+                case ">":
+                    windows.add(new Window(column, value + 1, Long.MAX_VALUE));
+                    break;
+                case ">=":
+                    windows.add(new Window(column, value, Long.MAX_VALUE));
+                    break;
+                case "<":
+                    windows.add(new Window(column, Long.MIN_VALUE, value - 1));
+                    break;
+                case "<=":
+                    windows.add(new Window(column, Long.MIN_VALUE, value));
+                    break;
+                default:
+                    windows.add(new Window(column, value, value));
+            }
+        }
+        return windows.isEmpty() ? null : new WriteTimeFilter(windows);
+    }
+
+    /**
+     * The statement with its writetime relations (and any WHERE/AND left dangling by them) removed.
+     */
+    public static String strip(String cql) {
+        String stripped = RELATION.matcher(cql).replaceAll("");
+        String previous;
+        do {
+            previous = stripped;
+            stripped = DOUBLE_AND.matcher(stripped).replaceAll("AND");
+        } while (!stripped.equals(previous));
+        stripped = LEADING_AND.matcher(stripped).replaceAll("WHERE");
+        stripped = TRAILING_AND.matcher(stripped).replaceAll("");
+        return EMPTY_WHERE.matcher(stripped).replaceAll("").trim();
+    }
+
+    /**
+     * Microseconds since epoch from a number, or from a quoted timestamp such as '2017-01-01 00:00:00+0000'.
+     */
+    static long timestamp(String value) throws InvalidRequestException {
+        if (value.startsWith("'")) {
+            try {
+                return TimestampType.instance.compose(TimestampType.instance.fromString(value.substring(1, value.length() - 1))).getTime() * 1000;
+            } catch (Exception e) {
+                throw new InvalidRequestException("Invalid timestamp " + value + ": " + e.getMessage());
+            }
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * False if every timestamp in the sstable is outside the window. sstables newer than the window are kept if they
+     * may have tombstones, since those could shadow data written within it.
+     */
+    public boolean mayInclude(SSTableReader reader) {
+        if (reader.getMaxTimestamp() < min) {
+            return false;
+        }
+        return reader.getMinTimestamp() <= max || reader.mayHaveTombstones();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Window w : windows) {
+            if (sb.length() > 0) {
+                sb.append(" AND ");
+            }
+            sb.append("writetime(").append(w.column == null ? "*" : w.column.name.toCQLString()).append(") IN [")
+                    .append(w.min == Long.MIN_VALUE ? "-inf" : Long.toString(w.min)).append(", ")
+                    .append(w.max == Long.MAX_VALUE ? "+inf" : Long.toString(w.max)).append(']');
+        }
+        return sb.toString();
+    }
+
+    public UnfilteredPartitionIterator filter(UnfilteredPartitionIterator partitions) {
+        return Transformation.apply(partitions, new Transformation<UnfilteredRowIterator>() {
+            protected UnfilteredRowIterator applyToPartition(UnfilteredRowIterator partition) {
+                Row staticRow = partition.staticRow();
+                UnfilteredRowIterator filtered = Transformation.apply(partition, new Transformation<UnfilteredRowIterator>() {
+                    protected Row applyToRow(Row row) {
+                        return matches(row, staticRow) ? row : null;
+                    }
+                });
+                if (!filtered.hasNext() && !(isAny() && (inWindow(partition.partitionLevelDeletion()) || matches(staticRow, staticRow)))) {
+                    filtered.close();
+                    return null;
+                }
+                return filtered;
+            }
+        });
+    }
+
+    private boolean isAny() {
+        for (Window w : windows) {
+            if (w.column != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean inWindow(DeletionTime deletion) {
+        return !deletion.isLive() && deletion.markedForDeleteAt() >= min && deletion.markedForDeleteAt() <= max;
+    }
+
+    private boolean matches(Row row, Row staticRow) {
+        for (Window w : windows) {
+            if (w.column == null) {
+                if (!anyInWindow(row, w)) {
+                    return false;
+                }
+            } else {
+                Cell cell = (w.column.isStatic() ? staticRow : row).getCell(w.column);
+                if (cell == null || !w.contains(cell.timestamp())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean anyInWindow(Row row, Window w) {
+        LivenessInfo liveness = row.primaryKeyLivenessInfo();
+        if (!liveness.isEmpty() && w.contains(liveness.timestamp())) {
+            return true;
+        }
+        if (!row.deletion().isLive() && w.contains(row.deletion().time().markedForDeleteAt())) {
+            return true;
+        }
+        for (Cell cell : row.cells()) {
+            if (w.contains(cell.timestamp())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -6,7 +6,12 @@ import org.apache.cassandra.config.CFMetaData;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
 
 public class TestCqlsh {
 
@@ -30,4 +35,112 @@ public class TestCqlsh {
         sh.doUse("USE " + path.getParentFile().getAbsolutePath());
         Assert.assertTrue(sh.sstables.contains(path.getAbsoluteFile()));
     }
+
+    @Test
+    public void testParseBindValues() throws Exception {
+        Assert.assertEquals(Arrays.asList("a", "it's, here", null, "42"),
+                Cqlsh.parseBindValues("'a', 'it''s, here' ,null, 42"));
+        Assert.assertTrue(Cqlsh.parseBindValues("").isEmpty());
+    }
+
+    @Test
+    public void testDumpWhereClause() throws Exception {
+        Assert.assertEquals("where key = '1'", Cqlsh.dumpWhereClause("dump where key = '1'"));
+        Assert.assertEquals("WHERE writetime(*) >= 10 AND writetime(*) <= '2017-01-01' AND key = '1'",
+                Cqlsh.dumpWhereClause("DUMP SINCE 10 UNTIL '2017-01-01' WHERE key = '1'"));
+        Assert.assertEquals("WHERE writetime(*) >= 10 LIMIT 5", Cqlsh.dumpWhereClause("DUMP LIMIT 5 SINCE 10"));
+    }
+
+    @Test
+    public void testCachedPlan() throws Exception {
+        Cqlsh sh = new Cqlsh();
+        File path = Utils.getSSTable("ma", 3);
+        sh.doUse("USE " + path.getAbsolutePath());
+        CassandraUtils.cqlOverride = Utils.CQL3;
+        try {
+            Query first = sh.getQuery("SELECT * FROM sstables WHERE key = ? BIND ('1')");
+            Query second = sh.getQuery("SELECT * FROM sstables WHERE key = ? BIND ('2')");
+            Assert.assertSame(first.restrictions, second.restrictions);
+            Assert.assertEquals(9, second.getResults().getResultSet().rows.size());
+            // the statement is parsed once and looked up by its text afterwards
+            Assert.assertSame(QueryCache.instance.statement("SELECT * FROM sstables WHERE key = ? "),
+                    QueryCache.instance.statement("SELECT * FROM sstables WHERE key = ?"));
+        } finally {
+            CassandraUtils.cqlOverride = null;
+        }
+    }
+
+    @Test
+    public void testCachedPlanFromPath() throws Exception {
+        Cqlsh sh = new Cqlsh();
+        File users = Utils.getSSTable("ma", 2);
+        sh.doUse("USE " + Utils.getSSTable("ma", 3).getAbsolutePath());
+        Query first = sh.getQuery("SELECT * FROM \"" + users.getAbsolutePath() + "\"");
+        Assert.assertEquals(Collections.singleton(users.getAbsoluteFile()), first.path);
+        Assert.assertTrue(SSTableReaderPool.sameShape(first.cfm, CassandraUtils.tableFromBestSource(users)));
+
+        // the plan is keyed on the sstable named in FROM, not on the current sstables
+        sh.doUse("USE " + Utils.getSSTable("ma", 1).getAbsolutePath());
+        Assert.assertSame(first, sh.getQuery("SELECT * FROM \"" + users.getAbsolutePath() + "\""));
+    }
+
+    @Test
+    public void testPrintTable() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query("SELECT * FROM \"" + path + "\"", Collections.singleton(path), cfdata);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (QueryCursor cursor = q.cursor()) {
+            Assert.assertEquals(36, Cqlsh.printTable(cfdata, cursor, 10, new PrintStream(out)));
+        }
+
+        // the batches of 10 rows make up one table, the header and every row one line each
+        String[] lines = out.toString("UTF-8").split(System.lineSeparator());
+        Assert.assertEquals(1, Arrays.stream(lines).filter(line -> line.contains("┌")).count());
+        Assert.assertEquals(1, Arrays.stream(lines).filter(line -> line.contains("└")).count());
+        Assert.assertEquals(37, Arrays.stream(lines).filter(line -> line.startsWith(" " + TableTransformer.ANSI_WHITE + "│")).count());
+        Assert.assertEquals(2 + 37 + 36, lines.length);
+
+        // a page renders the same table
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        TableTransformer.dumpResults(cfdata, q.getResults().getResultSet(), new PrintStream(page));
+        Assert.assertEquals(out.toString("UTF-8"), page.toString("UTF-8"));
+    }
+
+    @Test
+    public void testOutputFormats() throws Exception {
+        Cqlsh sh = new Cqlsh();
+        sh.doUse("USE " + Utils.getSSTable("ma", 3).getAbsolutePath());
+        CassandraUtils.cqlOverride = Utils.CQL3;
+        try {
+            StringWriter json = new StringWriter();
+            sh.outputFormat = OutputWriter.Format.JSON;
+            sh.output = json;
+            sh.evalLine("SELECT key, key2 FROM sstables WHERE key = '1' LIMIT 2;");
+            sh.evalLine("SELECT JSON key, key2 FROM sstables WHERE key = '1' LIMIT 2;");
+            String[] lines = json.toString().split("\n");
+            Assert.assertEquals(4, lines.length);
+            // SELECT JSON rows are the same objects as those of a plain SELECT
+            Assert.assertEquals(lines[0], lines[2]);
+            Assert.assertEquals(lines[1], lines[3]);
+            Assert.assertTrue(lines[0].startsWith("{\"key\": \"1\", \"key2\": "));
+
+            StringWriter csv = new StringWriter();
+            sh.outputFormat = OutputWriter.Format.CSV;
+            sh.output = csv;
+            sh.evalLine("SELECT key, key2 FROM sstables WHERE key = '1' LIMIT 2;");
+            lines = csv.toString().split("\n");
+            Assert.assertEquals(3, lines.length);
+            Assert.assertEquals("key,key2", lines[0]);
+            Assert.assertTrue(lines[1].startsWith("1,"));
+
+            StringWriter tsv = new StringWriter();
+            sh.outputFormat = OutputWriter.Format.TSV;
+            sh.output = tsv;
+            sh.evalLine("SELECT key, key2 FROM sstables WHERE key = '1' LIMIT 2;");
+            Assert.assertEquals(csv.toString().replace(',', '\t'), tsv.toString());
+        } finally {
+            CassandraUtils.cqlOverride = null;
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.List;
+
+public class TestDescribe {
+    @Test
+    public void testSummary() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.sstables = 3;
+            generate.partitions = 50;
+            generate.rows = 4;
+            List<File> files = generate.run();
+
+            Describe describe = new Describe(files, 2, 0);
+            List<SSTableStats> all = describe.analyze(false);
+            Assert.assertEquals(3, all.size());
+            SSTableStats summary = SSTableStats.summarize(all);
+            Assert.assertEquals(3, summary.sstables);
+            Assert.assertEquals(200, summary.rows);
+            Assert.assertEquals(all.stream().mapToLong(s -> s.partitions).sum(), summary.partitions);
+            Assert.assertEquals(all.stream().mapToLong(s -> s.bytes).sum(), summary.bytes);
+            Assert.assertEquals(summary.partitions, summary.partitionSizes.count());
+            Assert.assertEquals(50, summary.cardinality.cardinality(), 2);
+
+            StringWriter json = new StringWriter();
+            describe.writeJson(json);
+            Assert.assertTrue(json.toString().contains("\"summary\""));
+            Assert.assertTrue(json.toString().contains("\"path\" : \"" + files.get(0).getAbsolutePath() + "\""));
+        }
+    }
+
+    @Test
+    public void testMetadataOnlyAndSample() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.partitions = 2000;
+            generate.rows = 4;
+            List<File> files = generate.run();
+
+            Describe describe = new Describe(files, 1, 0);
+            describe.metadataOnly = true;
+            SSTableStats metadata = describe.analyze(false).get(0);
+            Assert.assertFalse(metadata.scanned);
+            Assert.assertEquals(8000, metadata.totalRows);
+
+            describe = new Describe(files, 1, 0);
+            describe.sample = 0.25;
+            SSTableStats sampled = describe.analyze(false).get(0);
+            Assert.assertTrue(sampled.scanned);
+            Assert.assertTrue(sampled.sample < 0.5);
+            Assert.assertEquals(2000, sampled.partitions, 200);
+            Assert.assertEquals(4 * sampled.partitions, sampled.rows, 4);
+        }
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.sstables = 2;
+            generate.partitions = 100;
+            generate.rows = 5;
+            generate.cellSize = 16;
+            generate.tombstoneRatio = 0.2;
+            List<File> files = generate.run();
+
+            Describe describe = new Describe(files, 2, 0);
+            describe.profile = true;
+            SSTableStats summary = SSTableStats.summarize(describe.analyze(false));
+            ColumnProfile val = summary.profiles.get("val");
+            Assert.assertEquals(500, summary.profiledRows);
+            Assert.assertEquals(summary.profiledRows - summary.tombstones, val.present);
+            Assert.assertEquals(val.present, val.distinct(), val.present / 50.0);
+            Assert.assertEquals(16, val.sizes.max());
+            Assert.assertEquals(SSTableStats.TOP, val.largest().size());
+        }
+    }
+}
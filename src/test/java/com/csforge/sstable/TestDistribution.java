@@ -0,0 +1,53 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class TestDistribution {
+    @Test
+    public void testRanges() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.sstables = 2;
+            generate.partitions = 1000;
+            generate.rows = 4;
+            List<File> files = generate.run();
+            Murmur3Partitioner partitioner = Murmur3Partitioner.instance;
+            Assert.assertEquals(partitioner, CassandraUtils.partitionerFromSSTable(files.get(0)));
+            long bytes = SSTableStats.read(files.get(0)).bytes + SSTableStats.read(files.get(1)).bytes;
+
+            Distribution distribution = new Distribution(files, cfdata, partitioner, Distribution.split(partitioner, 4), 2);
+            distribution.run();
+            Assert.assertEquals(4, distribution.ranges.size());
+            Assert.assertEquals(2000, distribution.ranges.stream().mapToLong(r -> r.partitions).sum());
+            Assert.assertEquals(bytes, distribution.ranges.stream().mapToLong(r -> r.bytes).sum());
+            // murmur3 tokens spread evenly
+            for (Distribution.TokenRange range : distribution.ranges) {
+                Assert.assertEquals(500, range.partitions, 100);
+            }
+
+            File ring = new File(sstables.directory, "ring.txt");
+            Files.write(ring.toPath(), ("Address Rack Status State Load Owns Token\n" +
+                    "                                   0\n" +
+                    "10.0.0.1 r1 Up Normal 1MiB ? -4611686018427387904\n" +
+                    "10.0.0.2 r1 Up Normal 1MiB ? 0\n").getBytes(StandardCharsets.UTF_8));
+            List<Distribution.TokenRange> vnodes = Distribution.fromRing(partitioner, ring);
+            Assert.assertEquals(2, vnodes.size());
+            Assert.assertEquals("10.0.0.2", vnodes.get(1).endpoint);
+            distribution = new Distribution(files, cfdata, partitioner, vnodes, 2);
+            distribution.summaryOnly = true;
+            distribution.run();
+            // the wrapping range holds three quarters of the ring
+            Assert.assertEquals(0.75, (double) vnodes.get(0).partitions / (vnodes.get(0).partitions + vnodes.get(1).partitions), 0.1);
+            Assert.assertEquals(bytes, vnodes.stream().mapToLong(r -> r.bytes).sum(), bytes / 10);
+        }
+    }
+}
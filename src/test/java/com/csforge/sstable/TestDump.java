@@ -0,0 +1,40 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Collections;
+
+public class TestDump {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+
+        // Partitioner is not set in client mode.
+        if (DatabaseDescriptor.getPartitioner() == null)
+            DatabaseDescriptor.setPartitionerUnsafe(Murmur3Partitioner.instance);
+    }
+
+    private String dump(File path, CFMetaData cfdata, OutputWriter.Format format, int threads) throws Exception {
+        StringWriter out = new StringWriter();
+        new Dump(Collections.singletonList(path), cfdata, format, threads).run(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        for (OutputWriter.Format format : OutputWriter.Format.values()) {
+            String sequential = dump(path, cfdata, format, 1);
+            Assert.assertEquals(format == OutputWriter.Format.JSON ? 36 : 37, sequential.split("\n").length);
+            Assert.assertEquals(sequential, dump(path, cfdata, format, 4));
+        }
+        Assert.assertEquals(1, Query.parallelism);
+    }
+}
@@ -0,0 +1,34 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestGenerate {
+    @Test
+    public void testGenerate() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.sstables = 3;
+            generate.partitions = 50;
+            generate.rows = 4;
+            generate.threads = 2;
+            List<Generate.Written> written = generate.generate();
+            Assert.assertEquals(3, written.size());
+            Assert.assertEquals(200, written.stream().mapToLong(w -> w.rows).sum());
+            Assert.assertEquals(150, written.stream().mapToLong(w -> w.partitions).sum());
+            List<File> files = written.stream().map(w -> w.file).collect(Collectors.toList());
+
+            Query q = new Query("SELECT count(*) FROM sstables", files, cfdata);
+            Assert.assertEquals(200L, ByteBufferUtil.toLong(q.getResults().getResultSet().rows.get(0).get(0)));
+            q = new Query("SELECT DISTINCT key FROM sstables", files, cfdata);
+            Assert.assertEquals(50, q.getResults().getResultSet().size());
+        }
+    }
+}
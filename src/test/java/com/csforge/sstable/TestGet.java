@@ -0,0 +1,75 @@
+package com.csforge.sstable;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.DecoratedKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestGet {
+    @Test
+    public void testGet() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.sstables = 2;
+            generate.partitions = 100;
+            generate.rows = 5;
+            List<File> files = generate.run();
+
+            List<String> present = new LargePartitions(files, cfdata, 1000, 1).run().stream()
+                    .map(p -> cfdata.getKeyValidator().getString(p.key)).distinct().limit(20).collect(Collectors.toList());
+            String lines = String.join("\n", present) + "\nmissing1\n\n" + present.get(0) + "\nmissing2\n";
+            List<DecoratedKey> keys = Get.readKeys(new BufferedReader(new StringReader(lines)), cfdata);
+            Assert.assertEquals(present.size() + 2, keys.size());
+            for (int i = 1; i < keys.size(); i++) {
+                Assert.assertTrue(keys.get(i - 1).compareTo(keys.get(i)) < 0);
+            }
+
+            KeyCache.instance.clear();
+            List<DecoratedKey> seen = Lists.newArrayList();
+            List<String> missing = Lists.newArrayList();
+            Get get = new Get(files, cfdata, 2);
+            get.run(keys, (key, partition) -> {
+                seen.add(key);
+                if (partition == null) {
+                    missing.add(cfdata.getKeyValidator().getString(key.getKey()));
+                } else {
+                    Assert.assertEquals(key, partition.partitionKey());
+                    Assert.assertTrue(partition.hasNext());
+                }
+            });
+            Assert.assertEquals(keys, seen);
+            Assert.assertEquals(present.size(), get.found.get());
+            Assert.assertEquals(2, missing.size());
+            Assert.assertTrue(missing.contains("missing1") && missing.contains("missing2"));
+            Assert.assertEquals(0, get.cacheHits.get());
+
+            // the positions found are served by the key cache the second time
+            Get again = new Get(files, cfdata, 1);
+            again.run(keys, (key, partition) -> {
+            });
+            Assert.assertEquals(present.size(), again.found.get());
+            Assert.assertEquals(get.indexLookups.get() - get.falsePositives.get(), again.cacheHits.get());
+
+            // closing the readers drops the entries of their sstables
+            Assert.assertTrue(KeyCache.instance.size() > 0);
+            SSTableReaderPool.instance.clear();
+            Assert.assertEquals(0, KeyCache.instance.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKey() throws Exception {
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(
+                "CREATE TABLE numbers (key int PRIMARY KEY, val text)".getBytes()));
+        Get.readKeys(new BufferedReader(new StringReader("1\nnot a number\n")), cfdata);
+    }
+}
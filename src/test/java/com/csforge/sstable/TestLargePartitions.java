@@ -0,0 +1,36 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class TestLargePartitions {
+    @Test
+    public void testLargest() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.partitions = 200;
+            generate.rows = 50;
+            generate.skew = 1.0;
+            List<File> files = generate.run();
+
+            LargePartitions large = new LargePartitions(files, cfdata, 3, 1);
+            List<LargePartitions.Partition> largest = large.run();
+            Assert.assertEquals(200, large.partitions);
+            Assert.assertEquals(3, largest.size());
+            Assert.assertTrue(largest.get(0).size >= largest.get(1).size);
+            Assert.assertTrue(largest.get(1).size >= largest.get(2).size);
+            // the most skewed partition spans several 64KB index blocks
+            Assert.assertTrue(largest.get(0).indexBlocks > 1);
+
+            // every partition listed, the sizes add up to the uncompressed data
+            List<LargePartitions.Partition> all = new LargePartitions(files, cfdata, 200, 1).run();
+            Assert.assertEquals(200, all.size());
+            Assert.assertEquals(SSTableStats.read(files.get(0)).bytes, all.stream().mapToLong(p -> p.size).sum());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.cql3.ColumnIdentifier;
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.Json;
+import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.BooleanType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.ListType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestOutputWriter {
+
+    private String write(OutputWriter.Format format) throws Exception {
+        StringWriter out = new StringWriter();
+        OutputWriter writer = OutputWriter.forColumns(format, out, Arrays.asList("key", "row"));
+        writer.writeStrings("a", "b,\"c\"\td");
+        writer.writeStrings("e", null);
+        return out.toString();
+    }
+
+    @Test
+    public void testFormats() throws Exception {
+        Assert.assertEquals("{\"key\": \"a\", \"row\": \"b,\\\"c\\\"\\td\"}\n{\"key\": \"e\", \"row\": null}\n", write(OutputWriter.Format.JSON));
+        Assert.assertEquals("key,row\na,\"b,\"\"c\"\"\td\"\ne,\n", write(OutputWriter.Format.CSV));
+        Assert.assertEquals("key\trow\na\tb,\"c\"\\td\ne\t\n", write(OutputWriter.Format.TSV));
+    }
+
+    private String writeResult(OutputWriter.Format format, ResultSet.ResultMetadata metadata, List<ByteBuffer>... rows) throws Exception {
+        StringWriter out = new StringWriter();
+        OutputWriter writer = OutputWriter.forResult(format, out, metadata);
+        for (List<ByteBuffer> row : rows) {
+            writer.writeRow(row);
+        }
+        return out.toString();
+    }
+
+    private static ColumnSpecification column(String name, AbstractType<?> type) {
+        return new ColumnSpecification("test", "t", new ColumnIdentifier(name, true), type);
+    }
+
+    @Test
+    public void testResultEncoders() throws Exception {
+        ListType<Integer> list = ListType.getInstance(Int32Type.instance, false);
+        ResultSet.ResultMetadata metadata = new ResultSet.ResultMetadata(Arrays.asList(column("k", Int32Type.instance),
+                column("s", UTF8Type.instance), column("l", list), column("b", BooleanType.instance)));
+        List<ByteBuffer> first = Arrays.asList(Int32Type.instance.decompose(1), UTF8Type.instance.decompose("a\"b,c"),
+                list.decompose(Arrays.asList(1, 2)), BooleanType.instance.decompose(true));
+        List<ByteBuffer> second = Arrays.asList(Int32Type.instance.decompose(2), null, null, BooleanType.instance.decompose(false));
+
+        Assert.assertEquals("{\"k\": 1, \"s\": \"a\\\"b,c\", \"l\": [1, 2], \"b\": true}\n"
+                        + "{\"k\": 2, \"s\": null, \"l\": null, \"b\": false}\n",
+                writeResult(OutputWriter.Format.JSON, metadata, first, second));
+        Assert.assertEquals("k,s,l,b\n1,\"a\"\"b,c\",\"[1, 2]\",true\n2,,,false\n",
+                writeResult(OutputWriter.Format.CSV, metadata, first, second));
+        Assert.assertEquals("k\ts\tl\tb\n1\ta\"b,c\t[1, 2]\ttrue\n2\t\t\tfalse\n",
+                writeResult(OutputWriter.Format.TSV, metadata, first, second));
+    }
+
+    @Test
+    public void testSelectJson() throws Exception {
+        ResultSet.ResultMetadata metadata = new ResultSet.ResultMetadata(Collections.singletonList(
+                new ColumnSpecification("test", "t", Json.JSON_COLUMN_ID, UTF8Type.instance)));
+        List<ByteBuffer> row = Collections.singletonList(UTF8Type.instance.decompose("{\"key\": \"a\"}"));
+
+        // the objects are already JSON, so they are written as they are rather than as the value of a [json] field
+        Assert.assertEquals("{\"key\": \"a\"}\n", writeResult(OutputWriter.Format.JSON, metadata, row));
+        Assert.assertEquals("[json]\n\"{\"\"key\"\": \"\"a\"\"}\"\n", writeResult(OutputWriter.Format.CSV, metadata, row));
+    }
+}
@@ -0,0 +1,40 @@
+package com.csforge.sstable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestPercentileHistogram {
+
+    @Test
+    public void testPercentiles() {
+        Random random = new Random(0);
+        long[] values = new long[100000];
+        PercentileHistogram first = new PercentileHistogram();
+        PercentileHistogram second = new PercentileHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+            (i % 2 == 0 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        Arrays.sort(values);
+        Assert.assertEquals(values.length, first.count());
+        Assert.assertEquals(values[0], first.min());
+        Assert.assertEquals(values[values.length - 1], first.max());
+        for (double q : new double[]{.5, .9, .99, .999}) {
+            long expected = values[(int) Math.ceil(q * values.length) - 1];
+            Assert.assertEquals(expected, first.percentile(q), expected / 100.0);
+        }
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[]{0, 1, 127, 128, 129, 255, 256, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int index = PercentileHistogram.index(value);
+            Assert.assertTrue(PercentileHistogram.upperBound(index) >= value);
+            Assert.assertTrue(index == 0 || PercentileHistogram.upperBound(index - 1) < value);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class TestSSTableReaderPool {
+    static {
+        DatabaseDescriptor.clientInitialization(false);
+
+        // Partitioner is not set in client mode.
+        if (DatabaseDescriptor.getPartitioner() == null)
+            DatabaseDescriptor.setPartitionerUnsafe(Murmur3Partitioner.instance);
+    }
+
+    @Test
+    public void testReuseAndEvict() throws Exception {
+        SSTableReaderPool pool = new SSTableReaderPool(1);
+        File users = Utils.getSSTable("ma", 2);
+        File wide = Utils.getSSTable("ma", 3);
+        CFMetaData usersCfm = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL2.getBytes()));
+        CFMetaData wideCfm = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+
+        SSTableReader first = pool.acquire(users, usersCfm);
+        // equivalent metadata rebuilt from the same schema should not force a reopen
+        CFMetaData rebuilt = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL2.getBytes()));
+        Assert.assertSame(first, pool.acquire(users, rebuilt));
+        pool.release(first);
+        pool.release(first);
+
+        // in use readers are never evicted, unused ones are once over capacity
+        SSTableReader other = pool.acquire(wide, wideCfm);
+        Assert.assertEquals(1, pool.size());
+        Assert.assertNotSame(first, pool.acquire(users, usersCfm));
+        Assert.assertEquals(2, pool.size());
+        pool.release(other);
+        Assert.assertEquals(1, pool.size());
+        pool.clear();
+    }
+
+    @Test
+    public void testConcurrentAcquire() throws Exception {
+        SSTableReaderPool pool = new SSTableReaderPool(4);
+        File users = Utils.getSSTable("ma", 2);
+        CFMetaData usersCfm = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL2.getBytes()));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Callable<SSTableReader> acquire = () -> pool.acquire(users, usersCfm);
+            List<Future<SSTableReader>> futures = executor.invokeAll(
+                    IntStream.range(0, 8).mapToObj(i -> acquire).collect(Collectors.toList()));
+            // the sstable is opened once, every acquire waiting on the same open
+            SSTableReader reader = futures.get(0).get();
+            for (Future<SSTableReader> future : futures) {
+                Assert.assertSame(reader, future.get());
+                pool.release(future.get());
+            }
+            Assert.assertEquals(1, pool.size());
+        } finally {
+            executor.shutdownNow();
+            pool.clear();
+        }
+    }
+
+    @Test
+    public void testSameShape() throws Exception {
+        CFMetaData a = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        CFMetaData b = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        CFMetaData c = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL2.getBytes()));
+        Assert.assertTrue(SSTableReaderPool.sameShape(a, b));
+        Assert.assertFalse(SSTableReaderPool.sameShape(a, c));
+    }
+}
@@ -6,18 +6,34 @@ import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.cql3.ColumnIdentifier;
 import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.db.DataRange;
+import org.apache.cassandra.db.PartitionPosition;
 import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
 import org.apache.cassandra.db.rows.Unfiltered;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class TestSelect {
     static {
@@ -132,4 +148,428 @@ public class TestSelect {
         Assert.assertEquals(1, result.rows.size());
         TableTransformer.dumpResults(cfdata, result, System.out);
     }
+
+    @Test
+    public void testCursorPaging() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query(String.format("SELECT * FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        try (QueryCursor cursor = q.cursor()) {
+            int pages = 0;
+            while (cursor.hasMorePages()) {
+                ResultSet page = cursor.nextPage(10).getResultSet();
+                Assert.assertEquals(pages < 3 ? 10 : 6, page.rows.size());
+                pages++;
+            }
+            Assert.assertEquals(4, pages);
+            Assert.assertEquals(36, cursor.getRowCount());
+        }
+
+        q = new Query(String.format("SELECT * FROM \"%s\" LIMIT 15", path), Collections.singleton(path), cfdata);
+        try (QueryCursor cursor = q.cursor()) {
+            Assert.assertEquals(10, cursor.nextPage(10).getResultSet().rows.size());
+            Assert.assertEquals(5, cursor.nextPage(10).getResultSet().rows.size());
+            Assert.assertFalse(cursor.hasMorePages());
+        }
+    }
+
+    @Test
+    public void testBind() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query(String.format("SELECT * FROM \"%s\" WHERE key = ?", path), Collections.singleton(path), cfdata);
+        Assert.assertEquals(1, q.boundNames.size());
+        for (String key : new String[]{"1", "4"}) {
+            ResultSet result = q.bind(Collections.singletonList(UTF8Type.instance.decompose(key))).getResults().getResultSet();
+            Assert.assertEquals(9, result.rows.size());
+            Assert.assertEquals(key, TableTransformer.colValue(result, result.rows.get(0), 0));
+        }
+        try {
+            q.getResults();
+            Assert.fail("unbound query should not execute");
+        } catch (InvalidRequestException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        String query = String.format("SELECT * FROM \"%s\"", path);
+        ResultSet sequential = new Query(query, Collections.singleton(path), cfdata).getResults().getResultSet();
+        SSTableReader reader = SSTableReaderPool.instance.acquire(path, cfdata);
+        try {
+            AbstractBounds<PartitionPosition> all = DataRange.allData(cfdata.partitioner).keyRange();
+            Assert.assertEquals(4, TokenRanges.split(all, Collections.singleton(reader), cfdata.partitioner, 4).size());
+        } finally {
+            SSTableReaderPool.instance.release(reader);
+        }
+        QueryExecution execution = new QueryExecution(4);
+        ResultSet parallel = new Query(query, Collections.singleton(path), cfdata).getResults(execution).getResultSet();
+        Assert.assertEquals(16, execution.getRanges());
+        Assert.assertEquals(36, parallel.rows.size());
+        Assert.assertEquals(sequential.rows, parallel.rows);
+        Assert.assertEquals(15, new Query(query + " LIMIT 15", Collections.singleton(path), cfdata)
+                .getResults(new QueryExecution(4)).getResultSet().rows.size());
+    }
+
+    @Test
+    public void testParallelAggregation() throws Exception {
+        File path = Utils.getSSTable("mc", 1);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL5.getBytes()));
+        String[] queries = {
+                "SELECT count(*), count(temperature), sum(temperature), min(temperature), max(temperature), avg(temperature), max(event_time) FROM \"%s\"",
+                "SELECT JSON count(*), avg(temperature) FROM \"%s\"",
+                "SELECT weatherstation_id, date, AVG(temperature) AS avg FROM \"%s\" GROUP BY weatherstation_id, date"
+        };
+        for (String query : queries) {
+            query = String.format(query, path);
+            Query q = new Query(query, Collections.singleton(path), cfdata);
+            Assert.assertNull(ParallelAggregation.forQuery(q, 1));
+            Assert.assertNotNull(ParallelAggregation.forQuery(q, 4));
+            ResultSet sequential = q.getResults(new QueryExecution(1)).getResultSet();
+            ResultSet parallel = q.getResults(new QueryExecution(4)).getResultSet();
+            Assert.assertEquals(sequential.metadata.names, parallel.metadata.names);
+            Assert.assertEquals(sequential.rows, parallel.rows);
+        }
+    }
+
+    @Test
+    public void testParallelGroupByRangeBoundaries() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        SSTableReader reader = SSTableReaderPool.instance.acquire(path, cfdata);
+        try {
+            // ranges are split on partition boundaries, so a group by partition never spans two of them
+            AbstractBounds<PartitionPosition> all = DataRange.allData(cfdata.partitioner).keyRange();
+            List<AbstractBounds<PartitionPosition>> ranges = TokenRanges.split(all, Collections.singleton(reader), cfdata.partitioner, 64);
+            Assert.assertTrue(ranges.size() > 4);
+            try (ISSTableScanner scanner = reader.getScanner()) {
+                while (scanner.hasNext()) {
+                    try (UnfilteredRowIterator partition = scanner.next()) {
+                        Assert.assertEquals(1, ranges.stream().filter(r -> r.contains(partition.partitionKey())).count());
+                    }
+                }
+            }
+        } finally {
+            SSTableReaderPool.instance.release(reader);
+        }
+        String query = String.format("SELECT key, count(*), max(val) FROM \"%s\" GROUP BY key", path);
+        Query q = new Query(query, Collections.singleton(path), cfdata);
+        ResultSet sequential = q.getResults(new QueryExecution(1)).getResultSet();
+        ResultSet parallel = q.getResults(new QueryExecution(16)).getResultSet();
+        Assert.assertEquals(4, sequential.rows.size());
+        Assert.assertEquals(sequential.rows, parallel.rows);
+    }
+
+    @Test
+    public void testPruning() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query(String.format("SELECT * FROM \"%s\" WHERE key = '1'", path), Collections.singleton(path), cfdata);
+        QueryExecution execution = new QueryExecution();
+        Assert.assertEquals(9, q.getResults(execution).getResultSet().rows.size());
+        Assert.assertEquals(1, execution.getSSTablesTotal());
+        Assert.assertEquals(0, execution.getSSTablesSkipped());
+
+        q = new Query(String.format("SELECT * FROM \"%s\" WHERE key IN ('missing', 'absent')", path), Collections.singleton(path), cfdata);
+        execution = new QueryExecution();
+        Assert.assertEquals(0, q.getResults(execution).getResultSet().rows.size());
+        Assert.assertEquals(1, execution.getSSTablesSkipped());
+
+        // a cached plan shared by several executions keeps their counts apart
+        QueryExecution other = new QueryExecution();
+        q.getResults(other);
+        Assert.assertEquals(1, other.getSSTablesSkipped());
+        Assert.assertEquals(1, execution.getSSTablesSkipped());
+        Assert.assertEquals(0, new QueryExecution().getSSTablesSkipped());
+    }
+
+    @Test
+    public void testWriteTimeFilter() throws Exception {
+        Assert.assertEquals("SELECT * FROM sstables", WriteTimeFilter.strip("SELECT * FROM sstables WHERE writetime(val) > 5"));
+        Assert.assertEquals("SELECT * FROM sstables WHERE key = '1' LIMIT 2",
+                WriteTimeFilter.strip("SELECT * FROM sstables WHERE writetime(val) > 5 AND key = '1' AND writetime(*) <= 9 LIMIT 2"));
+
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        SSTableReader reader = SSTableReaderPool.instance.acquire(path, cfdata);
+        long min = reader.getMinTimestamp();
+        long max = reader.getMaxTimestamp();
+        SSTableReaderPool.instance.release(reader);
+
+        Query q = new Query(String.format("SELECT * FROM \"%s\" WHERE writetime(val) >= %d", path, min), Collections.singleton(path), cfdata);
+        QueryExecution execution = new QueryExecution();
+        Assert.assertEquals(36, q.getResults(execution).getResultSet().rows.size());
+        Assert.assertEquals(0, execution.getSSTablesSkipped());
+
+        q = new Query(String.format("SELECT * FROM \"%s\" WHERE key = '1' AND writetime(val) > %d", path, max), Collections.singleton(path), cfdata);
+        execution = new QueryExecution();
+        Assert.assertEquals(0, q.getResults(execution).getResultSet().rows.size());
+        Assert.assertEquals(1, execution.getSSTablesSkipped());
+
+        q = new Query(String.format("SELECT * FROM \"%s\" WHERE writetime(*) = %d", path, max), Collections.singleton(path), cfdata);
+        int rows = q.getResults().getResultSet().rows.size();
+        Assert.assertTrue(rows > 0 && rows <= 36);
+    }
+
+    @Test
+    public void testOrderBy() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        String query = String.format("SELECT key, key2, val FROM \"%s\" ORDER BY val DESC, key2", path);
+        Query q = new Query(query, Collections.singleton(path), cfdata);
+        List<List<ByteBuffer>> rows = q.getResults().getResultSet().rows;
+        Assert.assertEquals(36, rows.size());
+
+        List<List<ByteBuffer>> expected = new ArrayList<>(new Query(String.format("SELECT key, key2, val FROM \"%s\"", path),
+                Collections.singleton(path), cfdata).getResults().getResultSet().rows);
+        Comparator<List<ByteBuffer>> val = Comparator.comparing(row -> UTF8Type.instance.compose(row.get(2)));
+        Comparator<List<ByteBuffer>> key2 = Comparator.comparing(row -> UTF8Type.instance.compose(row.get(1)));
+        expected.sort(val.reversed().thenComparing(key2));
+        Assert.assertEquals(expected, rows);
+
+        // a one byte budget spills every row to its own run
+        try (ExternalSorter sorter = new ExternalSorter(q.ordering, 1)) {
+            for (List<ByteBuffer> row : new Query(String.format("SELECT key, key2, val FROM \"%s\"", path),
+                    Collections.singleton(path), cfdata).getResults().getResultSet().rows) {
+                sorter.add(row);
+            }
+            Assert.assertEquals(36, sorter.getRunCount());
+            Assert.assertEquals(expected, Lists.newArrayList(sorter.sorted()));
+        }
+
+        q = new Query(query + " LIMIT 5", Collections.singleton(path), cfdata);
+        Assert.assertEquals(expected.subList(0, 5), q.getResults().getResultSet().rows);
+
+        try {
+            new Query(String.format("SELECT key, key2 FROM \"%s\" ORDER BY val", path), Collections.singleton(path), cfdata);
+            Assert.fail("ORDER BY on a column that is not selected should be rejected");
+        } catch (InvalidRequestException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOrderByStaticOnlyPartitions() throws Exception {
+        try (Utils.Generated sstables = Utils.generated("CREATE TABLE test.statics (key text, key2 text, s text static, val text, PRIMARY KEY (key, key2))")) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.partitions = 3000;
+            generate.rows = 1;
+            generate.tombstoneRatio = 0.5;
+            File path = generate.run().get(0);
+
+            // partitions with a deleted row only return their static row, which a sort batch does not count
+            String query = String.format("SELECT key, s, val FROM \"%s\"", path);
+            List<List<ByteBuffer>> expected = new ArrayList<>(new Query(query, Collections.singleton(path), cfdata)
+                    .getResults().getResultSet().rows);
+            Assert.assertEquals(3000, expected.size());
+            Assert.assertTrue(expected.stream().filter(row -> row.get(2) == null).count() > 1000);
+            expected.sort(Comparator.comparing(row -> UTF8Type.instance.compose(row.get(0))));
+
+            Query q = new Query(query + " ORDER BY key", Collections.singleton(path), cfdata);
+            Assert.assertEquals(expected, q.getResults().getResultSet().rows);
+        }
+    }
+
+    @Test
+    public void testSortMergePasses() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query(String.format("SELECT key, key2, val FROM \"%s\" ORDER BY val DESC, key2", path),
+                Collections.singleton(path), cfdata);
+        List<List<ByteBuffer>> rows = new Query(String.format("SELECT key, key2, val FROM \"%s\"", path),
+                Collections.singleton(path), cfdata).getResults().getResultSet().rows;
+        List<List<ByteBuffer>> expected = new ArrayList<>(rows);
+        expected.sort(q.ordering);
+
+        // 36 single row runs merged 3 at a time take three passes before the final merge
+        try (ExternalSorter sorter = new ExternalSorter(q.ordering, 1, 3)) {
+            for (List<ByteBuffer> row : rows) {
+                sorter.add(row);
+            }
+            Assert.assertEquals(36, sorter.getRunCount());
+            Assert.assertEquals(expected, Lists.newArrayList(sorter.sorted()));
+            Assert.assertEquals(2, sorter.getRunCount());
+        }
+    }
+
+    @Test
+    public void testDistinct() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        List<ByteBuffer> expected = new ArrayList<>();
+        for (List<ByteBuffer> row : new Query(String.format("SELECT key FROM \"%s\"", path), Collections.singleton(path), cfdata)
+                .getResults().getResultSet().rows) {
+            if (!expected.contains(row.get(0))) {
+                expected.add(row.get(0));
+            }
+        }
+
+        Query q = new Query(String.format("SELECT DISTINCT key FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        Assert.assertTrue(q.isIndexOnly());
+        List<ByteBuffer> keys = new ArrayList<>();
+        for (List<ByteBuffer> row : q.getResults().getResultSet().rows) {
+            keys.add(row.get(0));
+        }
+        Assert.assertEquals(expected, keys);
+
+        // resumes after the last partition of each page
+        List<ByteBuffer> paged = new ArrayList<>();
+        ResultSetData page = q.getResults(2);
+        while (true) {
+            for (List<ByteBuffer> row : page.getResultSet().rows) {
+                paged.add(row.get(0));
+            }
+            if (!page.getPagingData().hasMorePages()) {
+                break;
+            }
+            page = q.getResults(2, page.getPagingData());
+        }
+        Assert.assertEquals(expected, paged);
+
+        q = new Query(String.format("SELECT DISTINCT key FROM \"%s\" LIMIT 2", path), Collections.singleton(path), cfdata);
+        Assert.assertEquals(2, q.getResults().getResultSet().rows.size());
+
+        try {
+            new Query(String.format("SELECT DISTINCT key2 FROM \"%s\"", path), Collections.singleton(path), cfdata);
+            Assert.fail("DISTINCT on a clustering column should be rejected");
+        } catch (InvalidRequestException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIndexOnlyCount() throws Exception {
+        File path = Utils.getSSTable("ma", 4);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL4.getBytes()));
+        List<List<ByteBuffer>> rows = new Query(String.format("SELECT * FROM \"%s\"", path), Collections.singleton(path), cfdata)
+                .getResults().getResultSet().rows;
+
+        Query q = new Query(String.format("SELECT count(*) FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        Assert.assertTrue(q.isIndexOnly());
+        ResultSet result = q.getResults().getResultSet();
+        Assert.assertEquals((long) rows.size(), (long) LongType.instance.compose(result.rows.get(0).get(0)));
+
+        q = new Query(String.format("SELECT key1 FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        Assert.assertTrue(q.isIndexOnly());
+        List<ByteBuffer> keys = new ArrayList<>();
+        for (List<ByteBuffer> row : q.getResults().getResultSet().rows) {
+            keys.add(row.get(0));
+        }
+        Assert.assertEquals(rows.stream().map(row -> row.get(0)).collect(Collectors.toList()), keys);
+
+        Assert.assertFalse(new Query(String.format("SELECT count(listval) FROM \"%s\"", path), Collections.singleton(path), cfdata).isIndexOnly());
+        Assert.assertFalse(new Query(String.format("SELECT count(*) FROM \"%s\"", Utils.getSSTable("ma", 3)),
+                Collections.singleton(Utils.getSSTable("ma", 3)), CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()))).isIndexOnly());
+    }
+
+    @Test
+    public void testIndexOnlyFallback() throws Exception {
+        try (Utils.Generated sstables = Utils.generated("CREATE TABLE test.keys (key text PRIMARY KEY, val text)")) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.partitions = 100;
+            generate.rows = 1;
+            File live = generate.run().get(0);
+            generate.seed = 1;
+            generate.tombstoneRatio = 0.5;
+            File deleted = generate.run().get(0);
+            generate.seed = 2;
+            generate.tombstoneRatio = 0;
+            generate.ttlRatio = 0.5;
+            generate.ttl = 1;
+            File expiring = generate.run().get(0);
+            // let the cells with a TTL expire
+            Thread.sleep(2000);
+
+            Assert.assertTrue(indexOnlyCount(live, cfdata, 100));
+            Assert.assertFalse(indexOnlyCount(deleted, cfdata, -1));
+            Assert.assertFalse(indexOnlyCount(expiring, cfdata, -1));
+        }
+    }
+
+    /**
+     * Checks count(*) and a partition key selection against a scan of every row, returning whether the count was
+     * answered from the index alone.
+     */
+    private static boolean indexOnlyCount(File path, CFMetaData cfdata, int expected) throws Exception {
+        List<List<ByteBuffer>> rows = new Query(String.format("SELECT * FROM \"%s\"", path), Collections.singleton(path), cfdata)
+                .getResults().getResultSet().rows;
+        if (expected >= 0) {
+            Assert.assertEquals(expected, rows.size());
+        } else {
+            Assert.assertTrue(rows.size() > 0 && rows.size() < 100);
+        }
+        Query q = new Query(String.format("SELECT count(*) FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        Assert.assertTrue(q.isIndexOnly());
+        ResultSet result = q.getResults().getResultSet();
+        Assert.assertEquals((long) rows.size(), (long) LongType.instance.compose(result.rows.get(0).get(0)));
+
+        q = new Query(String.format("SELECT key FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        List<ByteBuffer> keys = new ArrayList<>();
+        for (List<ByteBuffer> row : q.getResults().getResultSet().rows) {
+            keys.add(row.get(0));
+        }
+        Assert.assertEquals(rows.stream().map(row -> row.get(0)).collect(Collectors.toList()), keys);
+        return q.explain().get(0).startsWith("Partition key scan");
+    }
+
+    @Test
+    public void testForEachRow() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query(String.format("SELECT * FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        List<List<ByteBuffer>> expected = q.getResults().getResultSet().rows;
+        List<List<ByteBuffer>> rows = new ArrayList<>();
+        Assert.assertEquals(36, q.forEachRow(rows::add));
+        Assert.assertEquals(expected, rows);
+        Assert.assertEquals(3, q.getResultMetadata().names.size());
+    }
+
+    @Test
+    public void testTraceAndExplain() throws Exception {
+        File path = Utils.getSSTable("ma", 3);
+        CFMetaData cfdata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(Utils.CQL3.getBytes()));
+        Query q = new Query(String.format("SELECT * FROM \"%s\" WHERE val = 'Y' ALLOW FILTERING", path), Collections.singleton(path), cfdata);
+        QueryExecution execution = new QueryExecution(1, new QueryTrace());
+        int rows = q.getResults(execution).getResultSet().size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        execution.getTrace().print(new PrintStream(out), rows);
+        String trace = out.toString();
+        Assert.assertTrue(trace, trace.contains("ma-3-big read"));
+        Assert.assertTrue(trace, trace.contains("rows read 36, matched 0, returned 0"));
+
+        // executions of the same plan are traced apart
+        QueryExecution other = new QueryExecution(1, new QueryTrace());
+        q.getResults(other);
+        q.getResults(new QueryExecution());
+        out.reset();
+        execution.getTrace().print(new PrintStream(out), rows);
+        Assert.assertEquals(trace, out.toString());
+
+        // the scan is timed while reading, not while the consumer is away between pages
+        q = new Query(String.format("SELECT * FROM \"%s\"", path), Collections.singleton(path), cfdata);
+        execution = new QueryExecution(1, new QueryTrace());
+        try (UnfilteredPartitionIterator scanner = q.getScanner(execution)) {
+            while (scanner.hasNext()) {
+                try (UnfilteredRowIterator partition = scanner.next()) {
+                    while (partition.hasNext()) {
+                        partition.next();
+                    }
+                }
+                Thread.sleep(100);
+            }
+        }
+        long scan = execution.getTrace().getPhase("scan");
+        Assert.assertTrue(scan > 0);
+        Assert.assertTrue(String.valueOf(scan), scan < TimeUnit.MILLISECONDS.toNanos(100));
+
+        q = new Query(String.format("SELECT * FROM \"%s\" WHERE key = 'missing'", path), Collections.singleton(path), cfdata);
+        List<String> plan = q.explain();
+        Assert.assertEquals("Point lookup of 1 partition(s)", plan.get(0));
+        Assert.assertTrue(plan.toString(), plan.get(plan.size() - 1).endsWith("ma-3-big skipped (partition keys not in key range or bloom filter)"));
+    }
 }
@@ -0,0 +1,82 @@
+package com.csforge.sstable;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestTombstones {
+    @Test
+    public void testForecast() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            CFMetaData cfdata = sstables.metadata;
+            Generate generate = sstables.generate;
+            generate.sstables = 2;
+            generate.partitions = 100;
+            generate.rows = 20;
+            generate.tombstoneRatio = 0.25;
+            generate.ttlRatio = 0.5;
+            generate.ttl = 3600;
+            List<File> files = generate.run();
+
+            Tombstones tombstones = new Tombstones(files, cfdata, 0);
+            tombstones.top = 5;
+            tombstones.run(2, false);
+            Assert.assertEquals(200, tombstones.partitions);
+            long rows = tombstones.counts[Tombstones.Kind.ROW.ordinal()];
+            Assert.assertEquals(0.25 * 2000, rows, 100);
+            Assert.assertTrue(tombstones.counts[Tombstones.Kind.TTL.ordinal()] > 0);
+
+            // with no gc grace the tombstones can be dropped now, the expiring cells once they expire within the hour
+            long total = Arrays.stream(tombstones.bytes).sum();
+            Assert.assertEquals(total - tombstones.bytes[Tombstones.Kind.TTL.ordinal()], tombstones.reclaimable[0]);
+            Assert.assertEquals(total, tombstones.reclaimable[0] + tombstones.reclaimable[1]);
+
+            Assert.assertEquals(5, tombstones.offenders.size());
+            for (int i = 1; i < tombstones.offenders.size(); i++) {
+                Assert.assertTrue(tombstones.offenders.get(i - 1).tombstones() >= tombstones.offenders.get(i).tombstones());
+            }
+
+            StringWriter json = new StringWriter();
+            tombstones.writeJson(json);
+            Assert.assertTrue(json.toString().contains("\"offenders\""));
+        }
+    }
+
+    @Test
+    public void testExpiringCellForecast() throws Exception {
+        try (Utils.Generated sstables = Utils.generated(Utils.CQL3)) {
+            Generate generate = sstables.generate;
+            generate.partitions = 50;
+            generate.rows = 4;
+            generate.ttlRatio = 1;
+            generate.ttl = 3600;
+            List<File> files = generate.run();
+
+            // a TTL shorter than gc grace: the values go on expiry, the rest gc grace after the cells were written
+            Tombstones tombstones = new Tombstones(files, sstables.metadata, 86400);
+            tombstones.forecast = new long[]{3600, 86400};
+            tombstones.run(1, false);
+            long ttl = tombstones.bytes[Tombstones.Kind.TTL.ordinal()];
+            Assert.assertEquals(0, tombstones.reclaimable[0]);
+            Assert.assertTrue(tombstones.reclaimable[1] > 0);
+            Assert.assertEquals(ttl, tombstones.reclaimable[1] + tombstones.reclaimable[2]);
+            Assert.assertEquals(0, tombstones.reclaimable[3]);
+
+            // a TTL longer than gc grace: the whole cell goes on expiry
+            tombstones = new Tombstones(files, sstables.metadata, 60);
+            tombstones.forecast = new long[]{3600, 86400};
+            tombstones.run(1, false);
+            Assert.assertEquals(ttl, tombstones.reclaimable[1]);
+        }
+    }
+
+    @Test
+    public void testParseForecast() {
+        Assert.assertArrayEquals(new long[]{90, 1800, 43200, 604800}, Tombstones.parseForecast("7d, 12h,30m,90"));
+    }
+}
@@ -1,12 +1,16 @@
 package com.csforge.sstable;
 
 import com.google.common.io.ByteStreams;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.io.util.FileUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
 
 public class Utils {
     public static String CQL1 =
@@ -60,4 +64,34 @@ public class Utils {
         copyResource(version + "-" + generation + "-big-TOC.txt");
         return copyResource(version + "-" + generation + "-big-Data.db");
     }
+
+    /**
+     * SSTables of random data written by {@link Generate} to a temporary directory. Closing it releases the pooled
+     * readers and cached keys of the sstables and deletes the directory.
+     */
+    public static class Generated implements AutoCloseable {
+        public final CFMetaData metadata;
+        public final File directory;
+        public final Generate generate;
+
+        private Generated(CFMetaData metadata, File directory) {
+            this.metadata = metadata;
+            this.directory = directory;
+            this.generate = new Generate(metadata, directory);
+        }
+
+        public void close() {
+            KeyCache.instance.clear();
+            SSTableReaderPool.instance.clear();
+            FileUtils.deleteRecursive(directory);
+        }
+    }
+
+    /**
+     * A generator of sstables for the table in a new temporary directory, to be configured and run by the test.
+     */
+    public static Generated generated(String cql) throws Exception {
+        CFMetaData metadata = CassandraUtils.tableFromCQL(new ByteArrayInputStream(cql.getBytes()));
+        return new Generated(metadata, Files.createTempDirectory("sstabletools").toFile());
+    }
 }